@@ -0,0 +1,126 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.moduledistro;
+
+import java.util.Date;
+
+/**
+ * A distro deployment that runs in the background. Its result grows as each action is taken, so callers can poll it
+ * for progress.
+ */
+public class DeploymentJob {
+	
+	public enum Status {
+		QUEUED, RUNNING, SUCCEEDED, FAILED
+	}
+	
+	private final String id;
+	
+	private final Date dateSubmitted = new Date();
+	
+	private volatile Status status = Status.QUEUED;
+	
+	private volatile Date dateFinished;
+	
+	private volatile String error;
+	
+	private final DeploymentResult result;
+	
+	/**
+	 * @param id
+	 * @param result the result so far
+	 */
+	public DeploymentJob(String id, DeploymentResult result) {
+		this.id = id;
+		this.result = result;
+	}
+	
+	/**
+	 * Marks this job as started
+	 */
+	public void started() {
+		status = Status.RUNNING;
+	}
+	
+	/**
+	 * Marks this job as finished
+	 * 
+	 * @param failure why it failed, or null if it succeeded
+	 */
+	public void finished(Throwable failure) {
+		if (failure != null) {
+			error = failure.getMessage() != null ? failure.getMessage() : failure.toString();
+		}
+		dateFinished = new Date();
+		status = failure == null ? Status.SUCCEEDED : Status.FAILED;
+	}
+	
+	/**
+	 * @return whether this job has succeeded or failed
+	 */
+	public boolean isFinished() {
+		return status == Status.SUCCEEDED || status == Status.FAILED;
+	}
+	
+	/**
+	 * @return the id
+	 */
+	public String getId() {
+		return id;
+	}
+	
+	/**
+	 * @return the dateSubmitted
+	 */
+	public Date getDateSubmitted() {
+		return dateSubmitted;
+	}
+	
+	/**
+	 * @return the status
+	 */
+	public Status getStatus() {
+		return status;
+	}
+	
+	/**
+	 * @return the dateFinished
+	 */
+	public Date getDateFinished() {
+		return dateFinished;
+	}
+	
+	/**
+	 * @return why the job failed, or null
+	 */
+	public String getError() {
+		return error;
+	}
+	
+	/**
+	 * @return the result, which is filled in as the job runs
+	 */
+	public DeploymentResult getResult() {
+		return result;
+	}
+	
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "DeploymentJob " + id + " (" + status + ")";
+	}
+	
+}
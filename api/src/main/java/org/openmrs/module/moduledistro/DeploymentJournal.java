@@ -0,0 +1,250 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.moduledistro;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A write-ahead record of a deployment's planned actions, and of how many of them have been completed, so a deployment
+ * interrupted by a crash can be resumed at the next startup. A journal whose dateFinished is null belongs to a
+ * deployment that is still running, or was interrupted.
+ */
+public class DeploymentJournal {
+
+	private String id;
+
+	private String jvm;
+
+	private String pendingFolder;
+
+	private String actionsText = "";
+
+	private int completedActions;
+
+	private Date dateStarted;
+
+	private Date dateFinished;
+
+	private String error;
+
+	/**
+	 * @return the planned actions, in order
+	 *
+	 * @should read back the actions that were set
+	 */
+	public List<Entry> getActions() {
+		List<Entry> ret = new ArrayList<Entry>();
+		if (actionsText != null) {
+			for (String line : actionsText.split("\n")) {
+				String[] fields = line.split("\t", -1);
+				if (fields.length == 4)
+					ret.add(new Entry(fields[0], fields[1], emptyToNull(fields[2]), emptyToNull(fields[3])));
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * @param actions the planned actions, in order
+	 */
+	public void setActions(List<Entry> actions) {
+		actionsText = "";
+		for (Entry action : actions) {
+			addAction(action);
+		}
+	}
+
+	/**
+	 * @param action an action added to the end of the plan while it is executed
+	 */
+	public void addAction(Entry action) {
+		actionsText += action.getAction() + "\t" + action.getModuleId() + "\t" + nullToEmpty(action.getVersion()) + "\t"
+		        + nullToEmpty(action.getFilename()) + "\n";
+	}
+
+	private static String nullToEmpty(String s) {
+		return s == null ? "" : s;
+	}
+
+	private static String emptyToNull(String s) {
+		return s.length() == 0 ? null : s;
+	}
+
+	/**
+	 * @return the id
+	 */
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * @param id the id to set
+	 */
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	/**
+	 * @return identifies the JVM that ran the deployment, so a deployment that is still running is not mistaken for an
+	 *         interrupted one
+	 */
+	public String getJvm() {
+		return jvm;
+	}
+
+	/**
+	 * @param jvm the jvm to set
+	 */
+	public void setJvm(String jvm) {
+		this.jvm = jvm;
+	}
+
+	/**
+	 * @return the folder in the module repository holding the omods still to be installed, or null if there are none
+	 */
+	public String getPendingFolder() {
+		return pendingFolder;
+	}
+
+	/**
+	 * @param pendingFolder the pendingFolder to set
+	 */
+	public void setPendingFolder(String pendingFolder) {
+		this.pendingFolder = pendingFolder;
+	}
+
+	/**
+	 * @return the actions, one "action moduleId version filename" line per action, tab-separated, as stored in the
+	 *         database
+	 */
+	public String getActionsText() {
+		return actionsText;
+	}
+
+	/**
+	 * @param actionsText the actionsText to set
+	 */
+	public void setActionsText(String actionsText) {
+		this.actionsText = actionsText;
+	}
+
+	/**
+	 * @return how many of the actions, from the start, are known to have been completed
+	 */
+	public int getCompletedActions() {
+		return completedActions;
+	}
+
+	/**
+	 * @param completedActions the completedActions to set
+	 */
+	public void setCompletedActions(int completedActions) {
+		this.completedActions = completedActions;
+	}
+
+	/**
+	 * @return the dateStarted
+	 */
+	public Date getDateStarted() {
+		return dateStarted;
+	}
+
+	/**
+	 * @param dateStarted the dateStarted to set
+	 */
+	public void setDateStarted(Date dateStarted) {
+		this.dateStarted = dateStarted;
+	}
+
+	/**
+	 * @return when the deployment finished, whether or not it succeeded, or null if it has not
+	 */
+	public Date getDateFinished() {
+		return dateFinished;
+	}
+
+	/**
+	 * @param dateFinished the dateFinished to set
+	 */
+	public void setDateFinished(Date dateFinished) {
+		this.dateFinished = dateFinished;
+	}
+
+	/**
+	 * @return why the deployment failed, or null
+	 */
+	public String getError() {
+		return error;
+	}
+
+	/**
+	 * @param error the error to set
+	 */
+	public void setError(String error) {
+		this.error = error;
+	}
+
+	/**
+	 * One planned action
+	 */
+	public static class Entry {
+
+		private String action;
+
+		private String moduleId;
+
+		private String version;
+
+		private String filename;
+
+		public Entry(String action, String moduleId, String version, String filename) {
+			this.action = action;
+			this.moduleId = moduleId;
+			this.version = version;
+			this.filename = filename;
+		}
+
+		/**
+		 * @return the name of the action, e.g. STOP
+		 */
+		public String getAction() {
+			return action;
+		}
+
+		/**
+		 * @return the moduleId
+		 */
+		public String getModuleId() {
+			return moduleId;
+		}
+
+		/**
+		 * @return the version the action applies to, i.e. the installed version for STOP and REMOVE, and the new one
+		 *         for INSTALL
+		 */
+		public String getVersion() {
+			return version;
+		}
+
+		/**
+		 * @return for INSTALL, the name of the omod file in the pending folder, otherwise null
+		 */
+		public String getFilename() {
+			return filename;
+		}
+	}
+
+}
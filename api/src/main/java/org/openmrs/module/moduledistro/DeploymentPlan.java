@@ -0,0 +1,137 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.moduledistro;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * What deploying a distro would do, without doing it: the planned actions, in the order they would be taken, and the
+ * running modules that would be stopped and started again because they (transitively) require a module that is
+ * upgraded or removed.
+ */
+public class DeploymentPlan {
+	
+	private final List<PlannedAction> actions;
+	
+	private final Set<String> restartedModuleIds = new LinkedHashSet<String>();
+	
+	/**
+	 * @param actions planned actions, in order
+	 */
+	public DeploymentPlan(List<PlannedAction> actions) {
+		this.actions = Collections.unmodifiableList(new ArrayList<PlannedAction>(actions));
+		Set<String> reinstalled = new LinkedHashSet<String>();
+		Set<String> started = new LinkedHashSet<String>();
+		for (PlannedAction action : actions) {
+			if (PlannedAction.REMOVE.equals(action.getAction()))
+				reinstalled.add(action.getModuleId());
+			else if (PlannedAction.START.equals(action.getAction()))
+				started.add(action.getModuleId());
+		}
+		for (PlannedAction action : actions) {
+			String moduleId = action.getModuleId();
+			if (PlannedAction.STOP.equals(action.getAction()) && started.contains(moduleId) && !reinstalled.contains(moduleId))
+				restartedModuleIds.add(moduleId);
+		}
+	}
+	
+	/**
+	 * @return the planned actions, in the order they would be taken
+	 */
+	public List<PlannedAction> getActions() {
+		return actions;
+	}
+	
+	/**
+	 * @return the ids of the running modules that would only be stopped and started again, in the order they would be
+	 *         stopped
+	 * 
+	 * @should list the dependents that are restarted, but not the upgraded modules
+	 */
+	public Set<String> getRestartedModuleIds() {
+		return Collections.unmodifiableSet(restartedModuleIds);
+	}
+	
+	/**
+	 * @return whether deploying the distro would not change anything, i.e. every action is a SKIP
+	 * 
+	 * @should be empty when every action is a skip
+	 */
+	public boolean isEmpty() {
+		for (PlannedAction action : actions) {
+			if (!PlannedAction.SKIP.equals(action.getAction()))
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * One action of a plan
+	 */
+	public static class PlannedAction {
+		
+		public static final String SKIP = "SKIP";
+		
+		public static final String STOP = "STOP";
+		
+		public static final String REMOVE = "REMOVE";
+		
+		public static final String INSTALL = "INSTALL";
+		
+		public static final String START = "START";
+		
+		private String action;
+		
+		private String moduleId;
+		
+		private String version;
+		
+		/**
+		 * @param action e.g. STOP or INSTALL
+		 * @param moduleId
+		 * @param version the installed version for STOP and REMOVE, and the version in the distro for SKIP and INSTALL
+		 */
+		public PlannedAction(String action, String moduleId, String version) {
+			this.action = action;
+			this.moduleId = moduleId;
+			this.version = version;
+		}
+		
+		/**
+		 * @return the action
+		 */
+		public String getAction() {
+			return action;
+		}
+		
+		/**
+		 * @return the moduleId
+		 */
+		public String getModuleId() {
+			return moduleId;
+		}
+		
+		/**
+		 * @return the version
+		 */
+		public String getVersion() {
+			return version;
+		}
+	}
+	
+}
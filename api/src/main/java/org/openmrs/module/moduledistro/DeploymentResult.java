@@ -0,0 +1,205 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.moduledistro;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What a distro deployment did, and how long each part of it took. This may be read while the deployment is still
+ * running, so all access is synchronized.
+ */
+public class DeploymentResult {
+	
+	public static final String PHASE_EXTRACT = "extract";
+	
+	public static final String PHASE_INSPECT = "inspect";
+	
+	public static final String PHASE_PLAN = "plan";
+	
+	public static final String PHASE_PREFLIGHT = "preflight";
+	
+	public static final String PHASE_PREPARE = "prepare";
+	
+	public static final String PHASE_EXECUTE = "execute";
+	
+	private final List<String> log = new ArrayList<String>();
+	
+	private final List<ActionRecord> actions = new ArrayList<ActionRecord>();
+	
+	private final Map<String, Long> phaseMillis = new LinkedHashMap<String, Long>();
+	
+	private long bytesExtracted;
+	
+	/**
+	 * @param line a human-readable line describing something that was done
+	 */
+	public synchronized void log(String line) {
+		log.add(line);
+	}
+	
+	/**
+	 * @param action a timed action
+	 */
+	public synchronized void addAction(ActionRecord action) {
+		actions.add(action);
+	}
+	
+	/**
+	 * Adds to the time spent in a phase. When a phase is spread over several worker threads, this is the total time
+	 * spent on it by all of them, which may be more than the wall-clock time it took.
+	 * 
+	 * @param phase
+	 * @param millis
+	 */
+	public synchronized void addPhaseTime(String phase, long millis) {
+		Long soFar = phaseMillis.get(phase);
+		phaseMillis.put(phase, (soFar == null ? 0 : soFar) + millis);
+	}
+	
+	/**
+	 * @param bytes
+	 */
+	public synchronized void addBytesExtracted(long bytes) {
+		bytesExtracted += bytes;
+	}
+	
+	/**
+	 * @return the human-readable log
+	 */
+	public synchronized List<String> getLog() {
+		return new ArrayList<String>(log);
+	}
+	
+	/**
+	 * @param from
+	 * @return the lines of the log starting at index from, so pollers only fetch what is new
+	 */
+	public synchronized List<String> getLogSince(int from) {
+		return new ArrayList<String>(log.subList(Math.min(Math.max(from, 0), log.size()), log.size()));
+	}
+	
+	/**
+	 * @return the timed actions, in the order they were taken
+	 */
+	public synchronized List<ActionRecord> getActions() {
+		return new ArrayList<ActionRecord>(actions);
+	}
+	
+	/**
+	 * @return the time spent in each phase, in milliseconds, in the order the phases ran
+	 */
+	public synchronized Map<String, Long> getPhaseMillis() {
+		return new LinkedHashMap<String, Long>(phaseMillis);
+	}
+	
+	/**
+	 * @return the total size of the omods written out of the distro
+	 */
+	public synchronized long getBytesExtracted() {
+		return bytesExtracted;
+	}
+	
+	/**
+	 * One action taken on one module (or, for {@link #REFRESH_CONTEXT}, on the web application context), and how long
+	 * it took
+	 */
+	public static class ActionRecord {
+		
+		public static final String REFRESH_CONTEXT = "REFRESH_CONTEXT";
+		
+		private String action;
+		
+		private String moduleId;
+		
+		private String oldVersion;
+		
+		private String newVersion;
+		
+		private long wallMillis;
+		
+		private long cpuMillis;
+		
+		/**
+		 * @param action e.g. STOP or INSTALL
+		 * @param moduleId
+		 * @param oldVersion the version that was running or installed before, if any
+		 * @param newVersion the version that is running or installed after, if any
+		 * @param wallMillis
+		 * @param cpuMillis CPU time of the deploying thread, or -1 if the JVM cannot measure it
+		 */
+		public ActionRecord(String action, String moduleId, String oldVersion, String newVersion, long wallMillis,
+		    long cpuMillis) {
+			this.action = action;
+			this.moduleId = moduleId;
+			this.oldVersion = oldVersion;
+			this.newVersion = newVersion;
+			this.wallMillis = wallMillis;
+			this.cpuMillis = cpuMillis;
+		}
+		
+		/**
+		 * @return the action
+		 */
+		public String getAction() {
+			return action;
+		}
+		
+		/**
+		 * @return the moduleId
+		 */
+		public String getModuleId() {
+			return moduleId;
+		}
+		
+		/**
+		 * @return the oldVersion
+		 */
+		public String getOldVersion() {
+			return oldVersion;
+		}
+		
+		/**
+		 * @return the newVersion
+		 */
+		public String getNewVersion() {
+			return newVersion;
+		}
+		
+		/**
+		 * @return the wallMillis
+		 */
+		public long getWallMillis() {
+			return wallMillis;
+		}
+		
+		/**
+		 * @return the cpuMillis, or -1 if it could not be measured
+		 */
+		public long getCpuMillis() {
+			return cpuMillis;
+		}
+		
+		/**
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return action + " " + moduleId + " (" + oldVersion + " -> " + newVersion + ") " + wallMillis + "ms";
+		}
+	}
+	
+}
@@ -0,0 +1,202 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.moduledistro;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Describes the omods in a distro, in order, without including them. A client sends this before uploading a distro,
+ * so that it only has to upload the omods the server does not already have.
+ * <p>
+ * A distro zip may also start with a manifest, as its {@link #ZIP_ENTRY_NAME} entry. That manifest must be complete,
+ * i.e. give each omod's package and required modules too, so that the distro can be planned without opening any omod.
+ *
+ * @see DistroManifestReader
+ * @see DistroManifestWriter
+ */
+public class DistroManifest {
+
+	/**
+	 * The name of the optional manifest entry at the start of a distro zip
+	 */
+	public static final String ZIP_ENTRY_NAME = "distro-manifest.xml";
+
+	private List<Entry> omods = new ArrayList<Entry>();
+
+	/**
+	 * @return the omods in the distro, in the order they should be deployed
+	 */
+	public List<Entry> getOmods() {
+		return omods;
+	}
+
+	/**
+	 * @param omods the omods to set
+	 */
+	public void setOmods(List<Entry> omods) {
+		this.omods = omods;
+	}
+
+	/**
+	 * @param digest
+	 * @return the entry with this digest, or null
+	 */
+	public Entry getOmod(String digest) {
+		for (Entry omod : omods) {
+			if (omod.getDigest().equals(digest))
+				return omod;
+		}
+		return null;
+	}
+
+	/**
+	 * One omod in a manifest
+	 */
+	public static class Entry {
+
+		private String digest;
+
+		private String filename;
+
+		private String moduleId;
+
+		private String version;
+
+		private String packageName;
+
+		private String requireVersion;
+
+		private Map<String, String> requiredModules = new LinkedHashMap<String, String>();
+
+		public Entry() {
+		}
+
+		public Entry(String digest, String filename, String moduleId, String version) {
+			this.digest = digest;
+			this.filename = filename;
+			this.moduleId = moduleId;
+			this.version = version;
+		}
+
+		/**
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return filename + " (" + moduleId + " v" + version + ", " + digest + ")";
+		}
+
+		/**
+		 * @return the SHA-256 digest of the omod, in lower-case hex
+		 */
+		public String getDigest() {
+			return digest;
+		}
+
+		/**
+		 * @param digest the digest to set
+		 */
+		public void setDigest(String digest) {
+			this.digest = digest;
+		}
+
+		/**
+		 * @return the filename the omod is installed under
+		 */
+		public String getFilename() {
+			return filename;
+		}
+
+		/**
+		 * @param filename the filename to set
+		 */
+		public void setFilename(String filename) {
+			this.filename = filename;
+		}
+
+		/**
+		 * @return the moduleId
+		 */
+		public String getModuleId() {
+			return moduleId;
+		}
+
+		/**
+		 * @param moduleId the moduleId to set
+		 */
+		public void setModuleId(String moduleId) {
+			this.moduleId = moduleId;
+		}
+
+		/**
+		 * @return the version
+		 */
+		public String getVersion() {
+			return version;
+		}
+
+		/**
+		 * @param version the version to set
+		 */
+		public void setVersion(String version) {
+			this.version = version;
+		}
+
+		/**
+		 * @return the packageName (only required in a manifest inside a distro zip)
+		 */
+		public String getPackageName() {
+			return packageName;
+		}
+
+		/**
+		 * @param packageName the packageName to set
+		 */
+		public void setPackageName(String packageName) {
+			this.packageName = packageName;
+		}
+
+		/**
+		 * @return the OpenMRS version this module requires (may be null)
+		 */
+		public String getRequireVersion() {
+			return requireVersion;
+		}
+
+		/**
+		 * @param requireVersion the requireVersion to set
+		 */
+		public void setRequireVersion(String requireVersion) {
+			this.requireVersion = requireVersion;
+		}
+
+		/**
+		 * @return the package names of the modules this requires, mapped to their minimum versions (which may be null)
+		 */
+		public Map<String, String> getRequiredModules() {
+			return requiredModules;
+		}
+
+		/**
+		 * @param requiredModules the requiredModules to set
+		 */
+		public void setRequiredModules(Map<String, String> requiredModules) {
+			this.requiredModules = requiredModules;
+		}
+	}
+
+}
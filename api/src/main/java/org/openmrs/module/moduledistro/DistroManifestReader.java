@@ -0,0 +1,131 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.moduledistro;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.io.input.CloseShieldInputStream;
+
+/**
+ * Reads a {@link DistroManifest} from XML like:
+ *
+ * <pre>
+ * &lt;distro-manifest&gt;
+ *     &lt;omod digest="(sha-256, in hex)" filename="reporting-0.7.omod" id="reporting" version="0.7"
+ *           package="org.openmrs.module.reporting" require_version="1.8.3"&gt;
+ *         &lt;require_module version="1.2"&gt;org.openmrs.module.serialization.xstream&lt;/require_module&gt;
+ *     &lt;/omod&gt;
+ *     ...
+ * &lt;/distro-manifest&gt;
+ * </pre>
+ *
+ * The package, require_version and require_module elements are optional, except in a manifest inside a distro zip,
+ * which must give the package.
+ *
+ * @see DistroManifestWriter
+ */
+public class DistroManifestReader {
+
+	private static final XMLInputFactory factory = XMLInputFactory.newInstance();
+
+	static {
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+	}
+
+	/**
+	 * @param in the manifest (this is not closed)
+	 * @return the manifest
+	 * @throws IOException if in is not a well-formed manifest
+	 *
+	 * @should read omods in order
+	 * @should fail if an omod has no digest
+	 * @should fail if a filename is not a plain omod filename
+	 * @should fail if the same omod is listed twice
+	 * @should read package, require_version and required modules
+	 */
+	public DistroManifest read(InputStream in) throws IOException {
+		DistroManifest ret = new DistroManifest();
+		XMLStreamReader xml;
+		synchronized (factory) {
+			try {
+				// the parser closes its input at the end of the document, which may be a zip entry we are still reading
+				xml = factory.createXMLStreamReader(new CloseShieldInputStream(in));
+			}
+			catch (XMLStreamException ex) {
+				throw new IOException("Cannot parse distro manifest", ex);
+			}
+		}
+		try {
+			Set<String> digests = new HashSet<String>();
+			DistroManifest.Entry omod = null;
+			while (xml.hasNext()) {
+				int event = xml.next();
+				if (event == XMLStreamConstants.START_ELEMENT && "omod".equals(xml.getLocalName())) {
+					omod = new DistroManifest.Entry();
+					omod.setDigest(getRequiredAttribute(xml, "digest").toLowerCase());
+					omod.setFilename(getRequiredAttribute(xml, "filename"));
+					omod.setModuleId(getRequiredAttribute(xml, "id"));
+					omod.setVersion(getRequiredAttribute(xml, "version"));
+					omod.setPackageName(xml.getAttributeValue(null, "package"));
+					omod.setRequireVersion(xml.getAttributeValue(null, "require_version"));
+					validate(omod);
+					if (!digests.add(omod.getDigest()))
+						throw new IOException(omod.getFilename() + " is listed more than once in the distro manifest");
+					ret.getOmods().add(omod);
+				} else if (event == XMLStreamConstants.START_ELEMENT && "require_module".equals(xml.getLocalName()) && omod != null) {
+					String version = xml.getAttributeValue(null, "version");
+					omod.getRequiredModules().put(xml.getElementText().trim(), version == null ? null : version.trim());
+				} else if (event == XMLStreamConstants.END_ELEMENT && "omod".equals(xml.getLocalName())) {
+					omod = null;
+				}
+			}
+		}
+		catch (XMLStreamException ex) {
+			throw new IOException("Cannot parse distro manifest", ex);
+		}
+		finally {
+			try {
+				xml.close();
+			}
+			catch (XMLStreamException ex) {}
+		}
+		return ret;
+	}
+
+	private String getRequiredAttribute(XMLStreamReader xml, String name) throws IOException {
+		String value = xml.getAttributeValue(null, name);
+		if (value == null || value.trim().length() == 0)
+			throw new IOException("An <omod> in the distro manifest has no " + name + " (line " + xml.getLocation().getLineNumber() + ")");
+		return value.trim();
+	}
+
+	private void validate(DistroManifest.Entry omod) throws IOException {
+		if (!omod.getDigest().matches("[0-9a-f]{64}"))
+			throw new IOException("The digest of " + omod.getFilename() + " is not a SHA-256 digest in hex: " + omod.getDigest());
+		// the filename ends up in the module repository, so it must not be able to point anywhere else
+		String filename = omod.getFilename();
+		if (!filename.endsWith(".omod") || filename.indexOf('/') >= 0 || filename.indexOf('\\') >= 0 || filename.startsWith("."))
+			throw new IOException("Not a valid omod filename: " + filename);
+	}
+
+}
@@ -0,0 +1,195 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.moduledistro;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.apache.commons.io.IOUtils;
+import org.openmrs.module.moduledistro.api.impl.Digests;
+import org.openmrs.module.moduledistro.api.impl.OmodMetadata;
+import org.openmrs.module.moduledistro.api.impl.OmodMetadataReader;
+
+/**
+ * Build-side helper that describes omods in a {@link DistroManifest}, and writes distro zips that start with one. It
+ * can be run from the command line, with the api jar and commons-io on the classpath:
+ *
+ * <pre>
+ * java org.openmrs.module.moduledistro.DistroManifestWriter distro.zip first.omod second.omod folder-of-omods ...
+ * </pre>
+ *
+ * Omods are added in the order given (the omods in a folder, by name).
+ */
+public class DistroManifestWriter {
+
+	private OmodMetadataReader metadataReader = new OmodMetadataReader();
+
+	/**
+	 * @param omod
+	 * @return a complete manifest entry for omod
+	 * @throws IOException if omod cannot be read, or has no config.xml
+	 */
+	public DistroManifest.Entry describe(File omod) throws IOException {
+		OmodMetadata metadata = metadataReader.readOmod(omod);
+		DistroManifest.Entry ret = new DistroManifest.Entry(Digests.sha256(omod), omod.getName(), metadata.getModuleId(),
+		        metadata.getVersion());
+		ret.setPackageName(metadata.getPackageName());
+		ret.setRequireVersion(metadata.getRequireVersion());
+		ret.setRequiredModules(metadata.getRequiredModules());
+		return ret;
+	}
+
+	/**
+	 * @param manifest
+	 * @param out where the manifest is written, as XML (this is not closed)
+	 * @throws IOException
+	 *
+	 * @should write a manifest that can be read back
+	 */
+	public void write(DistroManifest manifest, OutputStream out) throws IOException {
+		try {
+			XMLStreamWriter xml = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+			xml.writeStartDocument("UTF-8", "1.0");
+			xml.writeCharacters("\n");
+			xml.writeStartElement("distro-manifest");
+			for (DistroManifest.Entry omod : manifest.getOmods()) {
+				xml.writeCharacters("\n\t");
+				xml.writeStartElement("omod");
+				xml.writeAttribute("digest", omod.getDigest());
+				xml.writeAttribute("filename", omod.getFilename());
+				xml.writeAttribute("id", omod.getModuleId());
+				xml.writeAttribute("version", omod.getVersion());
+				if (omod.getPackageName() != null)
+					xml.writeAttribute("package", omod.getPackageName());
+				if (omod.getRequireVersion() != null)
+					xml.writeAttribute("require_version", omod.getRequireVersion());
+				for (Map.Entry<String, String> required : omod.getRequiredModules().entrySet()) {
+					xml.writeCharacters("\n\t\t");
+					xml.writeStartElement("require_module");
+					if (required.getValue() != null)
+						xml.writeAttribute("version", required.getValue());
+					xml.writeCharacters(required.getKey());
+					xml.writeEndElement();
+				}
+				if (!omod.getRequiredModules().isEmpty())
+					xml.writeCharacters("\n\t");
+				xml.writeEndElement();
+			}
+			xml.writeCharacters("\n");
+			xml.writeEndElement();
+			xml.writeEndDocument();
+			xml.flush();
+		}
+		catch (XMLStreamException ex) {
+			throw new IOException("Cannot write distro manifest", ex);
+		}
+	}
+
+	/**
+	 * Writes a distro zip whose first entry is a manifest of the given omods. Omods are already compressed, so they are
+	 * stored as they are, rather than deflated again.
+	 *
+	 * @param omods
+	 * @param distributionZip
+	 * @throws IOException
+	 */
+	public void writeDistro(List<File> omods, File distributionZip) throws IOException {
+		DistroManifest manifest = new DistroManifest();
+		for (File omod : omods) {
+			manifest.getOmods().add(describe(omod));
+		}
+		ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(distributionZip)));
+		try {
+			zip.putNextEntry(new ZipEntry(DistroManifest.ZIP_ENTRY_NAME));
+			write(manifest, zip);
+			zip.closeEntry();
+			for (File omod : omods) {
+				ZipEntry entry = new ZipEntry(omod.getName());
+				entry.setMethod(ZipEntry.STORED);
+				entry.setSize(omod.length());
+				entry.setCompressedSize(omod.length());
+				entry.setCrc(crc32(omod));
+				zip.putNextEntry(entry);
+				InputStream in = new FileInputStream(omod);
+				try {
+					IOUtils.copyLarge(in, zip);
+				}
+				finally {
+					IOUtils.closeQuietly(in);
+				}
+				zip.closeEntry();
+			}
+		}
+		finally {
+			zip.close();
+		}
+	}
+
+	private long crc32(File file) throws IOException {
+		CheckedInputStream in = new CheckedInputStream(new FileInputStream(file), new CRC32());
+		try {
+			byte[] buffer = new byte[64 * 1024];
+			while (in.read(buffer) >= 0) {
+			}
+			return in.getChecksum().getValue();
+		}
+		finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+
+	/**
+	 * @param args the distro zip to write, followed by omods and folders of omods
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: DistroManifestWriter distro.zip (omod | folder)...");
+			System.exit(1);
+		}
+		List<File> omods = new ArrayList<File>();
+		for (int i = 1; i < args.length; ++i) {
+			File file = new File(args[i]);
+			if (file.isDirectory()) {
+				File[] children = file.listFiles();
+				Arrays.sort(children);
+				for (File child : children) {
+					if (child.getName().endsWith(".omod"))
+						omods.add(child);
+				}
+			} else {
+				omods.add(file);
+			}
+		}
+		new DistroManifestWriter().writeDistro(omods, new File(args[0]));
+		System.out.println("Wrote " + omods.size() + " omods and a " + DistroManifest.ZIP_ENTRY_NAME + " to " + args[0]);
+	}
+
+}
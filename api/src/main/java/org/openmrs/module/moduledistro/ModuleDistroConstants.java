@@ -0,0 +1,68 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.moduledistro;
+
+/**
+ * Constants used by the Module Distro module
+ */
+public class ModuleDistroConstants {
+	
+	/**
+	 * Number of threads used to extract and inspect the omods in a distro. Blank means one per processor.
+	 */
+	public static final String GP_WORKER_THREADS = "moduledistro.workerThreads";
+	
+	/**
+	 * Whether to refresh the web application context once after starting all of a distro's modules, rather than once
+	 * per module. Defaults to true.
+	 */
+	public static final String GP_BATCH_CONTEXT_REFRESH = "moduledistro.batchContextRefresh";
+	
+	/**
+	 * The most disk space, in megabytes, that the omods of all distros being deployed at once may take up in their
+	 * staging areas. Blank means no limit.
+	 */
+	public static final String GP_STAGING_QUOTA_MB = "moduledistro.stagingQuotaMB";
+	
+	/**
+	 * The folder holding a distro zip to apply at the next restart. Blank means moduledistro/restart in the application
+	 * data directory.
+	 */
+	public static final String GP_RESTART_FOLDER = "moduledistro.restartFolder";
+	
+	/**
+	 * A folder to watch for distro zips, which are deployed as soon as they have been completely written. Blank means
+	 * no folder is watched.
+	 */
+	public static final String GP_WATCH_FOLDER = "moduledistro.watchFolder";
+	
+	/**
+	 * How many seconds the watched folder must be quiet before the distros dropped there are deployed together. Defaults
+	 * to 10.
+	 */
+	public static final String GP_WATCH_QUIET_SECONDS = "moduledistro.watchQuietSeconds";
+	
+	/**
+	 * Whether modules that do not depend on each other may be started at the same time, on
+	 * {@link #GP_WORKER_THREADS} threads. Defaults to false.
+	 */
+	public static final String GP_PARALLEL_STARTUP = "moduledistro.parallelStartup";
+	
+	/**
+	 * Core's privilege for managing modules, which is required to deploy or roll back a distro, since that replaces the
+	 * server's code
+	 */
+	public static final String PRIV_MANAGE_MODULES = "Manage Modules";
+	
+}
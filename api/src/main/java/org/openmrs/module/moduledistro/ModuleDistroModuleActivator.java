@@ -14,17 +14,39 @@
 package org.openmrs.module.moduledistro;
 
 
+import java.io.File;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
 import org.openmrs.module.BaseModuleActivator;
 import org.openmrs.module.ModuleActivator;
+import org.openmrs.module.moduledistro.api.ModuleDistroService;
+import org.openmrs.module.moduledistro.api.impl.DeploymentExecutor;
+import org.openmrs.module.moduledistro.api.impl.DeploymentJobs;
+import org.openmrs.module.moduledistro.api.impl.DistroWatcher;
+import org.openmrs.module.moduledistro.api.impl.ModuleDistroServiceImpl;
+import org.openmrs.module.moduledistro.api.impl.RestartDistro;
+import org.openmrs.module.moduledistro.api.impl.StagingArea;
+import org.springframework.util.StringUtils;
+import org.springframework.web.context.ContextLoader;
+import org.springframework.web.context.WebApplicationContext;
 
 /**
  * This class contains the logic that is run every time this module is either started or stopped.
  */
 public class ModuleDistroModuleActivator extends BaseModuleActivator {
 	
+	/**
+	 * The global property in which core records whether this module should be started at startup
+	 */
+	private static final String STARTED_PROPERTY = "moduledistro.started";
+	
 	protected Log log = LogFactory.getLog(getClass());
+	
+	private DistroWatcher watcher;
+	
+	private boolean checkedAtStartup = false;
 		
 	/**
 	 * @see ModuleActivator#willStart()
@@ -37,14 +59,142 @@ public class ModuleDistroModuleActivator extends BaseModuleActivator {
 	 * @see ModuleActivator#started()
 	 */
 	public void started() {
+		int swept = StagingArea.sweep();
+		DeploymentExecutor.sweepPending();
+		if (swept > 0)
+			log.info("Deleted " + swept + " staging folders left behind by interrupted deployments");
+		
+		String restartFolder = Context.getAdministrationService().getGlobalProperty(ModuleDistroConstants.GP_RESTART_FOLDER);
+		RestartDistro.setFolder(StringUtils.hasText(restartFolder) ? new File(restartFolder.trim()) : null);
+		DeploymentJob restartJob = RestartDistro.reportLastResult();
+		if (restartJob != null) {
+			for (String line : restartJob.getResult().getLog()) {
+				log.info(line);
+			}
+			if (restartJob.getError() != null)
+				log.error("Failed to apply a distro at the last restart: " + restartJob.getError());
+		}
+		File pending = RestartDistro.getPendingDistro();
+		if (pending != null)
+			log.warn(pending.getName() + " in " + RestartDistro.getFolder().getAbsolutePath() + " was not applied at the last "
+			        + "shutdown, so it will be deployed to the running server, stopping and starting the modules it "
+			        + "affects, once every module has started");
+		startWatcher();
 		log.info("Module Distro module started");
 	}
 		
 	/**
+	 * Resumes any deployment that was interrupted by a crash, and then deploys any distro that is still waiting in the
+	 * restart folder, once every module has been started at startup. This is only done the first time the context is
+	 * refreshed after this module starts.
+	 *
+	 * @see ModuleActivator#contextRefreshed()
+	 */
+	public void contextRefreshed() {
+		if (checkedAtStartup || DeploymentExecutor.isExecuting())
+			return;
+		checkedAtStartup = true;
+		WebApplicationContext webContext = ContextLoader.getCurrentWebApplicationContext();
+		// this finishes what an authorized user started
+		Context.addProxyPrivilege(ModuleDistroConstants.PRIV_MANAGE_MODULES);
+		try {
+			DeploymentJob job = Context.getService(ModuleDistroService.class).resumeInterruptedDeployments(
+			    webContext == null ? null : webContext.getServletContext());
+			if (job != null)
+				log.info("Resuming an interrupted deployment in job " + job.getId());
+		}
+		catch (RuntimeException ex) {
+			log.error("Failed to check for interrupted deployments", ex);
+		}
+		try {
+			DeploymentJob job = Context.getService(ModuleDistroService.class).deployPendingRestartDistro(
+			    webContext == null ? null : webContext.getServletContext());
+			if (job != null)
+				log.info("Deploying the distro that was waiting in the restart folder in job " + job.getId());
+		}
+		catch (RuntimeException ex) {
+			log.error("Failed to deploy the distro waiting in the restart folder", ex);
+		}
+		finally {
+			Context.removeProxyPrivilege(ModuleDistroConstants.PRIV_MANAGE_MODULES);
+		}
+	}
+	
+	/**
+	 * Lays down the omods of a distro that is waiting for a restart, but only if the server is shutting down. When this
+	 * module alone is stopped, e.g. from the Manage Modules page, or because a deployment is upgrading it, the modules
+	 * the distro would replace are still running, so the repository is left alone.
+	 *
 	 * @see ModuleActivator#stopped()
 	 */
 	public void stopped() {
+		if (watcher != null) {
+			watcher.stop();
+			watcher = null;
+		}
+		DeploymentJobs.shutdown();
+		if (RestartDistro.getPendingDistro() != null) {
+			String pending = RestartDistro.getPendingDistro().getName();
+			Context.openSession();
+			try {
+				if (DeploymentExecutor.isExecuting() || !isServerShuttingDown()) {
+					log.warn("Leaving " + pending + " in the restart folder, since the server is not shutting down. "
+					        + "It will be deployed to the running server when this module next starts.");
+				} else {
+					RestartDistro.layDown(new ModuleDistroServiceImpl());
+				}
+			}
+			catch (Throwable ex) {
+				log.error("Failed to apply the distro waiting for a restart", ex);
+			}
+			finally {
+				Context.closeSession();
+			}
+		}
 		log.info("Module Distro module stopped");
 	}
+	
+	/**
+	 * Core saves {@link #STARTED_PROPERTY} as false when this module is stopped on its own, whether from the Manage
+	 * Modules page, because a module it requires was stopped, or to unload it, so that it stays stopped at the next
+	 * startup. It leaves the property alone when every module is stopped because the server is shutting down.
+	 *
+	 * @return whether this module is being stopped because the server is shutting down
+	 */
+	private boolean isServerShuttingDown() {
+		return "true".equalsIgnoreCase(Context.getAdministrationService().getGlobalProperty(STARTED_PROPERTY));
+	}
+	
+	/**
+	 * Starts watching the folder given by {@link ModuleDistroConstants#GP_WATCH_FOLDER}, if any
+	 */
+	private void startWatcher() {
+		String watchFolder = Context.getAdministrationService().getGlobalProperty(ModuleDistroConstants.GP_WATCH_FOLDER);
+		if (!StringUtils.hasText(watchFolder))
+			return;
+		long quietSeconds = 10;
+		String gp = Context.getAdministrationService().getGlobalProperty(ModuleDistroConstants.GP_WATCH_QUIET_SECONDS);
+		if (StringUtils.hasText(gp)) {
+			try {
+				quietSeconds = Long.parseLong(gp.trim());
+			}
+			catch (NumberFormatException ex) {
+				log.warn("Ignoring invalid value for " + ModuleDistroConstants.GP_WATCH_QUIET_SECONDS + ": " + gp);
+			}
+		}
+		// modules started by the watcher need the servlet context to register their web layer
+		WebApplicationContext webContext = ContextLoader.getCurrentWebApplicationContext();
+		if (webContext == null) {
+			log.error("Not watching " + watchFolder + " for distros, because there is no web application context");
+			return;
+		}
+		File folder = new File(watchFolder.trim());
+		if (!folder.isDirectory() && !folder.mkdirs()) {
+			log.error("Not watching " + watchFolder + " for distros, because it is not a folder");
+			return;
+		}
+		watcher = new DistroWatcher(folder, quietSeconds * 1000, webContext.getServletContext());
+		watcher.start();
+	}
 		
 }
@@ -0,0 +1,145 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.moduledistro;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A distro that was uploaded before, as the ordered list of the omods it contained, so it can be deployed again from
+ * the omod store without being uploaded again
+ */
+public class StoredDistro {
+	
+	private String digest;
+	
+	private String name;
+	
+	private String omodsText;
+	
+	private Date dateCreated;
+	
+	/**
+	 * @return the omods in this distro, in the order they appeared in it
+	 */
+	public List<Entry> getOmods() {
+		List<Entry> ret = new ArrayList<Entry>();
+		if (omodsText != null) {
+			for (String line : omodsText.split("\n")) {
+				int i = line.indexOf(' ');
+				if (i > 0)
+					ret.add(new Entry(line.substring(0, i), line.substring(i + 1)));
+			}
+		}
+		return ret;
+	}
+	
+	/**
+	 * @param omods the omods in this distro, in order
+	 */
+	public void setOmods(List<Entry> omods) {
+		StringBuilder sb = new StringBuilder();
+		for (Entry omod : omods) {
+			sb.append(omod.getDigest()).append(' ').append(omod.getFilename()).append('\n');
+		}
+		omodsText = sb.toString();
+	}
+	
+	/**
+	 * @return a digest of the ordered list of omod digests and filenames, which identifies this distro
+	 */
+	public String getDigest() {
+		return digest;
+	}
+	
+	/**
+	 * @param digest the digest to set
+	 */
+	public void setDigest(String digest) {
+		this.digest = digest;
+	}
+	
+	/**
+	 * @return the name, e.g. the filename of the uploaded zip (may be null)
+	 */
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * @param name the name to set
+	 */
+	public void setName(String name) {
+		this.name = name;
+	}
+	
+	/**
+	 * @return the omods, one "digest filename" per line, as stored in the database
+	 */
+	public String getOmodsText() {
+		return omodsText;
+	}
+	
+	/**
+	 * @param omodsText the omodsText to set
+	 */
+	public void setOmodsText(String omodsText) {
+		this.omodsText = omodsText;
+	}
+	
+	/**
+	 * @return the dateCreated
+	 */
+	public Date getDateCreated() {
+		return dateCreated;
+	}
+	
+	/**
+	 * @param dateCreated the dateCreated to set
+	 */
+	public void setDateCreated(Date dateCreated) {
+		this.dateCreated = dateCreated;
+	}
+	
+	/**
+	 * One omod in a stored distro
+	 */
+	public static class Entry {
+		
+		private String digest;
+		
+		private String filename;
+		
+		public Entry(String digest, String filename) {
+			this.digest = digest;
+			this.filename = filename;
+		}
+		
+		/**
+		 * @return the digest
+		 */
+		public String getDigest() {
+			return digest;
+		}
+		
+		/**
+		 * @return the filename
+		 */
+		public String getFilename() {
+			return filename;
+		}
+	}
+	
+}
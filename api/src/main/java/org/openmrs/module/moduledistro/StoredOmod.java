@@ -0,0 +1,224 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.moduledistro;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An omod in the content-addressable store, with the metadata parsed from its config.xml, so it never has to be
+ * extracted or inspected again
+ */
+public class StoredOmod {
+	
+	private String digest;
+	
+	private String moduleId;
+	
+	private String version;
+	
+	private String packageName;
+	
+	private String requireVersion;
+	
+	private String requiredModulesText;
+	
+	private Long crc;
+	
+	private Long size;
+	
+	private String originalFilename;
+	
+	private Date dateCreated;
+	
+	/**
+	 * @return the package names of the required modules, mapped to the minimum version required (which may be null)
+	 */
+	public Map<String, String> getRequiredModules() {
+		Map<String, String> ret = new LinkedHashMap<String, String>();
+		if (requiredModulesText != null) {
+			for (String line : requiredModulesText.split("\n")) {
+				if (line.length() == 0)
+					continue;
+				int i = line.indexOf('=');
+				ret.put(i < 0 ? line : line.substring(0, i), i < 0 ? null : line.substring(i + 1));
+			}
+		}
+		return ret;
+	}
+	
+	/**
+	 * @param requiredModules package names of required modules, mapped to the minimum version (which may be null)
+	 */
+	public void setRequiredModules(Map<String, String> requiredModules) {
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, String> e : requiredModules.entrySet()) {
+			sb.append(e.getKey());
+			if (e.getValue() != null)
+				sb.append('=').append(e.getValue());
+			sb.append('\n');
+		}
+		requiredModulesText = sb.toString();
+	}
+	
+	/**
+	 * @return the SHA-256 digest of the omod, in hex
+	 */
+	public String getDigest() {
+		return digest;
+	}
+	
+	/**
+	 * @param digest the digest to set
+	 */
+	public void setDigest(String digest) {
+		this.digest = digest;
+	}
+	
+	/**
+	 * @return the moduleId
+	 */
+	public String getModuleId() {
+		return moduleId;
+	}
+	
+	/**
+	 * @param moduleId the moduleId to set
+	 */
+	public void setModuleId(String moduleId) {
+		this.moduleId = moduleId;
+	}
+	
+	/**
+	 * @return the version
+	 */
+	public String getVersion() {
+		return version;
+	}
+	
+	/**
+	 * @param version the version to set
+	 */
+	public void setVersion(String version) {
+		this.version = version;
+	}
+	
+	/**
+	 * @return the packageName
+	 */
+	public String getPackageName() {
+		return packageName;
+	}
+	
+	/**
+	 * @param packageName the packageName to set
+	 */
+	public void setPackageName(String packageName) {
+		this.packageName = packageName;
+	}
+	
+	/**
+	 * @return the requireVersion
+	 */
+	public String getRequireVersion() {
+		return requireVersion;
+	}
+	
+	/**
+	 * @param requireVersion the requireVersion to set
+	 */
+	public void setRequireVersion(String requireVersion) {
+		this.requireVersion = requireVersion;
+	}
+	
+	/**
+	 * @return the required modules, one "package=version" per line, as stored in the database
+	 */
+	public String getRequiredModulesText() {
+		return requiredModulesText;
+	}
+	
+	/**
+	 * @param requiredModulesText the requiredModulesText to set
+	 */
+	public void setRequiredModulesText(String requiredModulesText) {
+		this.requiredModulesText = requiredModulesText;
+	}
+	
+	/**
+	 * @return the CRC-32 of the omod, as recorded in a zip entry
+	 */
+	public Long getCrc() {
+		return crc;
+	}
+	
+	/**
+	 * @param crc the crc to set
+	 */
+	public void setCrc(Long crc) {
+		this.crc = crc;
+	}
+	
+	/**
+	 * @return the size of the omod, in bytes
+	 */
+	public Long getSize() {
+		return size;
+	}
+	
+	/**
+	 * @param size the size to set
+	 */
+	public void setSize(Long size) {
+		this.size = size;
+	}
+	
+	/**
+	 * @return the filename the omod had when it was first uploaded
+	 */
+	public String getOriginalFilename() {
+		return originalFilename;
+	}
+	
+	/**
+	 * @param originalFilename the originalFilename to set
+	 */
+	public void setOriginalFilename(String originalFilename) {
+		this.originalFilename = originalFilename;
+	}
+	
+	/**
+	 * @return the dateCreated
+	 */
+	public Date getDateCreated() {
+		return dateCreated;
+	}
+	
+	/**
+	 * @param dateCreated the dateCreated to set
+	 */
+	public void setDateCreated(Date dateCreated) {
+		this.dateCreated = dateCreated;
+	}
+	
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return moduleId + " v" + version + " (" + digest + ")";
+	}
+	
+}
@@ -14,15 +14,31 @@
 package org.openmrs.module.moduledistro.api;
 
 import java.io.File;
+import java.io.InputStream;
+import java.util.Date;
 import java.util.List;
 
 import javax.servlet.ServletContext;
 
+import org.openmrs.annotation.Authorized;
 import org.openmrs.api.OpenmrsService;
+import org.openmrs.module.moduledistro.DeploymentJob;
+import org.openmrs.module.moduledistro.DeploymentJournal;
+import org.openmrs.module.moduledistro.DeploymentPlan;
+import org.openmrs.module.moduledistro.DeploymentResult;
+import org.openmrs.module.moduledistro.DistroManifest;
+import org.openmrs.module.moduledistro.ModuleDistroConstants;
+import org.openmrs.module.moduledistro.StoredDistro;
 
 /**
  * This service exposes module's core functionality. It is a Spring managed bean which is configured in moduleApplicationContext.xml.
  * <p>
+ * Every method requires the {@link ModuleDistroConstants#PRIV_MANAGE_MODULES} privilege, since deploying a distro
+ * replaces the server's code.
+ * <p>
+ * Only one distro is applied at a time: a deployment that is not run as a background job waits for any other
+ * deployment to finish before it changes any module.
+ * <p>
  * It can be accessed only via Context:<br>
  * <code>
  * Context.getService(ModuleDistroService.class).someMethod();
@@ -33,13 +49,224 @@ import org.openmrs.api.OpenmrsService;
 public interface ModuleDistroService extends OpenmrsService {
 
     /**
+     * Applies a distro. If every omod in it is already installed and started, this returns without stopping or
+     * starting any module.
+     * 
      * @param distributionZip a zip file including omods
      * @param servletContext
-     * @return a log of actions taken
+     * @return what was done, and how long it took
      * 
      * @should upload omods in a zip
+     * @should require the Manage Modules privilege
+     */
+    @Authorized(ModuleDistroConstants.PRIV_MANAGE_MODULES)
+    DeploymentResult uploadDistro(File distributionZip, ServletContext servletContext);
+
+    /**
+     * Like {@link #uploadDistro(File, ServletContext)}, but reads the zip as it arrives, so the omods in it are
+     * written to disk only once, and inspected while the rest of the upload is still being read.
+     * 
+     * @param distributionZip a stream of a zip file including omods (this is not closed)
+     * @param servletContext
+     * @return what was done, and how long it took
+     */
+    @Authorized(ModuleDistroConstants.PRIV_MANAGE_MODULES)
+    DeploymentResult uploadDistro(InputStream distributionZip, ServletContext servletContext);
+
+    /**
+     * A dry run: reads, inspects and checks the distro like {@link #submitUploadedDistro(String, InputStream, ServletContext)},
+     * and plans its deployment against the modules that are loaded now, but does not change any module, nor store the
+     * distro. When every module in the distro is already installed and started, the plan is empty, and uploading the
+     * distro would return without stopping or starting anything.
+     * 
+     * @param distributionZip a stream of a zip file including omods (this is not closed)
+     * @return the planned actions, and the running modules that would be restarted because they depend on one that
+     *         would be upgraded
+     * @throws RuntimeException listing every problem found, if the distro cannot be deployed
+     */
+    @Authorized(ModuleDistroConstants.PRIV_MANAGE_MODULES)
+    DeploymentPlan planDistro(InputStream distributionZip);
+
+    /**
+     * Reads and inspects the distro like {@link #uploadDistro(InputStream, ServletContext)}, but then returns
+     * immediately, and applies it in the background. Jobs run one at a time, in the order they were submitted. A distro
+     * submitted while the one before it is still waiting to start is merged into it, keeping the newest version of each
+     * module, and the job that was already waiting is returned.
+     * 
+     * @param distributionZip a stream of a zip file including omods (this is not closed)
+     * @param servletContext
+     * @return the queued job, whose result can be polled for progress
+     */
+    @Authorized(ModuleDistroConstants.PRIV_MANAGE_MODULES)
+    DeploymentJob submitDistro(InputStream distributionZip, ServletContext servletContext);
+
+    /**
+     * Like {@link #submitDistro(InputStream, ServletContext)}, but the upload is first written to a staging area, where
+     * it counts against the staging quota and is deleted along with the omods extracted from it, and is then read from
+     * there with {@link java.util.zip.ZipFile}, like {@link #uploadDistro(File, ServletContext)}.
+     * 
+     * @param filename the name the distro was uploaded with, which the omod store remembers it by
+     * @param distributionZip a stream of a zip file including omods (this is not closed)
+     * @param servletContext
+     * @return the queued job, whose result can be polled for progress
+     */
+    @Authorized(ModuleDistroConstants.PRIV_MANAGE_MODULES)
+    DeploymentJob submitUploadedDistro(String filename, InputStream distributionZip, ServletContext servletContext);
+
+    /**
+     * Reads several distros, and then deploys them together, as one, in the background. Where more than one of them
+     * includes the same module, only its newest version is deployed (or for the same version, the one from the later
+     * distro).
+     * 
+     * @param distributionZips zip files including omods, oldest first
+     * @param servletContext
+     * @return the queued job, whose result can be polled for progress
+     */
+    @Authorized(ModuleDistroConstants.PRIV_MANAGE_MODULES)
+    DeploymentJob submitDistros(List<File> distributionZips, ServletContext servletContext);
+
+    /**
+     * The first half of a delta upload: a client describes a distro with a manifest, and then only uploads the omods
+     * this returns, with {@link #submitDistro(DistroManifest, InputStream, ServletContext)}
+     * 
+     * @param manifest
+     * @return the omods in manifest that are not in the omod store, in manifest order
+     */
+    @Authorized(ModuleDistroConstants.PRIV_MANAGE_MODULES)
+    List<DistroManifest.Entry> getMissingOmods(DistroManifest manifest);
+
+    /**
+     * The second half of a delta upload. The distro is assembled from the uploaded omods and those already in the omod
+     * store, in manifest order, and then deployed exactly as if the whole distro had been uploaded. The zip of uploaded
+     * omods is written to a staging area, and read from there, like
+     * {@link #submitUploadedDistro(String, InputStream, ServletContext)}.
+     * 
+     * @param manifest describes every omod in the distro
+     * @param missingOmods a stream of a zip file of the omods in manifest that are not in the omod store (may be null
+     *            if there are none; this is not closed)
+     * @param servletContext
+     * @return what was done, and how long it took
+     * @throws RuntimeException if an omod is neither uploaded nor stored, or does not match its manifest entry
+     */
+    @Authorized(ModuleDistroConstants.PRIV_MANAGE_MODULES)
+    DeploymentResult uploadDistro(DistroManifest manifest, InputStream missingOmods, ServletContext servletContext);
+
+    /**
+     * Like {@link #uploadDistro(DistroManifest, InputStream, ServletContext)}, but applies the distro in the background
+     * 
+     * @param manifest describes every omod in the distro
+     * @param missingOmods a stream of a zip file of the omods in manifest that are not in the omod store (may be null
+     *            if there are none; this is not closed)
+     * @param servletContext
+     * @return the queued job, whose result can be polled for progress
+     */
+    @Authorized(ModuleDistroConstants.PRIV_MANAGE_MODULES)
+    DeploymentJob submitDistro(DistroManifest manifest, InputStream missingOmods, ServletContext servletContext);
+
+    /**
+     * Deploys a distro that was uploaded before, straight from the omod store. This can roll back to an older distro,
+     * so modules are installed even where a newer version is installed.
+     * 
+     * @param distroDigest the digest of a stored distro
+     * @param servletContext
+     * @return what was done, and how long it took
+     */
+    @Authorized(ModuleDistroConstants.PRIV_MANAGE_MODULES)
+    DeploymentResult deployStoredDistro(String distroDigest, ServletContext servletContext);
+
+    /**
+     * Like {@link #deployStoredDistro(String, ServletContext)}, but in the background
+     * 
+     * @param distroDigest the digest of a stored distro
+     * @param servletContext
+     * @return the queued job, whose result can be polled for progress
+     */
+    @Authorized(ModuleDistroConstants.PRIV_MANAGE_MODULES)
+    DeploymentJob submitStoredDistro(String distroDigest, ServletContext servletContext);
+
+    /**
+     * @param maxResults
+     * @return the most recently uploaded distros, newest first
+     */
+    @Authorized(ModuleDistroConstants.PRIV_MANAGE_MODULES)
+    List<StoredDistro> getRecentStoredDistros(int maxResults);
+
+    /**
+     * Saves a distro to be applied at the next restart, instead of now. Its omods are put into the module repository
+     * when this module stops at shutdown, so the next startup loads and starts them without the running modules being
+     * stopped and started first. Any distro saved before and not yet applied is superseded.
+     * 
+     * @param distributionZip a stream of a zip file including omods (this is not closed)
+     */
+    @Authorized(ModuleDistroConstants.PRIV_MANAGE_MODULES)
+    void stageDistroForRestart(InputStream distributionZip);
+
+    /**
+     * Deploys, in the background, a distro that is still waiting in the restart folder, because it was not laid down
+     * at the last shutdown, e.g. because it was copied there while the server was down, or the server was killed. It
+     * is deployed like any other distro, stopping and starting the modules it affects, and then deleted from the
+     * restart folder, whether or not it could be read. Call this once every module has been started at startup.
+     * 
+     * @param servletContext
+     * @return the queued job, or null if no distro is waiting
+     */
+    @Authorized(ModuleDistroConstants.PRIV_MANAGE_MODULES)
+    DeploymentJob deployPendingRestartDistro(ServletContext servletContext);
+
+    /**
+     * @return the job that records what was done by the distro applied at the last restart, or null if there was none
+     */
+    @Authorized(ModuleDistroConstants.PRIV_MANAGE_MODULES)
+    DeploymentJob getLastRestartJob();
+
+    /**
+     * @return when the snapshot that {@link #submitRollback(ServletContext)} would roll back to was taken, i.e. just
+     *         before the last deployment that changed the loaded modules, or null if there is none
+     */
+    @Authorized(ModuleDistroConstants.PRIV_MANAGE_MODULES)
+    Date getRollbackDate();
+
+    /**
+     * Rolls back the last deployment that changed the loaded modules, in the background: the module versions in the
+     * snapshot taken before it are installed again, and modules that were not loaded then are removed. This is planned
+     * and executed like any other deployment, stopping and starting modules in dependency order.
+     * 
+     * @param servletContext
+     * @return the queued job, whose result can be polled for progress
+     * @throws RuntimeException if there is no snapshot
+     * 
+     * @should require the Manage Modules privilege
+     */
+    @Authorized(ModuleDistroConstants.PRIV_MANAGE_MODULES)
+    DeploymentJob submitRollback(ServletContext servletContext);
+
+    /**
+     * Resumes, in the background, deployments that were interrupted by a crash or kill, according to their journals.
+     * Only the actions that were not completed are taken, so the omods already installed are not installed again. Call
+     * this once every module has been started at startup.
+     * 
+     * @param servletContext
+     * @return the queued job, or null if no deployment was interrupted
+     */
+    @Authorized(ModuleDistroConstants.PRIV_MANAGE_MODULES)
+    DeploymentJob resumeInterruptedDeployments(ServletContext servletContext);
+
+    /**
+     * Saves the journal of a deployment that is being executed. This is how a deployment updates its journal once the
+     * web application context has been refreshed, since the DAO it started with is left bound to the old session
+     * factory.
+     * 
+     * @param journal
+     */
+    @Authorized(ModuleDistroConstants.PRIV_MANAGE_MODULES)
+    void saveDeploymentJournal(DeploymentJournal journal);
+
+    /**
+     * @param jobId
+     * @return the deployment job with the given id, or null if it does not exist or is too old to be remembered
      */
-    List<String> uploadDistro(File distributionZip, ServletContext servletContext);
+    @Authorized(ModuleDistroConstants.PRIV_MANAGE_MODULES)
+    DeploymentJob getDeploymentJob(String jobId);
 
 	
 }
\ No newline at end of file
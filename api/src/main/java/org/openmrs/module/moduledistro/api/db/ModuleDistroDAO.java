@@ -13,6 +13,11 @@
  */
 package org.openmrs.module.moduledistro.api.db;
 
+import java.util.List;
+
+import org.openmrs.module.moduledistro.DeploymentJournal;
+import org.openmrs.module.moduledistro.StoredDistro;
+import org.openmrs.module.moduledistro.StoredOmod;
 import org.openmrs.module.moduledistro.api.ModuleDistroService;
 
 /**
@@ -20,7 +25,47 @@ import org.openmrs.module.moduledistro.api.ModuleDistroService;
  */
 public interface ModuleDistroDAO {
 	
-	/*
-	 * Add DAO methods here
+	/**
+	 * @return every omod in the store's index
+	 */
+	List<StoredOmod> getAllStoredOmods();
+	
+	/**
+	 * @param digest
+	 * @return the stored omod with the given digest, or null
+	 */
+	StoredOmod getStoredOmod(String digest);
+	
+	/**
+	 * @param omod
+	 */
+	void saveStoredOmod(StoredOmod omod);
+	
+	/**
+	 * @param digest
+	 * @return the stored distro with the given digest, or null
+	 */
+	StoredDistro getStoredDistro(String digest);
+	
+	/**
+	 * @param maxResults
+	 * @return the most recently stored distros, newest first
+	 */
+	List<StoredDistro> getRecentStoredDistros(int maxResults);
+	
+	/**
+	 * @param distro
+	 */
+	void saveStoredDistro(StoredDistro distro);
+	
+	/**
+	 * @return the journals of deployments that have not finished, oldest first
+	 */
+	List<DeploymentJournal> getUnfinishedDeploymentJournals();
+	
+	/**
+	 * @param journal
 	 */
+	void saveDeploymentJournal(DeploymentJournal journal);
+	
 }
\ No newline at end of file
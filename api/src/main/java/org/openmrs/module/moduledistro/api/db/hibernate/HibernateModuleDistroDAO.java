@@ -13,13 +13,25 @@
  */
 package org.openmrs.module.moduledistro.api.db.hibernate;
 
+import java.util.List;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.hibernate.Session;
 import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Restrictions;
+import org.openmrs.module.moduledistro.DeploymentJournal;
+import org.openmrs.module.moduledistro.StoredDistro;
+import org.openmrs.module.moduledistro.StoredOmod;
 import org.openmrs.module.moduledistro.api.db.ModuleDistroDAO;
 
 /**
  * It is a default implementation of  {@link ModuleDistroDAO}.
+ * <p>
+ * Every method uses its own short session and transaction, rather than the current one, because deployments run
+ * outside of any request, and restart modules (and refresh the application context) while they run.
  */
 public class HibernateModuleDistroDAO implements ModuleDistroDAO {
 	protected final Log log = LogFactory.getLog(this.getClass());
@@ -39,4 +51,119 @@ public class HibernateModuleDistroDAO implements ModuleDistroDAO {
     public SessionFactory getSessionFactory() {
 	    return sessionFactory;
     }
-}
\ No newline at end of file
+    
+	/**
+	 * @see org.openmrs.module.moduledistro.api.db.ModuleDistroDAO#getAllStoredOmods()
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<StoredOmod> getAllStoredOmods() {
+		Session session = sessionFactory.openSession();
+		try {
+			return session.createCriteria(StoredOmod.class).list();
+		}
+		finally {
+			session.close();
+		}
+	}
+	
+	/**
+	 * @see org.openmrs.module.moduledistro.api.db.ModuleDistroDAO#getStoredOmod(java.lang.String)
+	 */
+	@Override
+	public StoredOmod getStoredOmod(String digest) {
+		Session session = sessionFactory.openSession();
+		try {
+			return (StoredOmod) session.get(StoredOmod.class, digest);
+		}
+		finally {
+			session.close();
+		}
+	}
+	
+	/**
+	 * @see org.openmrs.module.moduledistro.api.db.ModuleDistroDAO#saveStoredOmod(org.openmrs.module.moduledistro.StoredOmod)
+	 */
+	@Override
+	public void saveStoredOmod(StoredOmod omod) {
+		save(omod);
+	}
+	
+	/**
+	 * @see org.openmrs.module.moduledistro.api.db.ModuleDistroDAO#getStoredDistro(java.lang.String)
+	 */
+	@Override
+	public StoredDistro getStoredDistro(String digest) {
+		Session session = sessionFactory.openSession();
+		try {
+			return (StoredDistro) session.get(StoredDistro.class, digest);
+		}
+		finally {
+			session.close();
+		}
+	}
+	
+	/**
+	 * @see org.openmrs.module.moduledistro.api.db.ModuleDistroDAO#getRecentStoredDistros(int)
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<StoredDistro> getRecentStoredDistros(int maxResults) {
+		Session session = sessionFactory.openSession();
+		try {
+			return session.createCriteria(StoredDistro.class).addOrder(Order.desc("dateCreated")).setMaxResults(maxResults).list();
+		}
+		finally {
+			session.close();
+		}
+	}
+	
+	/**
+	 * @see org.openmrs.module.moduledistro.api.db.ModuleDistroDAO#saveStoredDistro(org.openmrs.module.moduledistro.StoredDistro)
+	 */
+	@Override
+	public void saveStoredDistro(StoredDistro distro) {
+		save(distro);
+	}
+	
+	/**
+	 * @see org.openmrs.module.moduledistro.api.db.ModuleDistroDAO#getUnfinishedDeploymentJournals()
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<DeploymentJournal> getUnfinishedDeploymentJournals() {
+		Session session = sessionFactory.openSession();
+		try {
+			return session.createCriteria(DeploymentJournal.class).add(Restrictions.isNull("dateFinished"))
+			        .addOrder(Order.asc("dateStarted")).list();
+		}
+		finally {
+			session.close();
+		}
+	}
+	
+	/**
+	 * @see org.openmrs.module.moduledistro.api.db.ModuleDistroDAO#saveDeploymentJournal(org.openmrs.module.moduledistro.DeploymentJournal)
+	 */
+	@Override
+	public void saveDeploymentJournal(DeploymentJournal journal) {
+		save(journal);
+	}
+	
+	private void save(Object o) {
+		Session session = sessionFactory.openSession();
+		Transaction tx = session.beginTransaction();
+		try {
+			session.saveOrUpdate(o);
+			tx.commit();
+		}
+		catch (RuntimeException ex) {
+			tx.rollback();
+			throw ex;
+		}
+		finally {
+			session.close();
+		}
+	}
+	
+}
@@ -0,0 +1,753 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.moduledistro.api.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletContext;
+
+import org.apache.commons.beanutils.PropertyUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.UserContext;
+import org.openmrs.module.Module;
+import org.openmrs.module.ModuleFactory;
+import org.openmrs.module.ModuleFileParser;
+import org.openmrs.module.ModuleUtil;
+import org.openmrs.module.moduledistro.DeploymentJournal;
+import org.openmrs.module.moduledistro.DeploymentResult;
+import org.openmrs.module.moduledistro.DeploymentResult.ActionRecord;
+import org.openmrs.module.moduledistro.api.ModuleDistroService;
+import org.openmrs.module.moduledistro.api.db.ModuleDistroDAO;
+import org.openmrs.module.moduledistro.api.impl.ModuleDistroServiceImpl.Action;
+import org.openmrs.module.moduledistro.api.impl.ModuleDistroServiceImpl.ModuleAction;
+import org.openmrs.module.moduledistro.api.impl.ModuleDistroServiceImpl.UploadedModule;
+import org.openmrs.module.web.WebModuleUtil;
+import org.openmrs.util.OpenmrsUtil;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * Executes the actions planned by {@link DeploymentPlanner}, one after another, and records what was done, and how long
+ * each action took, in a {@link DeploymentResult}.
+ * <p>
+ * Execution has two phases. While the old modules are still running, every omod to install is moved into a pending
+ * folder inside the module repository, checked against the digest taken when it was extracted, and parsed. Only then
+ * is anything stopped, so while modules are offline installing an omod is a rename and registering an already-parsed
+ * {@link Module}. The pending folder is on the same filesystem as the repository, and core only loads *.omod files
+ * from the top level of the repository, so nothing pending is picked up if the server restarts mid-deployment.
+ * <p>
+ * When batchContextRefresh is true, each module's web resources are registered as it starts, but the web application
+ * context is only refreshed once, after the last module has started, instead of once per module.
+ * <p>
+ * With more than one startup thread, the START actions at the end of the plan are grouped into waves: a module is in the
+ * wave after the latest wave of any module it requires that is being started too. The modules in a wave do not depend
+ * on each other, so they are started by {@link ModuleFactory#startModule(Module)} at the same time, each on its own
+ * thread and in its own session. Their web layers are then registered one at a time, in plan order. Core does not
+ * promise that starting modules concurrently is safe, so this is only done when asked for.
+ * <p>
+ * Given a DAO, the plan is written to a {@link DeploymentJournal} once the omods are prepared, before the first action,
+ * and the journal is updated as each action completes, so a deployment interrupted by a crash can be resumed at the
+ * next startup. The pending folder of a journaled deployment is marked with a {@link #JOURNAL_MARKER} file, so it is
+ * kept for the resumed deployment to install from. Starting or stopping a web layer may refresh the web application
+ * context, which replaces the session factory the DAO is bound to, so after that the journal is saved through the
+ * {@link ModuleDistroService} of the new context instead.
+ * <p>
+ * When asked to, this takes a {@link RepositorySnapshot} of the loaded modules before the first action that changes
+ * them, so the deployment can be rolled back.
+ */
+public class DeploymentExecutor {
+
+	/**
+	 * Folder under the module repository where omods are placed before being swapped in
+	 */
+	public static final String PENDING_FOLDER = ".moduledistro-pending";
+
+	/**
+	 * File in a pending folder whose deployment is journaled, holding the journal's id
+	 */
+	public static final String JOURNAL_MARKER = ".journal";
+
+	/**
+	 * How many deployments are being executed by this copy of the module
+	 */
+	private static final AtomicInteger executing = new AtomicInteger();
+
+	protected final Log log = LogFactory.getLog(getClass());
+
+	private StagingArea staging;
+
+	private ServletContext servletContext;
+
+	private boolean batchContextRefresh;
+
+	private DeploymentResult result;
+
+	private File pendingFolder;
+
+	private Map<String, Module> prepared = new HashMap<String, Module>();
+
+	private int startupThreads = 1;
+
+	private ModuleDistroDAO dao;
+
+	private DeploymentJournal journal;
+
+	/**
+	 * Whether the web application context may have been refreshed since the deployment started
+	 */
+	private boolean contextRefreshed = false;
+
+	private boolean takeSnapshot = false;
+
+	/**
+	 * @param staging where the files of the omods to install are
+	 * @param servletContext may be null, in which case no web-layer actions are taken
+	 * @param batchContextRefresh whether to refresh the web application context once, at the end
+	 */
+	public DeploymentExecutor(StagingArea staging, ServletContext servletContext, boolean batchContextRefresh) {
+		this(staging, servletContext, batchContextRefresh, new DeploymentResult());
+	}
+
+	/**
+	 * @param staging where the files of the omods to install are
+	 * @param servletContext may be null, in which case no web-layer actions are taken
+	 * @param batchContextRefresh whether to refresh the web application context once, at the end
+	 * @param result actions are recorded in this as they are taken, so it may be watched for progress
+	 */
+	public DeploymentExecutor(StagingArea staging, ServletContext servletContext, boolean batchContextRefresh,
+	    DeploymentResult result) {
+		this.result = result;
+		this.staging = staging;
+		this.servletContext = servletContext;
+		this.batchContextRefresh = batchContextRefresh;
+	}
+
+	/**
+	 * Starting modules concurrently relies on core tolerating concurrent calls to
+	 * {@link ModuleFactory#startModule(Module)}, which it does not promise (see {@link #startInWaves}).
+	 *
+	 * @param startupThreads how many modules to start at once, when they do not depend on each other (1 starts them one
+	 *            at a time)
+	 */
+	public void setStartupThreads(int startupThreads) {
+		this.startupThreads = startupThreads;
+	}
+
+	/**
+	 * @param dao to journal the deployment through, or null not to journal it
+	 */
+	public void setDao(ModuleDistroDAO dao) {
+		this.dao = dao;
+	}
+
+	/**
+	 * @param takeSnapshot whether to snapshot the loaded modules before changing them, so this can be rolled back
+	 */
+	public void setTakeSnapshot(boolean takeSnapshot) {
+		this.takeSnapshot = takeSnapshot;
+	}
+
+	/**
+	 * Makes this install omods that an interrupted deployment has already placed in a pending folder, rather than
+	 * omods in a staging area
+	 *
+	 * @param pendingFolder
+	 */
+	public void resumeIn(File pendingFolder) {
+		this.pendingFolder = pendingFolder;
+	}
+
+	/**
+	 * Deletes pending folders whose staging areas no longer exist, i.e. those left behind by deployments that were
+	 * interrupted by a shutdown or crash. Folders of journaled deployments are kept, so they can be resumed. Call this
+	 * after {@link StagingArea#sweep()}.
+	 */
+	public static void sweepPending() {
+		File[] folders = new File(ModuleUtil.getModuleRepository(), PENDING_FOLDER).listFiles();
+		if (folders == null)
+			return;
+		for (File folder : folders) {
+			if (!new File(StagingArea.getRoot(), folder.getName()).isDirectory() && !new File(folder, JOURNAL_MARKER).exists())
+				FileUtils.deleteQuietly(folder);
+		}
+	}
+
+	/**
+	 * @return whether a deployment is being executed, e.g. one that is stopping this module to upgrade it
+	 */
+	public static boolean isExecuting() {
+		return executing.get() > 0;
+	}
+
+	/**
+	 * @param actions the planned actions, which are consumed
+	 * @return the result, with the actions taken and the prepare and execute phase times
+	 */
+	public DeploymentResult execute(List<ModuleAction> actions) {
+		List<Module> awaitingRefresh = new ArrayList<Module>();
+		boolean completed = false;
+		Throwable failure = null;
+		long phaseStart = System.currentTimeMillis();
+		executing.incrementAndGet();
+		try {
+			prepare(actions);
+			if (takeSnapshot && changesModules(actions))
+				takeSnapshot();
+			result.addPhaseTime(DeploymentResult.PHASE_PREPARE, System.currentTimeMillis() - phaseStart);
+			startJournal(actions);
+			phaseStart = System.currentTimeMillis();
+			executeActions(actions, awaitingRefresh);
+			completed = true;
+		}
+		catch (RuntimeException ex) {
+			failure = ex;
+			throw ex;
+		}
+		catch (Error ex) {
+			failure = ex;
+			throw ex;
+		}
+		finally {
+			executing.decrementAndGet();
+			finishJournal(failure);
+			// after a successful deployment this is empty; after a failed one it holds omods that were never swapped in
+			if (pendingFolder != null)
+				FileUtils.deleteQuietly(pendingFolder);
+			// modules that already started need their web layer even if a later action failed
+			if (!awaitingRefresh.isEmpty()) {
+				try {
+					refreshContext(awaitingRefresh);
+				}
+				catch (RuntimeException ex) {
+					if (completed)
+						throw ex;
+					log.error("Failed to refresh the web application context after a failed deployment", ex);
+				}
+			}
+			if (completed)
+				result.addPhaseTime(DeploymentResult.PHASE_EXECUTE, System.currentTimeMillis() - phaseStart);
+		}
+		return result;
+	}
+
+	/**
+	 * Does all the file placement, checking, and parsing for the omods to install, before any module is stopped
+	 */
+	private void prepare(List<ModuleAction> actions) {
+		File repository = ModuleUtil.getModuleRepository();
+		Set<String> filesBeingRemoved = new HashSet<String>();
+		for (ModuleAction action : actions) {
+			if (Action.REMOVE.equals(action.getAction()) && ((Module) action.getTarget()).getFile() != null)
+				filesBeingRemoved.add(((Module) action.getTarget()).getFile().getName());
+		}
+
+		for (ModuleAction action : actions) {
+			if (!Action.INSTALL.equals(action.getAction()))
+				continue;
+			UploadedModule info = (UploadedModule) action.getTarget();
+			String filename = info.getOriginalFilename();
+			if (new File(repository, filename).exists() && !filesBeingRemoved.contains(filename))
+				throw new RuntimeException("Cannot install " + filename + " because a different module already uses that filename");
+			try {
+				if (pendingFolder == null) {
+					pendingFolder = new File(repository, PENDING_FOLDER + File.separator + staging.getFolder().getName());
+					FileUtils.forceMkdir(pendingFolder);
+				}
+				// a resumed deployment's omods are already there
+				if (!pendingFolder.equals(info.getData().getParentFile()))
+					info.setData(staging.moveInto(info.getData(), pendingFolder, filename, info.getDigest()));
+			} catch (IOException ex) {
+				throw new RuntimeException("Failed to move " + filename + " into the module repository", ex);
+			}
+			Module module = new ModuleFileParser(info.getData()).parse();
+			// the candidate may have been described by a distro manifest, rather than by inspecting this file
+			if (!info.getModuleId().equals(module.getModuleId()) || !info.getModuleVersion().equals(module.getVersion()))
+				throw new RuntimeException(filename + " contains " + module.getModuleId() + " version " + module.getVersion()
+				        + ", not " + info.getModuleId() + " version " + info.getModuleVersion());
+			prepared.put(info.getModuleId(), module);
+			log.debug("Prepared " + info.getModuleId() + " version " + info.getModuleVersion() + " for installation");
+		}
+	}
+
+	private void executeActions(List<ModuleAction> actions, List<Module> awaitingRefresh) {
+		while (!actions.isEmpty()) {
+			if (startupThreads > 1 && Action.START.equals(actions.get(0).getAction())) {
+				List<ModuleAction> starts = new ArrayList<ModuleAction>();
+				while (!actions.isEmpty() && Action.START.equals(actions.get(0).getAction())) {
+					starts.add(actions.remove(0));
+				}
+				startInWaves(starts, awaitingRefresh);
+				journalCompleted(starts.size());
+				continue;
+			}
+			ModuleAction action = actions.remove(0);
+			long wallStart = System.nanoTime();
+			long cpuStart = getCpuTime();
+			String moduleId;
+			String oldVersion = null;
+			String newVersion = null;
+
+			if (Action.SKIP.equals(action.getAction())) {
+				UploadedModule info = (UploadedModule) action.getTarget();
+				moduleId = info.getModuleId();
+				oldVersion = info.getExisting() == null ? null : info.getExisting().getVersion();
+				newVersion = info.getModuleVersion();
+				result.log(info.getOriginalFilename() + ": skipped because " + info.getSkipReason());
+
+			} else if (Action.STOP.equals(action.getAction())) {
+				Module module = (Module) action.getTarget();
+				moduleId = module.getModuleId();
+				oldVersion = module.getVersion();
+				module.clearStartupError();
+				List<Module> dependentModulesStopped = ModuleFactory.stopModule(module, false, true);
+				for (Module depMod : dependentModulesStopped) {
+					if (servletContext != null) {
+						WebModuleUtil.stopModule(depMod, servletContext);
+						markContextRefreshed();
+					}
+					result.log("Stopped depended module " + depMod.getModuleId() + " version " + depMod.getVersion());
+
+					// the plan should already stop and restart every dependent module, but make sure
+					if (!scheduledToStart(actions, depMod.getModuleId())) {
+						log.warn("Dependent module " + depMod.getModuleId() + " was not scheduled to restart");
+						ModuleAction restart = new ModuleAction(Action.START, depMod);
+						actions.add(restart);
+						journalAdded(restart);
+					}
+				}
+				if (servletContext != null) {
+					WebModuleUtil.stopModule(module, servletContext);
+					markContextRefreshed();
+				}
+				result.log("Stopped " + module.getModuleId() + " version " + module.getVersion());
+
+			} else if (Action.REMOVE.equals(action.getAction())) {
+				Module module = (Module) action.getTarget();
+				moduleId = module.getModuleId();
+				oldVersion = module.getVersion();
+				ModuleFactory.unloadModule(module);
+				result.log("Removed " + module.getModuleId() + " version " + module.getVersion());
+
+			} else if (Action.INSTALL.equals(action.getAction())) {
+				UploadedModule info = (UploadedModule) action.getTarget();
+				moduleId = info.getModuleId();
+				oldVersion = info.getExisting() == null ? null : info.getExisting().getVersion();
+				newVersion = info.getModuleVersion();
+				File inserted = new File(ModuleUtil.getModuleRepository(), info.getOriginalFilename());
+				if (inserted.exists() || !info.getData().renameTo(inserted))
+					throw new RuntimeException("Failed to move " + info.getOriginalFilename() + " into the module repository");
+				info.setData(inserted);
+				Module module = prepared.get(info.getModuleId());
+				module.setFile(inserted);
+				ModuleFactory.loadModule(module, false);
+				result.log("Installed " + info.getModuleId() + " version " + info.getModuleVersion());
+
+			} else if (Action.START.equals(action.getAction())) {
+				Module module = getModuleToStart(action);
+				moduleId = module.getModuleId();
+				newVersion = module.getVersion();
+				// TODO document a core bug, that the next line does not throw the promised ModuleException
+				ModuleFactory.startModule(module);
+				if (module.getStartupErrorMessage() != null)
+					throw new RuntimeException("Failed to start module " + module + " because of: " + module.getStartupErrorMessage());
+				startWebLayer(module, awaitingRefresh);
+				result.log("Started " + module.getModuleId() + " version " + module.getVersion());
+
+			} else {
+				throw new RuntimeException("Programming Error: don't know how to handle action: " + action.getAction());
+			}
+			result.addAction(new ActionRecord(action.getAction().name(), moduleId, oldVersion, newVersion,
+			        (System.nanoTime() - wallStart) / 1000000, getCpuMillisSince(cpuStart)));
+			journalCompleted(1);
+		}
+	}
+
+	private boolean changesModules(List<ModuleAction> actions) {
+		for (ModuleAction action : actions) {
+			if (Action.STOP.equals(action.getAction()) || Action.REMOVE.equals(action.getAction())
+			        || Action.INSTALL.equals(action.getAction()))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * A deployment that cannot be rolled back is still allowed to go ahead
+	 */
+	private void takeSnapshot() {
+		try {
+			Collection<Module> loaded = ModuleFactory.getLoadedModules();
+			int linked = RepositorySnapshot.take(loaded);
+			result.log("Took a snapshot of the " + loaded.size() + " loaded modules, to roll back to (" + linked
+			        + " hard linked, the rest copied)");
+		}
+		catch (IOException ex) {
+			log.error("Failed to take a snapshot of the loaded modules", ex);
+			result.log("Failed to take a snapshot of the loaded modules, so this deployment cannot be rolled back: " + ex);
+		}
+	}
+
+	/**
+	 * Writes the plan to a new journal, before any action is taken
+	 *
+	 * @throws RuntimeException if the journal cannot be written, since the deployment could then not be resumed
+	 */
+	void startJournal(List<ModuleAction> actions) {
+		if (dao == null)
+			return;
+		DeploymentJournal journal = new DeploymentJournal();
+		journal.setId(UUID.randomUUID().toString());
+		journal.setJvm(StagingArea.getJvmIdentity());
+		journal.setDateStarted(new Date());
+		List<DeploymentJournal.Entry> entries = new ArrayList<DeploymentJournal.Entry>();
+		for (ModuleAction action : actions) {
+			entries.add(toJournalEntry(action));
+		}
+		journal.setActions(entries);
+		try {
+			if (pendingFolder != null) {
+				journal.setPendingFolder(pendingFolder.getAbsolutePath());
+				FileUtils.writeStringToFile(new File(pendingFolder, JOURNAL_MARKER), journal.getId(), "UTF-8");
+			}
+		}
+		catch (IOException ex) {
+			throw new RuntimeException("Failed to mark " + pendingFolder + " as journaled", ex);
+		}
+		dao.saveDeploymentJournal(journal);
+		this.journal = journal;
+	}
+
+	/**
+	 * Records that the next count actions of the plan have been completed
+	 */
+	void journalCompleted(int count) {
+		if (journal == null)
+			return;
+		journal.setCompletedActions(journal.getCompletedActions() + count);
+		saveJournal();
+	}
+
+	/**
+	 * Records an action added to the end of the plan
+	 */
+	private void journalAdded(ModuleAction action) {
+		if (journal == null)
+			return;
+		journal.addAction(toJournalEntry(action));
+		saveJournal();
+	}
+
+	void finishJournal(Throwable failure) {
+		if (journal == null)
+			return;
+		journal.setDateFinished(new Date());
+		if (failure != null)
+			journal.setError(failure.toString());
+		saveJournal();
+	}
+
+	/**
+	 * Failing to update the journal should not interrupt a deployment that has started. At worst, a resumed deployment
+	 * finds that some of the actions it repeats have already been taken.
+	 */
+	private void saveJournal() {
+		try {
+			if (contextRefreshed)
+				saveJournalInRefreshedContext(journal);
+			else
+				dao.saveDeploymentJournal(journal);
+		}
+		catch (RuntimeException ex) {
+			log.error("Failed to update deployment journal " + journal.getId(), ex);
+		}
+	}
+
+	/**
+	 * Saves the journal through the service of the current context, since the DAO this was given is bound to the
+	 * session factory of the context before it was refreshed
+	 */
+	void saveJournalInRefreshedContext(DeploymentJournal journal) {
+		Context.getService(ModuleDistroService.class).saveDeploymentJournal(journal);
+	}
+
+	/**
+	 * Records that the web application context may have been refreshed
+	 */
+	void markContextRefreshed() {
+		contextRefreshed = true;
+	}
+
+	private DeploymentJournal.Entry toJournalEntry(ModuleAction action) {
+		if (action.getTarget() instanceof Module) {
+			Module module = (Module) action.getTarget();
+			return new DeploymentJournal.Entry(action.getAction().name(), module.getModuleId(), module.getVersion(), null);
+		}
+		UploadedModule info = (UploadedModule) action.getTarget();
+		String filename = Action.INSTALL.equals(action.getAction()) ? info.getData().getName() : null;
+		return new DeploymentJournal.Entry(action.getAction().name(), info.getModuleId(), info.getModuleVersion(), filename);
+	}
+
+	/**
+	 * Registers the web layer of a module that has just been started
+	 */
+	private void startWebLayer(Module module, List<Module> awaitingRefresh) {
+		if (servletContext == null)
+			return;
+		boolean needsRefresh = WebModuleUtil.startModule(module, servletContext, batchContextRefresh);
+		if (needsRefresh && batchContextRefresh)
+			awaitingRefresh.add(module);
+		// without batching, core has already refreshed the context if the module needed it
+		if (!batchContextRefresh)
+			markContextRefreshed();
+		String webResources = describeWebResources(module);
+		if (webResources != null)
+			result.log("Registered " + webResources + " for " + module.getModuleId());
+	}
+
+	/**
+	 * Starts modules wave by wave, starting the modules in each wave concurrently. Each module is
+	 * started on a worker thread with its own session and its own {@link UserContext}, since a user
+	 * context is not safe to share between threads.
+	 * <p>
+	 * {@link ModuleFactory#startModule(Module)} updates static maps in core (the started modules,
+	 * extensions, module class loaders and AOP advice) that core does not guard against concurrent
+	 * starts, so this is a thread-safety risk in core rather than something this module can make safe.
+	 * That is why it is only used when the parallelStartup global property is true.
+	 *
+	 * @param starts consecutive START actions, in dependency order
+	 * @param awaitingRefresh
+	 */
+	private void startInWaves(List<ModuleAction> starts, List<Module> awaitingRefresh) {
+		List<Module> modules = new ArrayList<Module>();
+		for (ModuleAction action : starts) {
+			modules.add(getModuleToStart(action));
+		}
+		List<List<Module>> waves = groupIntoWaves(modules);
+		result.log("Starting " + modules.size() + " modules in " + waves.size() + " waves");
+
+		ExecutorService pool = Executors.newFixedThreadPool(startupThreads, new ThreadFactory() {
+
+			private int count = 0;
+
+			@Override
+			public synchronized Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "moduledistro-startup-" + (++count));
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try {
+			for (List<Module> wave : waves) {
+				List<Future<long[]>> timings = new ArrayList<Future<long[]>>();
+				for (final Module module : wave) {
+					final UserContext userContext = DeploymentJobs.copyUserContext();
+					timings.add(pool.submit(new Callable<long[]>() {
+
+						@Override
+						public long[] call() throws Exception {
+							Context.openSession();
+							try {
+								Context.setUserContext(userContext);
+								long wallStart = System.nanoTime();
+								long cpuStart = getCpuTime();
+								ModuleFactory.startModule(module);
+								return new long[] { (System.nanoTime() - wallStart) / 1000000, getCpuMillisSince(cpuStart) };
+							}
+							finally {
+								Context.closeSession();
+							}
+						}
+					}));
+				}
+
+				// wait for the whole wave, so every failure in it is reported together
+				List<String> failures = new ArrayList<String>();
+				for (int i = 0; i < wave.size(); ++i) {
+					Module module = wave.get(i);
+					long[] timing = null;
+					try {
+						timing = timings.get(i).get();
+					}
+					catch (ExecutionException ex) {
+						log.error("Failed to start " + module.getModuleId(), ex.getCause());
+						failures.add(module + " because of: " + ex.getCause());
+						continue;
+					}
+					catch (InterruptedException ex) {
+						Thread.currentThread().interrupt();
+						throw new RuntimeException("Interrupted while starting modules", ex);
+					}
+					if (module.getStartupErrorMessage() != null) {
+						failures.add(module + " because of: " + module.getStartupErrorMessage());
+						continue;
+					}
+					startWebLayer(module, awaitingRefresh);
+					result.log("Started " + module.getModuleId() + " version " + module.getVersion());
+					result.addAction(new ActionRecord(Action.START.name(), module.getModuleId(), null, module.getVersion(),
+					        timing[0], timing[1]));
+				}
+				if (!failures.isEmpty())
+					throw new RuntimeException("Failed to start modules:\n" + OpenmrsUtil.join(failures, "\n"));
+			}
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * @param modules to start, in an order where each comes after the modules it requires
+	 * @return modules grouped into waves, where no module requires another in the same wave, or a later one
+	 *
+	 * @should put modules that do not depend on each other in the same wave
+	 * @should put a module in the wave after the latest module it requires
+	 */
+	static List<List<Module>> groupIntoWaves(List<Module> modules) {
+		List<List<Module>> waves = new ArrayList<List<Module>>();
+		Map<String, Integer> waveByPackage = new HashMap<String, Integer>();
+		for (Module module : modules) {
+			int wave = 0;
+			if (module.getRequiredModules() != null) {
+				for (String requiredPackage : module.getRequiredModules()) {
+					Integer requiredWave = waveByPackage.get(requiredPackage);
+					if (requiredWave != null)
+						wave = Math.max(wave, requiredWave + 1);
+				}
+			}
+			waveByPackage.put(module.getPackageName(), wave);
+			if (wave == waves.size())
+				waves.add(new ArrayList<Module>());
+			waves.get(wave).add(module);
+		}
+		return waves;
+	}
+
+	/**
+	 * Does the one web application context refresh that was delayed while starting modules
+	 */
+	private void refreshContext(List<Module> startedModules) {
+		long wallStart = System.nanoTime();
+		long cpuStart = getCpuTime();
+		WebModuleUtil.refreshWAC(servletContext, false, null);
+		markContextRefreshed();
+		result.addAction(new ActionRecord(ActionRecord.REFRESH_CONTEXT, null, null, null,
+		        (System.nanoTime() - wallStart) / 1000000, getCpuMillisSince(cpuStart)));
+		List<String> moduleIds = new ArrayList<String>();
+		for (Module module : startedModules) {
+			moduleIds.add(module.getModuleId());
+		}
+		result.log("Refreshed the web application context once for " + OpenmrsUtil.join(moduleIds, ", "));
+	}
+
+	/**
+	 * @return the CPU time of the current thread in nanoseconds, or -1 if the JVM cannot measure it
+	 */
+	private long getCpuTime() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (!threads.isCurrentThreadCpuTimeSupported() || !threads.isThreadCpuTimeEnabled())
+			return -1;
+		return threads.getCurrentThreadCpuTime();
+	}
+
+	private long getCpuMillisSince(long cpuStart) {
+		if (cpuStart < 0)
+			return -1;
+		return (getCpuTime() - cpuStart) / 1000000;
+	}
+
+	/**
+	 * @param action a START action
+	 * @return the module to start, which for a newly-installed module is looked up by its id
+	 */
+	private Module getModuleToStart(ModuleAction action) {
+		if (action.getTarget() instanceof Module)
+			return (Module) action.getTarget();
+		String moduleId = ((UploadedModule) action.getTarget()).getModuleId();
+		Module module = ModuleFactory.getModuleById(moduleId);
+		if (module == null)
+			throw new RuntimeException("Cannot start " + moduleId + " because it is not loaded");
+		return module;
+	}
+
+	/**
+	 * @param actions
+	 * @param moduleId
+	 * @return whether actions contains a START action for the given moduleId
+	 */
+	private boolean scheduledToStart(Collection<ModuleAction> actions, String moduleId) {
+		for (ModuleAction a : actions) {
+			try {
+				if (a.getAction().equals(Action.START) && PropertyUtils.getProperty(a.getTarget(), "moduleId").equals(moduleId))
+					return true;
+			} catch (Exception ex) {
+				throw new RuntimeException("Cannot determine moduleId of " + a.getTarget());
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param module
+	 * @return a description of the servlets and filters the module's config.xml declares, or null if it has none
+	 */
+	private String describeWebResources(Module module) {
+		Document config = module.getConfig();
+		if (config == null)
+			return null;
+		List<String> servlets = getChildTexts(config.getElementsByTagName("servlet"), "servlet-name");
+		List<String> filters = getChildTexts(config.getElementsByTagName("filter"), "filter-name");
+		if (servlets.isEmpty() && filters.isEmpty())
+			return null;
+		StringBuilder sb = new StringBuilder();
+		if (!servlets.isEmpty())
+			sb.append("servlets ").append(OpenmrsUtil.join(servlets, ", "));
+		if (!filters.isEmpty())
+			sb.append(sb.length() > 0 ? " and " : "").append("filters ").append(OpenmrsUtil.join(filters, ", "));
+		return sb.toString();
+	}
+
+	private List<String> getChildTexts(NodeList elements, String childName) {
+		List<String> ret = new ArrayList<String>();
+		for (int i = 0; i < elements.getLength(); ++i) {
+			NodeList children = ((Element) elements.item(i)).getElementsByTagName(childName);
+			if (children.getLength() > 0)
+				ret.add(children.item(0).getTextContent().trim());
+		}
+		return ret;
+	}
+
+}
@@ -0,0 +1,233 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.moduledistro.api.impl;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.User;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.UserContext;
+import org.openmrs.module.moduledistro.DeploymentJob;
+import org.openmrs.module.moduledistro.DeploymentResult;
+import org.openmrs.module.moduledistro.ModuleDistroConstants;
+
+/**
+ * Runs deployment jobs, one at a time, on a single background thread, and remembers the most recent ones so their
+ * progress can be polled.
+ * <p>
+ * Jobs are queued in the order they are submitted. When the last job in the queue has not started yet, and both it and
+ * a newly submitted job do {@link MergeableWork}, the new job's work is merged into it, rather than queued after it.
+ * Whether or not they run in a job, deployments hold the {@link #getDeploymentLock() deployment lock} while they change
+ * the modules, so two deployments never stop and start modules at the same time.
+ * <p>
+ * This is static rather than part of the service bean, because a deployment refreshes the web application context,
+ * which may replace the service bean while the job is still running.
+ */
+public class DeploymentJobs {
+	
+	private static final Log log = LogFactory.getLog(DeploymentJobs.class);
+	
+	/**
+	 * How many jobs to remember
+	 */
+	private static final int MAX_JOBS = 20;
+	
+	private static final Map<String, DeploymentJob> jobs = new LinkedHashMap<String, DeploymentJob>() {
+		
+		private static final long serialVersionUID = 1L;
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, DeploymentJob> eldest) {
+			return size() > MAX_JOBS && eldest.getValue().isFinished();
+		}
+	};
+	
+	private static ExecutorService deploymentThread;
+	
+	private static final Lock deploymentLock = new ReentrantLock(true);
+	
+	/**
+	 * The most recently submitted job, and its work, until the job starts
+	 */
+	private static DeploymentJob lastQueuedJob;
+	
+	private static JobWork lastQueuedWork;
+	
+	private DeploymentJobs() {
+	}
+	
+	/**
+	 * Queues work to run in the background, with its own session and its own copy of the current user context (see
+	 * {@link #copyUserContext()}). Callers have already been checked for the Manage Modules privilege, so the work runs
+	 * with it as a proxy privilege, which it keeps even if the caller's privileges are taken away, or the caller logs
+	 * out, before it finishes.
+	 * 
+	 * @param result the result so far, which the work will add to
+	 * @param work given the job, so it can record progress in its result
+	 * @return the queued job, which may be one that was queued before, if work was merged into it
+	 * 
+	 * @should merge work into a job that has not started
+	 */
+	public static synchronized DeploymentJob submit(DeploymentResult result, final JobWork work) {
+		if (work instanceof MergeableWork && lastQueuedWork instanceof MergeableWork
+		        && ((MergeableWork) lastQueuedWork).merge((MergeableWork) work)) {
+			DeploymentResult queued = lastQueuedJob.getResult();
+			queued.log("Merged with a distro submitted while this one was waiting");
+			for (String line : result.getLog()) {
+				queued.log(line);
+			}
+			for (Map.Entry<String, Long> phase : result.getPhaseMillis().entrySet()) {
+				queued.addPhaseTime(phase.getKey(), phase.getValue());
+			}
+			queued.addBytesExtracted(result.getBytesExtracted());
+			return lastQueuedJob;
+		}
+		
+		final DeploymentJob job = new DeploymentJob(UUID.randomUUID().toString(), result);
+		final UserContext userContext = copyUserContext();
+		jobs.put(job.getId(), job);
+		lastQueuedJob = job;
+		lastQueuedWork = work;
+		getDeploymentThread().execute(new Runnable() {
+			
+			@Override
+			public void run() {
+				Context.openSession();
+				Context.setUserContext(userContext);
+				Context.addProxyPrivilege(ModuleDistroConstants.PRIV_MANAGE_MODULES);
+				// from now on, nothing more can be merged into this job
+				synchronized (DeploymentJobs.class) {
+					if (lastQueuedJob == job) {
+						lastQueuedJob = null;
+						lastQueuedWork = null;
+					}
+					job.started();
+				}
+				try {
+					work.run(job);
+					job.finished(null);
+				}
+				catch (Throwable ex) {
+					log.error("Deployment job " + job.getId() + " failed", ex);
+					job.finished(ex);
+				}
+				finally {
+					Context.removeProxyPrivilege(ModuleDistroConstants.PRIV_MANAGE_MODULES);
+					Context.closeSession();
+				}
+			}
+		});
+		return job;
+	}
+	
+	/**
+	 * Makes a new user context for a background thread, with the locale of the current one, since a user context is
+	 * not safe to share between threads. When the current user is a superuser, the copy is authenticated as the same
+	 * user; otherwise it is not authenticated, just as when core starts modules at startup. This must be called on the
+	 * thread whose context is being copied, because becoming another user is checked against the current user.
+	 * 
+	 * @return the new user context
+	 */
+	static UserContext copyUserContext() {
+		UserContext copy = new UserContext();
+		User user = Context.getAuthenticatedUser();
+		if (user != null && user.isSuperUser())
+			copy.becomeUser(user.getSystemId());
+		copy.setLocale(Context.getLocale());
+		return copy;
+	}
+	
+	/**
+	 * Remembers a job that ran without this class, e.g. a distro that was applied across a restart
+	 * 
+	 * @param job a finished job
+	 */
+	public static synchronized void add(DeploymentJob job) {
+		jobs.put(job.getId(), job);
+	}
+	
+	/**
+	 * @param jobId
+	 * @return the job with the given id, or null if there is none (or it has been forgotten)
+	 */
+	public static synchronized DeploymentJob get(String jobId) {
+		return jobs.get(jobId);
+	}
+	
+	/**
+	 * @return the lock held by whatever is deploying a distro
+	 */
+	public static Lock getDeploymentLock() {
+		return deploymentLock;
+	}
+	
+	/**
+	 * Stops accepting jobs. A job that is already running is allowed to finish.
+	 */
+	public static synchronized void shutdown() {
+		if (deploymentThread != null) {
+			deploymentThread.shutdown();
+			deploymentThread = null;
+		}
+	}
+	
+	private static ExecutorService getDeploymentThread() {
+		if (deploymentThread == null) {
+			deploymentThread = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "moduledistro-deployment");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return deploymentThread;
+	}
+	
+	/**
+	 * The work a deployment job does
+	 */
+	public interface JobWork {
+		
+		/**
+		 * @param job to record progress in
+		 * @throws Exception
+		 */
+		void run(DeploymentJob job) throws Exception;
+	}
+	
+	/**
+	 * Work that can absorb work submitted after it, as long as it has not started
+	 */
+	public interface MergeableWork extends JobWork {
+		
+		/**
+		 * @param later work submitted after this
+		 * @return whether later was merged into this, so that it does not need to run by itself
+		 */
+		boolean merge(MergeableWork later);
+	}
+	
+}
@@ -0,0 +1,375 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.moduledistro.api.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import org.openmrs.module.Module;
+import org.openmrs.module.ModuleUtil;
+import org.openmrs.module.moduledistro.api.impl.ModuleDistroServiceImpl.Action;
+import org.openmrs.module.moduledistro.api.impl.ModuleDistroServiceImpl.ModuleAction;
+import org.openmrs.module.moduledistro.api.impl.ModuleDistroServiceImpl.UploadedModule;
+import org.openmrs.util.OpenmrsUtil;
+
+/**
+ * Turns a list of inspected omods into the ordered list of actions that will deploy them.
+ * <p>
+ * This builds a package name index of what will be installed once the distro is applied, and a dependency graph of
+ * every module that will have to be started (including already-running modules that get stopped because something they
+ * depend on is upgraded). START actions are then ordered with a single topological sort, and any cycles or unsatisfiable
+ * dependencies are reported before anything is changed.
+ * <p>
+ * Every module affected by an upgrade (the upgraded modules, plus everything running that transitively requires them) is
+ * stopped exactly once, dependents first, and started again exactly once, so the number of stops and starts grows with
+ * the affected set, not with the number of upgraded modules.
+ * <p>
+ * Loaded modules can also be removed, e.g. when rolling back a deployment that added them. They are stopped and removed
+ * just like upgraded modules, but nothing takes their place.
+ */
+public class DeploymentPlanner {
+
+	private Collection<Module> loadedModules;
+
+	private Set<String> startedModuleIds = new HashSet<String>();
+
+	private Collection<Module> toRemove = Collections.emptyList();
+
+	/**
+	 * @param loadedModules all currently loaded modules
+	 * @param startedModules the subset of loadedModules that are started
+	 */
+	public DeploymentPlanner(Collection<Module> loadedModules, Collection<Module> startedModules) {
+		this.loadedModules = loadedModules;
+		for (Module started : startedModules) {
+			startedModuleIds.add(started.getModuleId());
+		}
+	}
+
+	/**
+	 * @param toRemove loaded modules to remove, without installing another version
+	 */
+	public void setToRemove(Collection<Module> toRemove) {
+		this.toRemove = toRemove;
+	}
+
+	/**
+	 * @param candidates inspected omods, with their actions populated
+	 * @return SKIP, STOP, REMOVE, INSTALL and START actions, in the order they should be executed
+	 * @throws RuntimeException listing every problem found, if the distro cannot be deployed
+	 *
+	 * @should start required modules before the modules that require them
+	 * @should stop and restart each affected module once
+	 * @should fail if a required module is missing
+	 * @should fail if required modules form a cycle
+	 * @should stop and remove modules to remove
+	 */
+	public List<ModuleAction> plan(List<UploadedModule> candidates) {
+		// what every loaded module will look like after the distro has been applied, by module id
+		Map<String, Node> finalState = new LinkedHashMap<String, Node>();
+		for (Module module : sortById(loadedModules)) {
+			finalState.put(module.getModuleId(), new Node(module));
+		}
+
+		List<ModuleAction> ret = new LinkedList<ModuleAction>();
+		Set<Node> toStart = new LinkedHashSet<Node>();
+		List<Module> upgraded = new ArrayList<Module>();
+		for (Module module : toRemove) {
+			finalState.remove(module.getModuleId());
+		}
+		for (UploadedModule candidate : candidates) {
+			if (Action.SKIP.equals(candidate.getAction())) {
+				ret.add(new ModuleAction(Action.SKIP, candidate));
+			} else if (Action.START.equals(candidate.getAction())) {
+				toStart.add(finalState.get(candidate.getModuleId()));
+			} else if (Action.INSTALL.equals(candidate.getAction()) || Action.UPGRADE.equals(candidate.getAction())) {
+				Node node = new Node(candidate);
+				finalState.put(candidate.getModuleId(), node);
+				toStart.add(node);
+				if (Action.UPGRADE.equals(candidate.getAction()))
+					upgraded.add(candidate.getExisting());
+			} else {
+				throw new RuntimeException("Programming error: don't know how to handle action " + candidate.getAction() + " on " + candidate);
+			}
+		}
+
+		Map<String, Node> byPackage = new HashMap<String, Node>();
+		for (Node node : finalState.values()) {
+			byPackage.put(node.packageName, node);
+		}
+
+		// running modules that depend on an upgraded (or removed) one have to be stopped with it, and started again
+		List<Module> replaced = new ArrayList<Module>(upgraded);
+		replaced.addAll(toRemove);
+		List<Node> dependents = findRunningDependents(finalState.values(), replaced);
+		toStart.addAll(dependents);
+
+		List<String> problems = new ArrayList<String>();
+		for (Node node : toStart) {
+			for (Map.Entry<String, String> required : node.requiredModules.entrySet()) {
+				Node provider = byPackage.get(required.getKey());
+				if (provider == null) {
+					problems.add(node.moduleId + " requires " + required.getKey() + ", which is neither in the distro nor installed");
+				} else if (required.getValue() != null && ModuleUtil.compareVersion(provider.version, required.getValue()) < 0) {
+					problems.add(node.moduleId + " requires " + provider.moduleId + " version " + required.getValue()
+					        + ", but version " + provider.version + " would be installed");
+				} else if (toStart.contains(provider)) {
+					provider.dependents.add(node);
+					++node.unstartedRequirements;
+				} else if (!startedModuleIds.contains(provider.moduleId)) {
+					problems.add(node.moduleId + " requires " + provider.moduleId + ", which is not started");
+				}
+			}
+		}
+
+		List<Node> startOrder = sortTopologically(toStart, problems);
+		if (!problems.isEmpty())
+			throw new RuntimeException("Cannot deploy this distro:\n" + OpenmrsUtil.join(problems, "\n"));
+
+		List<Module> toStop = new ArrayList<Module>(replaced);
+		for (Node dependent : dependents) {
+			toStop.add((Module) dependent.target);
+		}
+		for (Module module : sortForStopping(toStop))
+			ret.add(new ModuleAction(Action.STOP, module));
+		for (Module module : replaced)
+			ret.add(new ModuleAction(Action.REMOVE, module));
+		for (UploadedModule candidate : candidates) {
+			if (Action.INSTALL.equals(candidate.getAction()) || Action.UPGRADE.equals(candidate.getAction()))
+				ret.add(new ModuleAction(Action.INSTALL, candidate));
+		}
+		for (Node node : startOrder) {
+			if (node.target instanceof Module)
+				ret.add(new ModuleAction(Action.START, (Module) node.target));
+			else
+				ret.add(new ModuleAction(Action.START, (UploadedModule) node.target));
+		}
+		return ret;
+	}
+
+	/**
+	 * @param finalState
+	 * @param modules
+	 * @return the nodes of every started module that (transitively) requires any of modules, in module id order
+	 */
+	private List<Node> findRunningDependents(Collection<Node> finalState, List<Module> modules) {
+		Map<String, List<Node>> requiredBy = new HashMap<String, List<Node>>();
+		for (Node node : finalState) {
+			if (!(node.target instanceof Module) || !startedModuleIds.contains(node.moduleId))
+				continue;
+			for (String requiredPackage : node.requiredModules.keySet()) {
+				List<Node> list = requiredBy.get(requiredPackage);
+				if (list == null) {
+					list = new ArrayList<Node>();
+					requiredBy.put(requiredPackage, list);
+				}
+				list.add(node);
+			}
+		}
+
+		Set<Node> found = new LinkedHashSet<Node>();
+		LinkedList<String> stoppedPackages = new LinkedList<String>();
+		for (Module module : modules) {
+			stoppedPackages.add(module.getPackageName());
+		}
+		while (!stoppedPackages.isEmpty()) {
+			List<Node> dependents = requiredBy.get(stoppedPackages.removeFirst());
+			if (dependents == null)
+				continue;
+			for (Node dependent : dependents) {
+				if (found.add(dependent))
+					stoppedPackages.add(dependent.packageName);
+			}
+		}
+
+		List<Node> ret = new ArrayList<Node>(found);
+		Collections.sort(ret, new Comparator<Node>() {
+			@Override
+			public int compare(Node left, Node right) {
+				return left.moduleId.compareTo(right.moduleId);
+			}
+		});
+		return ret;
+	}
+
+	/**
+	 * @param modules
+	 * @return modules, ordered so that each one comes before every module it requires
+	 */
+	private List<Module> sortForStopping(List<Module> modules) {
+		List<Node> nodes = new ArrayList<Node>();
+		Map<String, Node> byPackage = new HashMap<String, Node>();
+		for (Module module : modules) {
+			Node node = new Node(module);
+			nodes.add(node);
+			byPackage.put(node.packageName, node);
+		}
+		for (Node node : nodes) {
+			for (String requiredPackage : node.requiredModules.keySet()) {
+				Node provider = byPackage.get(requiredPackage);
+				if (provider != null) {
+					provider.dependents.add(node);
+					++node.unstartedRequirements;
+				}
+			}
+		}
+
+		// these modules are all running, so their requirements should not form a cycle, but if they do, stop them anyway
+		List<Node> startOrder = sortTopologically(nodes, new ArrayList<String>());
+		for (Node node : nodes) {
+			if (!startOrder.contains(node))
+				startOrder.add(node);
+		}
+		List<Module> ret = new ArrayList<Module>();
+		for (int i = startOrder.size() - 1; i >= 0; --i) {
+			ret.add((Module) startOrder.get(i).target);
+		}
+		return ret;
+	}
+
+	/**
+	 * Kahn's algorithm, breaking ties by the original order of nodes, so the result is deterministic
+	 */
+	private List<Node> sortTopologically(Collection<Node> nodes, List<String> problems) {
+		int order = 0;
+		for (Node node : nodes) {
+			node.order = order++;
+		}
+		PriorityQueue<Node> ready = new PriorityQueue<Node>(Math.max(1, nodes.size()), new Comparator<Node>() {
+			@Override
+			public int compare(Node left, Node right) {
+				return left.order - right.order;
+			}
+		});
+		for (Node node : nodes) {
+			if (node.unstartedRequirements == 0)
+				ready.add(node);
+		}
+
+		Set<Node> ret = new LinkedHashSet<Node>();
+		while (!ready.isEmpty()) {
+			Node next = ready.poll();
+			ret.add(next);
+			for (Node dependent : next.dependents) {
+				if (--dependent.unstartedRequirements == 0)
+					ready.add(dependent);
+			}
+		}
+
+		if (ret.size() < nodes.size()) {
+			List<String> moduleIds = new ArrayList<String>();
+			for (Node node : nodes) {
+				if (!ret.contains(node))
+					moduleIds.add(node.moduleId);
+			}
+			problems.add("Cannot start any of the following modules because their required modules form a cycle: "
+			        + OpenmrsUtil.join(moduleIds, ", "));
+		}
+		return new ArrayList<Node>(ret);
+	}
+
+	private List<Module> sortById(Collection<Module> modules) {
+		List<Module> ret = new ArrayList<Module>(modules);
+		Collections.sort(ret, new Comparator<Module>() {
+			@Override
+			public int compare(Module left, Module right) {
+				return left.getModuleId().compareTo(right.getModuleId());
+			}
+		});
+		return ret;
+	}
+
+	/**
+	 * A module as it will be once the distro has been applied
+	 */
+	private class Node {
+
+		private String moduleId;
+
+		private String packageName;
+
+		private String version;
+
+		private Map<String, String> requiredModules = new LinkedHashMap<String, String>();
+
+		/**
+		 * the {@link Module} or {@link UploadedModule} to start
+		 */
+		private Object target;
+
+		private List<Node> dependents = new ArrayList<Node>();
+
+		private int unstartedRequirements = 0;
+
+		private int order;
+
+		public Node(Module module) {
+			moduleId = module.getModuleId();
+			packageName = module.getPackageName();
+			version = module.getVersion();
+			if (module.getRequiredModules() != null) {
+				for (String requiredPackage : module.getRequiredModules()) {
+					requiredModules.put(requiredPackage, module.getRequiredModuleVersion(requiredPackage));
+				}
+			}
+			target = module;
+		}
+
+		public Node(UploadedModule candidate) {
+			moduleId = candidate.getModuleId();
+			packageName = candidate.getPackageName();
+			if (packageName == null && candidate.getExisting() != null)
+				packageName = candidate.getExisting().getPackageName();
+			version = candidate.getModuleVersion();
+			requiredModules.putAll(candidate.getRequiredModules());
+			target = candidate;
+		}
+
+		/**
+		 * @see java.lang.Object#equals(java.lang.Object)
+		 */
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Node && moduleId.equals(((Node) obj).moduleId);
+		}
+
+		/**
+		 * @see java.lang.Object#hashCode()
+		 */
+		@Override
+		public int hashCode() {
+			return moduleId.hashCode();
+		}
+
+		/**
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return moduleId;
+		}
+	}
+
+}
@@ -0,0 +1,239 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.moduledistro.api.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarFile;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CloseShieldInputStream;
+import org.openmrs.module.ModuleUtil;
+import org.openmrs.module.moduledistro.DeploymentResult;
+import org.openmrs.module.moduledistro.api.impl.ModuleDistroServiceImpl.Action;
+import org.openmrs.module.moduledistro.api.impl.ModuleDistroServiceImpl.ModuleAction;
+import org.openmrs.module.moduledistro.api.impl.ModuleDistroServiceImpl.UploadedModule;
+import org.openmrs.util.OpenmrsConstants;
+import org.openmrs.util.OpenmrsUtil;
+
+/**
+ * Checks, before anything is stopped, that every omod a distro will install can actually be started, so a broken
+ * distro is rejected without any downtime. For each omod to be installed, in parallel:
+ * <ul>
+ * <li>every entry of the omod, and of the jars in its lib folder, must match its CRC-32</li>
+ * <li>its require_version must be satisfied by the running OpenMRS version</li>
+ * <li>its activator class, if it declares one, must be in the omod or one of the jars in its lib folder</li>
+ * </ul>
+ * Meanwhile the distro is planned, which checks that every required module will be installed and started, at a high
+ * enough version, and that they do not form a cycle. Every problem found by any of these checks is reported together.
+ */
+public class DeploymentPreflight {
+
+	private int threads;
+
+	private DeploymentResult result;
+
+	private OmodMetadataReader metadataReader = new OmodMetadataReader();
+
+	/**
+	 * @param threads how many omods to check at once
+	 * @param result the time taken to plan, and to wait for the checks, is recorded in this
+	 */
+	public DeploymentPreflight(int threads, DeploymentResult result) {
+		this.threads = threads;
+		this.result = result;
+	}
+
+	/**
+	 * Checks the omods to be installed, while planning their deployment
+	 *
+	 * @param candidates inspected omods, with their actions populated
+	 * @param planner
+	 * @return the planned actions
+	 * @throws RuntimeException listing every problem found, if the distro cannot be deployed
+	 *
+	 * @should reject an omod with a corrupt entry
+	 * @should reject an omod whose activator class is missing
+	 * @should report the problems of every omod together
+	 */
+	public List<ModuleAction> check(List<UploadedModule> candidates, DeploymentPlanner planner) {
+		List<String> problems = new ArrayList<String>();
+		ExecutorService workers = newWorkerPool();
+		try {
+			List<UploadedModule> checked = new ArrayList<UploadedModule>();
+			List<Future<List<String>>> checks = new ArrayList<Future<List<String>>>();
+			for (final UploadedModule candidate : candidates) {
+				if (!Action.INSTALL.equals(candidate.getAction()) && !Action.UPGRADE.equals(candidate.getAction()))
+					continue;
+				checked.add(candidate);
+				checks.add(workers.submit(new Callable<List<String>>() {
+
+					@Override
+					public List<String> call() throws Exception {
+						return checkOmod(candidate);
+					}
+				}));
+			}
+
+			List<ModuleAction> actions = null;
+			long planStart = System.currentTimeMillis();
+			try {
+				actions = planner.plan(candidates);
+			}
+			catch (RuntimeException ex) {
+				problems.add(ex.getMessage());
+			}
+			result.addPhaseTime(DeploymentResult.PHASE_PLAN, System.currentTimeMillis() - planStart);
+
+			long waitStart = System.currentTimeMillis();
+			for (int i = 0; i < checks.size(); ++i) {
+				try {
+					problems.addAll(checks.get(i).get());
+				}
+				catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					throw new RuntimeException("Interrupted while checking omods", ex);
+				}
+				catch (ExecutionException ex) {
+					problems.add(checked.get(i).getOriginalFilename() + " cannot be read: " + ex.getCause().getMessage());
+				}
+			}
+			result.addPhaseTime(DeploymentResult.PHASE_PREFLIGHT, System.currentTimeMillis() - waitStart);
+			if (!problems.isEmpty())
+				throw new RuntimeException("Pre-flight checks failed, so nothing was stopped or installed:\n"
+				        + OpenmrsUtil.join(problems, "\n"));
+			result.log("Pre-flight checks passed for " + checked.size() + " omods");
+			return actions;
+		}
+		finally {
+			workers.shutdown();
+		}
+	}
+
+	/**
+	 * @param candidate an omod to be installed
+	 * @return the problems found with it, if any
+	 * @throws IOException if the omod cannot be read at all
+	 */
+	List<String> checkOmod(UploadedModule candidate) throws IOException {
+		List<String> problems = new ArrayList<String>();
+		String name = candidate.getOriginalFilename();
+		File omod = candidate.getData();
+		if (omod == null || !omod.isFile()) {
+			problems.add(name + " was not extracted");
+			return problems;
+		}
+
+		if (candidate.getRequireVersion() != null
+		        && !ModuleUtil.matchRequiredVersions(OpenmrsConstants.OPENMRS_VERSION_SHORT, candidate.getRequireVersion()))
+			problems.add(name + " requires OpenMRS " + candidate.getRequireVersion() + ", but this is OpenMRS "
+			        + OpenmrsConstants.OPENMRS_VERSION_SHORT);
+
+		Set<String> classFiles = new HashSet<String>();
+		String activatorName = null;
+		JarFile jar = new JarFile(omod);
+		try {
+			for (Enumeration<? extends ZipEntry> e = jar.entries(); e.hasMoreElements();) {
+				ZipEntry entry = e.nextElement();
+				if (entry.isDirectory())
+					continue;
+				CheckedInputStream in = new CheckedInputStream(jar.getInputStream(entry), new CRC32());
+				try {
+					if ("config.xml".equals(entry.getName())) {
+						activatorName = metadataReader.read(in).getActivatorName();
+					} else if (entry.getName().endsWith(".class")) {
+						classFiles.add(entry.getName());
+					} else if (entry.getName().startsWith("lib/") && entry.getName().endsWith(".jar")) {
+						listClassFiles(in, entry.getName(), classFiles, problems, name);
+					}
+					drain(in);
+				}
+				catch (IOException ex) {
+					problems.add(name + ": " + entry.getName() + " cannot be read: " + ex.getMessage());
+					continue;
+				}
+				finally {
+					IOUtils.closeQuietly(in);
+				}
+				if (entry.getCrc() != -1 && in.getChecksum().getValue() != entry.getCrc())
+					problems.add(name + ": " + entry.getName() + " failed its CRC-32 check");
+			}
+		}
+		finally {
+			jar.close();
+		}
+
+		if (activatorName != null && activatorName.length() > 0
+		        && !classFiles.contains(activatorName.replace('.', '/') + ".class"))
+			problems.add(name + ": its activator " + activatorName + " is not in the omod or the jars in its lib folder");
+		return problems;
+	}
+
+	/**
+	 * Reads a jar nested in an omod, checking the CRC-32 of each of its entries, and collecting the names of its class
+	 * files
+	 */
+	private void listClassFiles(InputStream nestedJar, String jarName, Set<String> classFiles, List<String> problems,
+	                            String omodName) {
+		// ZipInputStream checks each entry's CRC-32 as it reaches the end of the entry
+		ZipInputStream zis = new ZipInputStream(new CloseShieldInputStream(nestedJar));
+		try {
+			for (ZipEntry entry = zis.getNextEntry(); entry != null; entry = zis.getNextEntry()) {
+				if (entry.getName().endsWith(".class"))
+					classFiles.add(entry.getName());
+				drain(zis);
+			}
+		}
+		catch (IOException ex) {
+			problems.add(omodName + ": " + jarName + " is corrupt: " + ex.getMessage());
+		}
+	}
+
+	private void drain(InputStream in) throws IOException {
+		byte[] buffer = new byte[64 * 1024];
+		while (in.read(buffer) >= 0) {
+		}
+	}
+
+	private ExecutorService newWorkerPool() {
+		final String prefix = "moduledistro-preflight-";
+		return Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory() {
+			private AtomicInteger count = new AtomicInteger();
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, prefix + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+}
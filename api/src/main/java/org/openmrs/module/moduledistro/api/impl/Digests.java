@@ -0,0 +1,96 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.moduledistro.api.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * SHA-256 content digests, used to check that omods arrive intact and to recognize omods we have seen before
+ */
+public class Digests {
+	
+	private Digests() {
+	}
+	
+	/**
+	 * @param in
+	 * @return a stream that computes the SHA-256 digest of everything read through it
+	 */
+	public static DigestInputStream sha256(InputStream in) {
+		try {
+			return new DigestInputStream(in, MessageDigest.getInstance("SHA-256"));
+		}
+		catch (NoSuchAlgorithmException ex) {
+			throw new IllegalStateException("SHA-256 is not supported by this JVM", ex);
+		}
+	}
+	
+	/**
+	 * @param file
+	 * @return the SHA-256 digest of file, in hex
+	 * @throws IOException
+	 */
+	public static String sha256(File file) throws IOException {
+		DigestInputStream in = sha256(new FileInputStream(file));
+		try {
+			byte[] buffer = new byte[64 * 1024];
+			while (in.read(buffer) >= 0) {
+			}
+			return toHex(in);
+		}
+		finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+	
+	/**
+	 * @param text
+	 * @return the SHA-256 digest of text, encoded as UTF-8, in hex
+	 */
+	public static String sha256(String text) {
+		DigestInputStream in;
+		try {
+			in = sha256(new ByteArrayInputStream(text.getBytes("UTF-8")));
+			while (in.read() >= 0) {
+			}
+		}
+		catch (IOException ex) {
+			throw new IllegalStateException(ex);
+		}
+		return toHex(in);
+	}
+	
+	/**
+	 * @param in a stream that has been read to the end
+	 * @return the digest of what was read through in, in hex
+	 */
+	public static String toHex(DigestInputStream in) {
+		byte[] digest = in.getMessageDigest().digest();
+		StringBuilder sb = new StringBuilder(digest.length * 2);
+		for (byte b : digest) {
+			sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return sb.toString();
+	}
+	
+}
@@ -0,0 +1,622 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.moduledistro.api.impl;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.security.DigestInputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CloseShieldInputStream;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.module.moduledistro.DeploymentResult;
+import org.openmrs.module.moduledistro.DistroManifest;
+import org.openmrs.module.moduledistro.DistroManifestReader;
+import org.openmrs.module.moduledistro.api.impl.ModuleDistroServiceImpl.Action;
+import org.openmrs.module.moduledistro.api.impl.ModuleDistroServiceImpl.UploadedModule;
+import org.openmrs.util.OpenmrsUtil;
+
+/**
+ * Reads the omods out of a distro zip, and inspects them. This work is spread over a bounded pool of worker threads,
+ * but results are always returned in the order the omods appear in the zip.
+ * <p>
+ * Each omod's config.xml is read straight out of the zip, without writing the omod anywhere, and only the omods that
+ * will be installed or upgraded are then written to the {@link StagingArea}. When reading from a file, an omod is
+ * simply read a second time to extract it. When reading a stream, each omod is held in memory while it is inspected,
+ * unless it is larger than {@link #MAX_BUFFERED_OMOD}, in which case it is extracted first, as it arrives. The omods
+ * held in memory at once take up at most {@link #MAX_BUFFERED_BYTES}, however many workers there are.
+ * <p>
+ * When given an {@link OmodStore}, omods that are already in the store are not inspected again, nor extracted, since
+ * the stored file can be installed. When reading from a file, whose central directory lists each entry's CRC-32 and
+ * size up front, they are only read through to confirm their digest.
+ * <p>
+ * A distro that starts with a {@link DistroManifest} is planned from the manifest alone. Only the omods that will be
+ * installed are then extracted (unless they are in the store), and each is checked against the digest in the manifest.
+ * The others are left in the zip, and their candidates have no file.
+ * <p>
+ * Time spent extracting and inspecting is summed over all workers, so it may be more than the wall-clock time taken.
+ */
+public class DistroReader {
+
+	/**
+	 * Omods up to this size are held in memory, rather than written to disk, while they are inspected
+	 */
+	public static final int MAX_BUFFERED_OMOD = 16 * 1024 * 1024;
+
+	/**
+	 * The most memory that the omods held in memory at once, while a distro is read from a stream, may take up. This is
+	 * more than {@link #MAX_BUFFERED_OMOD}, so the next omod can always be read once the workers are done with theirs.
+	 */
+	public static final int MAX_BUFFERED_BYTES = 2 * MAX_BUFFERED_OMOD;
+
+	protected final Log log = LogFactory.getLog(getClass());
+
+	private OmodMetadataReader metadataReader = new OmodMetadataReader();
+
+	private ModuleDistroServiceImpl service;
+
+	private StagingArea staging;
+
+	private int threads;
+
+	private DeploymentResult result;
+
+	private OmodStore store;
+
+	/**
+	 * @param service used to inspect each omod
+	 * @param staging where the omods are written
+	 * @param threads how many omods may be extracted and inspected at once
+	 */
+	public DistroReader(ModuleDistroServiceImpl service, StagingArea staging, int threads) {
+		this(service, staging, threads, new DeploymentResult());
+	}
+
+	/**
+	 * @param service used to inspect each omod
+	 * @param staging where the omods are written
+	 * @param threads how many omods may be extracted and inspected at once
+	 * @param result where the bytes extracted, and the time spent extracting and inspecting, are recorded
+	 */
+	public DistroReader(ModuleDistroServiceImpl service, StagingArea staging, int threads, DeploymentResult result) {
+		this(service, staging, threads, result, null);
+	}
+
+	/**
+	 * @param service used to inspect each omod
+	 * @param staging where the omods are written
+	 * @param threads how many omods may be extracted and inspected at once
+	 * @param result where the bytes extracted, and the time spent extracting and inspecting, are recorded
+	 * @param store omods found in here are not inspected (or, if possible, extracted) again (may be null)
+	 */
+	public DistroReader(ModuleDistroServiceImpl service, StagingArea staging, int threads, DeploymentResult result,
+	    OmodStore store) {
+		this.service = service;
+		this.staging = staging;
+		this.threads = threads;
+		this.result = result;
+		this.store = store;
+	}
+
+	/**
+	 * Reads a distro as it arrives, e.g. straight from an http upload. The stream is not closed. Entries have to be
+	 * read one after another, but each omod is inspected (and extracted, if it will be installed) by a worker while the
+	 * following entries are read. Reading waits while the omods held in memory take up {@link #MAX_BUFFERED_BYTES}.
+	 *
+	 * @param distributionZip
+	 * @return the included omods, in the order they appear in the zip, inspected
+	 * @throws IOException
+	 */
+	public List<UploadedModule> read(InputStream distributionZip) throws IOException {
+		ExecutorService workers = newWorkerPool();
+		try {
+			List<Future<UploadedModule>> inspected = new ArrayList<Future<UploadedModule>>();
+			Map<String, UploadedModule> planned = null;
+			Set<String> seen = new HashSet<String>();
+			// the omods held in memory at once, however many workers there are, take up at most this much heap
+			final Semaphore budget = new Semaphore(MAX_BUFFERED_BYTES);
+			ZipInputStream zis = new ZipInputStream(new BufferedInputStream(distributionZip));
+			for (ZipEntry entry = zis.getNextEntry(); entry != null; entry = zis.getNextEntry()) {
+				if (isManifest(entry)) {
+					if (!inspected.isEmpty())
+						throw new RuntimeException(DistroManifest.ZIP_ENTRY_NAME + " must come before any omod in the zip");
+					planned = plan(new DistroManifestReader().read(zis));
+					continue;
+				}
+				if (!isOmod(entry))
+					continue;
+				final String originalFilename = simpleFilename(entry.getName());
+				if (planned != null) {
+					UploadedModule candidate = getPlanned(planned, seen, originalFilename);
+					if (needsFile(candidate) && !useStoredFile(candidate))
+						extractChecked(candidate, zis, "its digest in " + DistroManifest.ZIP_ENTRY_NAME);
+					continue;
+				}
+				CheckedInputStream checked = new CheckedInputStream(zis, new CRC32());
+				DigestInputStream digesting = Digests.sha256(checked);
+				final OmodBuffer buffer = new OmodBuffer(budget);
+				if (!buffer.readUpTo(digesting, MAX_BUFFERED_OMOD)) {
+					final File file;
+					try {
+						// SequenceInputStream closes each stream it finishes, which must not close zis
+						file = extract(originalFilename, new SequenceInputStream(buffer.getInputStream(),
+						        new CloseShieldInputStream(digesting)));
+					}
+					finally {
+						buffer.release();
+					}
+					final String digest = Digests.toHex(digesting);
+					final long crc = checked.getChecksum().getValue();
+					inspected.add(workers.submit(new Callable<UploadedModule>() {
+						@Override
+						public UploadedModule call() throws Exception {
+							return inspect(originalFilename, file, digest, crc, null);
+						}
+					}));
+					continue;
+				}
+				final String digest = Digests.toHex(digesting);
+				final long crc = checked.getChecksum().getValue();
+				inspected.add(workers.submit(new Callable<UploadedModule>() {
+					@Override
+					public UploadedModule call() throws Exception {
+						try {
+							return inspectInMemory(originalFilename, buffer, digest, crc);
+						}
+						finally {
+							buffer.release();
+						}
+					}
+				}));
+			}
+			if (planned != null)
+				return getAllPlanned(planned, seen);
+			return waitFor(inspected);
+		}
+		finally {
+			workers.shutdownNow();
+		}
+	}
+
+	/**
+	 * Reads a distro that is already on disk. Since {@link ZipFile} gives random access to its entries, each omod is
+	 * both inspected and (if it will be installed) extracted by a worker.
+	 *
+	 * @param distributionZip
+	 * @return the included omods, in the order they appear in the zip, inspected
+	 * @throws IOException
+	 */
+	public List<UploadedModule> read(File distributionZip) throws IOException {
+		final ZipFile zf = new ZipFile(distributionZip);
+		final StoredEntryExtractor direct = newStoredEntryExtractor(distributionZip);
+		ExecutorService workers = newWorkerPool();
+		try {
+			ZipEntry manifestEntry = zf.getEntry(DistroManifest.ZIP_ENTRY_NAME);
+			if (manifestEntry != null)
+				return readPlanned(zf, direct, manifestEntry, workers);
+			List<Future<UploadedModule>> inspected = new ArrayList<Future<UploadedModule>>();
+			for (@SuppressWarnings("rawtypes") Enumeration e = zf.entries(); e.hasMoreElements(); ) {
+				final ZipEntry entry = (ZipEntry) e.nextElement();
+				if (!isOmod(entry))
+					continue;
+				inspected.add(workers.submit(new Callable<UploadedModule>() {
+					@Override
+					public UploadedModule call() throws Exception {
+						String originalFilename = simpleFilename(entry.getName());
+						UploadedModule stored = findInStore(originalFilename, zf, entry);
+						if (stored != null)
+							return stored;
+						UploadedModule candidate = inspectInPlace(originalFilename, zf, entry);
+						if (needsFile(candidate) && !useStoredFile(candidate))
+							extractEntry(candidate, zf, direct, entry, "the digest taken when it was inspected");
+						return candidate;
+					}
+				}));
+			}
+			return waitFor(inspected);
+		}
+		finally {
+			workers.shutdownNow();
+			if (direct != null)
+				direct.close();
+			try {
+				zf.close();
+			} catch (Exception ex) { }
+		}
+	}
+
+	/**
+	 * Plans a distro on disk from its manifest, and then extracts the omods that will be installed, in parallel
+	 */
+	private List<UploadedModule> readPlanned(final ZipFile zf, final StoredEntryExtractor direct, ZipEntry manifestEntry,
+	                                         ExecutorService workers) throws IOException {
+		Map<String, UploadedModule> planned;
+		InputStream in = zf.getInputStream(manifestEntry);
+		try {
+			planned = plan(new DistroManifestReader().read(in));
+		}
+		finally {
+			IOUtils.closeQuietly(in);
+		}
+		Set<String> seen = new HashSet<String>();
+		List<Future<UploadedModule>> extracted = new ArrayList<Future<UploadedModule>>();
+		for (@SuppressWarnings("rawtypes") Enumeration e = zf.entries(); e.hasMoreElements(); ) {
+			final ZipEntry entry = (ZipEntry) e.nextElement();
+			if (isManifest(entry) || !isOmod(entry))
+				continue;
+			final UploadedModule candidate = getPlanned(planned, seen, simpleFilename(entry.getName()));
+			if (!needsFile(candidate) || useStoredFile(candidate))
+				continue;
+			extracted.add(workers.submit(new Callable<UploadedModule>() {
+				@Override
+				public UploadedModule call() throws Exception {
+					extractEntry(candidate, zf, direct, entry, "its digest in " + DistroManifest.ZIP_ENTRY_NAME);
+					return candidate;
+				}
+			}));
+		}
+		waitFor(extracted);
+		return getAllPlanned(planned, seen);
+	}
+	
+	/**
+	 * Builds a candidate for every omod in a manifest, and decides what to do with it, without opening any omod
+	 * 
+	 * @param manifest
+	 * @return the candidates, by filename, in manifest order
+	 */
+	private Map<String, UploadedModule> plan(DistroManifest manifest) {
+		long start = System.currentTimeMillis();
+		Map<String, UploadedModule> ret = new LinkedHashMap<String, UploadedModule>();
+		try {
+			for (DistroManifest.Entry entry : manifest.getOmods()) {
+				if (entry.getPackageName() == null)
+					throw new RuntimeException(DistroManifest.ZIP_ENTRY_NAME + " does not give the package of " + entry.getFilename());
+				UploadedModule candidate = service.new UploadedModule(entry.getFilename(), null);
+				candidate.setDigest(entry.getDigest());
+				OmodMetadata metadata = new OmodMetadata();
+				metadata.setModuleId(entry.getModuleId());
+				metadata.setVersion(entry.getVersion());
+				metadata.setPackageName(entry.getPackageName());
+				metadata.setRequireVersion(entry.getRequireVersion());
+				metadata.setRequiredModules(entry.getRequiredModules());
+				service.populateFields(candidate, metadata);
+				if (ret.put(entry.getFilename(), candidate) != null)
+					throw new RuntimeException(DistroManifest.ZIP_ENTRY_NAME + " lists " + entry.getFilename() + " more than once");
+			}
+		}
+		catch (IOException ex) {
+			throw new RuntimeException("Error planning from " + DistroManifest.ZIP_ENTRY_NAME, ex);
+		}
+		finally {
+			result.addPhaseTime(DeploymentResult.PHASE_INSPECT, System.currentTimeMillis() - start);
+		}
+		log.debug("planned " + ret.size() + " omods from " + DistroManifest.ZIP_ENTRY_NAME);
+		return ret;
+	}
+	
+	private UploadedModule getPlanned(Map<String, UploadedModule> planned, Set<String> seen, String originalFilename) {
+		UploadedModule candidate = planned.get(originalFilename);
+		if (candidate == null)
+			throw new RuntimeException(originalFilename + " is in the zip, but not in " + DistroManifest.ZIP_ENTRY_NAME);
+		if (!seen.add(originalFilename))
+			throw new RuntimeException("The zip contains more than one " + originalFilename);
+		return candidate;
+	}
+	
+	private List<UploadedModule> getAllPlanned(Map<String, UploadedModule> planned, Set<String> seen) {
+		for (String filename : planned.keySet()) {
+			if (!seen.contains(filename))
+				throw new RuntimeException(filename + " is in " + DistroManifest.ZIP_ENTRY_NAME + ", but not in the zip");
+		}
+		return new ArrayList<UploadedModule>(planned.values());
+	}
+	
+	/**
+	 * @return whether the file of candidate is needed, i.e. it will be installed
+	 */
+	private boolean needsFile(UploadedModule candidate) {
+		return Action.INSTALL.equals(candidate.getAction()) || Action.UPGRADE.equals(candidate.getAction());
+	}
+	
+	/**
+	 * @return true if the store has the omod with the digest the manifest gives, which is then used as its file
+	 */
+	private boolean useStoredFile(UploadedModule candidate) {
+		if (store == null || store.get(candidate.getDigest()) == null)
+			return false;
+		candidate.setData(store.getFile(candidate.getDigest()));
+		log.debug("found " + candidate.getOriginalFilename() + " in the omod store");
+		return true;
+	}
+	
+	/**
+	 * Like {@link #extractChecked(UploadedModule, InputStream, String)}, for an entry of a zip file. A STORED entry is
+	 * copied directly from the zip, with direct, rather than streamed through the heap.
+	 * 
+	 * @param direct may be null
+	 */
+	private void extractEntry(UploadedModule candidate, ZipFile zf, StoredEntryExtractor direct, ZipEntry entry,
+	                          String digestSource) throws IOException {
+		if (direct != null && direct.canExtract(entry)) {
+			long start = System.currentTimeMillis();
+			staging.reserve(entry.getSize());
+			File file = staging.newFile(candidate.getOriginalFilename());
+			String digest = direct.extract(entry, file);
+			result.addPhaseTime(DeploymentResult.PHASE_EXTRACT, System.currentTimeMillis() - start);
+			result.addBytesExtracted(file.length());
+			if (!candidate.getDigest().equals(digest))
+				throw new RuntimeException(candidate.getOriginalFilename() + " does not match " + digestSource);
+			candidate.setData(file);
+			candidate.setCrc(entry.getCrc());
+			return;
+		}
+		InputStream in = zf.getInputStream(entry);
+		try {
+			extractChecked(candidate, in, digestSource);
+		}
+		finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+	
+	/**
+	 * Extracts an omod that was inspected or planned without its file, and checks that it is the one that was inspected
+	 * 
+	 * @param candidate with its digest
+	 * @param in the omod's contents
+	 * @param digestSource where candidate's digest came from, for the error message
+	 */
+	private void extractChecked(UploadedModule candidate, InputStream in, String digestSource) throws IOException {
+		CheckedInputStream checked = new CheckedInputStream(in, new CRC32());
+		DigestInputStream digesting = Digests.sha256(checked);
+		File file = extract(candidate.getOriginalFilename(), digesting);
+		if (!candidate.getDigest().equals(Digests.toHex(digesting)))
+			throw new RuntimeException(candidate.getOriginalFilename() + " does not match " + digestSource);
+		candidate.setData(file);
+		candidate.setCrc(checked.getChecksum().getValue());
+	}
+	
+	/**
+	 * Reads in to its end, discarding what is read, e.g. so that a digest can be taken of it
+	 */
+	private void drain(InputStream in) throws IOException {
+		byte[] buffer = new byte[64 * 1024];
+		while (in.read(buffer) >= 0) {
+		}
+	}
+	
+	private boolean isManifest(ZipEntry entry) {
+		return DistroManifest.ZIP_ENTRY_NAME.equals(entry.getName());
+	}
+	
+	/**
+	 * @param entry
+	 * @return true if entry is an omod, false if it is a folder
+	 * @throws RuntimeException if entry is anything else
+	 */
+	private boolean isOmod(ZipEntry entry) {
+		if (entry.isDirectory())
+			return false;
+		if (!entry.getName().endsWith(".omod")) {
+			throw new RuntimeException("This ZIP is only allowed to contain omod files, but this contains: " + entry.getName());
+		}
+		return true;
+	}
+
+	private File extract(String originalFilename, InputStream in) throws IOException {
+		long start = System.currentTimeMillis();
+		File file = staging.write(originalFilename, in);
+		result.addPhaseTime(DeploymentResult.PHASE_EXTRACT, System.currentTimeMillis() - start);
+		result.addBytesExtracted(file.length());
+		return file;
+	}
+
+	/**
+	 * @return the stored omod with entry's CRC-32 and size, if its digest matches too, or null
+	 */
+	private UploadedModule findInStore(String originalFilename, ZipFile zf, ZipEntry entry) throws IOException {
+		String digest = store == null ? null : store.findByCrcAndSize(entry.getCrc(), entry.getSize());
+		if (digest == null)
+			return null;
+		long start = System.currentTimeMillis();
+		DigestInputStream in = Digests.sha256(zf.getInputStream(entry));
+		try {
+			drain(in);
+		}
+		finally {
+			IOUtils.closeQuietly(in);
+			result.addPhaseTime(DeploymentResult.PHASE_EXTRACT, System.currentTimeMillis() - start);
+		}
+		if (!digest.equals(Digests.toHex(in))) {
+			log.debug(originalFilename + " has the CRC-32 and size of a stored omod, but not the same contents");
+			return null;
+		}
+		return inspect(originalFilename, store.getFile(digest), digest, entry.getCrc(), null);
+	}
+
+	/**
+	 * Inspects an omod in a distro on disk without extracting it. Its config.xml is read from inside the zip entry,
+	 * and the rest of the entry is read through to take its digest.
+	 */
+	private UploadedModule inspectInPlace(String originalFilename, ZipFile zf, ZipEntry entry) throws IOException {
+		long start = System.currentTimeMillis();
+		DigestInputStream in = Digests.sha256(new BufferedInputStream(zf.getInputStream(entry)));
+		OmodMetadata metadata;
+		try {
+			metadata = metadataReader.readOmod(in);
+			drain(in);
+		}
+		catch (IOException ex) {
+			throw new RuntimeException("Error inspecting " + originalFilename, ex);
+		}
+		finally {
+			IOUtils.closeQuietly(in);
+			result.addPhaseTime(DeploymentResult.PHASE_INSPECT, System.currentTimeMillis() - start);
+		}
+		return inspect(originalFilename, null, Digests.toHex(in), entry.getCrc(), metadata);
+	}
+
+	/**
+	 * Inspects an omod that is held in memory, and only writes it to the staging area if it will be installed
+	 */
+	private UploadedModule inspectInMemory(String originalFilename, OmodBuffer omod, String digest, long crc) throws IOException {
+		OmodMetadata metadata = store == null ? null : store.getMetadata(digest);
+		if (metadata == null) {
+			long start = System.currentTimeMillis();
+			try {
+				metadata = metadataReader.readOmod(omod.getInputStream());
+			}
+			catch (IOException ex) {
+				throw new RuntimeException("Error inspecting " + originalFilename, ex);
+			}
+			finally {
+				result.addPhaseTime(DeploymentResult.PHASE_INSPECT, System.currentTimeMillis() - start);
+			}
+		}
+		UploadedModule candidate = inspect(originalFilename, null, digest, crc, metadata);
+		if (needsFile(candidate) && !useStoredFile(candidate))
+			candidate.setData(extract(originalFilename, omod.getInputStream()));
+		return candidate;
+	}
+
+	/**
+	 * @param originalFilename
+	 * @param file the omod, or null if it has not been extracted
+	 * @param digest
+	 * @param crc
+	 * @param metadata already read from the omod, or null if file should be parsed (unless the store has it)
+	 * @return the candidate, with its action
+	 */
+	private UploadedModule inspect(String originalFilename, File file, String digest, long crc, OmodMetadata metadata) {
+		long start = System.currentTimeMillis();
+		UploadedModule candidate = service.new UploadedModule(originalFilename, file);
+		candidate.setDigest(digest);
+		candidate.setCrc(crc);
+		try {
+			OmodMetadata stored = store == null ? null : store.getMetadata(digest);
+			if (stored != null) {
+				service.populateFields(candidate, stored);
+				log.debug("found " + candidate + " in the omod store");
+			} else if (metadata != null) {
+				service.populateFields(candidate, metadata);
+				log.debug("inspected " + candidate);
+			} else {
+				log.debug("about to inspect " + candidate);
+				service.populateFields(candidate);
+				log.debug("inspected " + candidate);
+			}
+		}
+		catch (IOException ex) {
+			throw new RuntimeException("Error inspecting " + originalFilename, ex);
+		}
+		finally {
+			result.addPhaseTime(DeploymentResult.PHASE_INSPECT, System.currentTimeMillis() - start);
+		}
+		return candidate;
+	}
+
+	/**
+	 * Waits for every task, even if some fail, so that all errors are reported together, in zip order
+	 */
+	private List<UploadedModule> waitFor(List<Future<UploadedModule>> inspected) {
+		List<UploadedModule> ret = new ArrayList<UploadedModule>();
+		List<String> errors = new ArrayList<String>();
+		Throwable firstError = null;
+		for (Future<UploadedModule> future : inspected) {
+			try {
+				ret.add(future.get());
+			}
+			catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while inspecting omods", ex);
+			}
+			catch (ExecutionException ex) {
+				Throwable cause = ex.getCause();
+				errors.add(cause.getMessage() + (cause.getCause() == null ? "" : ": " + cause.getCause().getMessage()));
+				if (firstError == null)
+					firstError = cause;
+			}
+		}
+		if (errors.size() == 1 && firstError instanceof RuntimeException)
+			throw (RuntimeException) firstError;
+		else if (errors.size() > 0)
+			throw new RuntimeException("Errors reading distro:\n" + OpenmrsUtil.join(errors, "\n"), firstError);
+		return ret;
+	}
+
+	/**
+	 * @return an extractor for the STORED entries of distributionZip, or null if its central directory cannot be read
+	 *         directly (it is then streamed as usual)
+	 */
+	private StoredEntryExtractor newStoredEntryExtractor(File distributionZip) {
+		try {
+			return new StoredEntryExtractor(distributionZip);
+		}
+		catch (IOException ex) {
+			log.debug("Cannot read the central directory of " + distributionZip + ", so all its entries will be streamed", ex);
+			return null;
+		}
+	}
+	
+	private ExecutorService newWorkerPool() {
+		final String prefix = "moduledistro-worker-";
+		return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private AtomicInteger count = new AtomicInteger();
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, prefix + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * @param name
+	 * @return if name has any slashes, return what's after them
+	 */
+	private static String simpleFilename(String name) {
+		if (name.indexOf('/') >= 0)
+			name = name.substring(name.indexOf('/') + 1);
+		if (name.indexOf('\\') >= 0)
+			name = name.substring(name.indexOf('\\') + 1);
+		return name;
+	}
+
+}
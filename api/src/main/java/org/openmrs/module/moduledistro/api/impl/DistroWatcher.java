@@ -0,0 +1,214 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.moduledistro.api.impl;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import javax.servlet.ServletContext;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.UserContext;
+import org.openmrs.module.moduledistro.DeploymentJob;
+import org.openmrs.module.moduledistro.ModuleDistroConstants;
+import org.openmrs.module.moduledistro.api.ModuleDistroService;
+
+/**
+ * Watches a folder for distro zips, so provisioning tooling can deploy a distro by copying it there, rather than by
+ * logging in and uploading it.
+ * <p>
+ * The folder is polled (this module runs on Java 6, which has no file system watch service). A zip is complete once a
+ * marker file named after it, with {@link #MARKER_SUFFIX} appended, exists, or else once its size and modification
+ * time have not changed for the quiet period. Zips are not deployed until every zip in the folder is complete, and no
+ * new one has arrived for the quiet period, so a burst of drops is deployed together, as one plan, in a single
+ * stop/start cycle. Deployed zips are moved into the {@link #DEPLOYED_FOLDER} subfolder, and those that could not be
+ * read into {@link #FAILED_FOLDER}.
+ */
+public class DistroWatcher {
+
+	public static final String MARKER_SUFFIX = ".ready";
+
+	public static final String DEPLOYED_FOLDER = "deployed";
+
+	public static final String FAILED_FOLDER = "failed";
+
+	private static final long POLL_MILLIS = 1000;
+
+	protected final Log log = LogFactory.getLog(getClass());
+
+	private File folder;
+
+	private long quietMillis;
+
+	private ServletContext servletContext;
+
+	private Timer timer;
+
+	/**
+	 * The size and modification time of each zip at the last poll, and when they last changed
+	 */
+	private Map<File, long[]> seen = new HashMap<File, long[]>();
+
+	private long lastArrival;
+
+	/**
+	 * @param folder the folder to watch
+	 * @param quietMillis how long a burst of drops has to be quiet before it is deployed
+	 * @param servletContext used to register the web layer of the modules started
+	 */
+	public DistroWatcher(File folder, long quietMillis, ServletContext servletContext) {
+		this.folder = folder;
+		this.quietMillis = quietMillis;
+		this.servletContext = servletContext;
+	}
+
+	/**
+	 * Starts polling the folder, in a background thread
+	 */
+	public synchronized void start() {
+		if (timer != null)
+			return;
+		timer = new Timer("moduledistro-watcher", true);
+		timer.schedule(new TimerTask() {
+
+			@Override
+			public void run() {
+				try {
+					poll(System.currentTimeMillis());
+				}
+				catch (Throwable ex) {
+					log.error("Error watching " + folder.getAbsolutePath() + " for distros", ex);
+				}
+			}
+		}, POLL_MILLIS, POLL_MILLIS);
+		log.info("Watching " + folder.getAbsolutePath() + " for distros to deploy");
+	}
+
+	/**
+	 * Stops polling. A burst that is being read is allowed to finish.
+	 */
+	public synchronized void stop() {
+		if (timer != null) {
+			timer.cancel();
+			timer = null;
+		}
+	}
+
+	/**
+	 * Checks the folder once, and deploys the zips in it if they are ready
+	 *
+	 * @param now the current time
+	 */
+	void poll(long now) {
+		List<File> ready = findReadyBurst(now);
+		if (ready == null)
+			return;
+
+		log.info("Deploying " + ready.size() + " distros dropped in " + folder.getAbsolutePath());
+		Context.openSession();
+		try {
+			// there is nobody logged in, just as when modules are started at startup
+			Context.setUserContext(new UserContext());
+			// dropping a distro in the watched folder is as trusted as copying an omod to the module repository
+			Context.addProxyPrivilege(ModuleDistroConstants.PRIV_MANAGE_MODULES);
+			DeploymentJob job = Context.getService(ModuleDistroService.class).submitDistros(ready, servletContext);
+			log.info("Distros dropped in " + folder.getAbsolutePath() + " are being deployed by job " + job.getId());
+			moveAll(ready, DEPLOYED_FOLDER);
+		}
+		catch (RuntimeException ex) {
+			log.error("Failed to deploy the distros dropped in " + folder.getAbsolutePath(), ex);
+			moveAll(ready, FAILED_FOLDER);
+		}
+		finally {
+			Context.removeProxyPrivilege(ModuleDistroConstants.PRIV_MANAGE_MODULES);
+			Context.closeSession();
+		}
+	}
+
+	/**
+	 * @param now
+	 * @return the zips in the folder, oldest first, if they are all complete and the burst is over, or null if there
+	 *         are none, or they are not ready yet
+	 *
+	 * @should wait until a burst of drops has been quiet
+	 * @should not wait for a zip whose marker exists
+	 */
+	List<File> findReadyBurst(long now) {
+		File[] files = folder.listFiles();
+		List<File> zips = new ArrayList<File>();
+		if (files != null) {
+			for (File file : files) {
+				if (file.isFile() && file.getName().toLowerCase().endsWith(".zip"))
+					zips.add(file);
+			}
+		}
+		seen.keySet().retainAll(zips);
+		if (zips.isEmpty())
+			return null;
+
+		boolean allComplete = true;
+		for (File zip : zips) {
+			long[] state = seen.get(zip);
+			if (state == null) {
+				seen.put(zip, new long[] { zip.length(), zip.lastModified(), now });
+				lastArrival = now;
+			} else if (state[0] != zip.length() || state[1] != zip.lastModified()) {
+				state[0] = zip.length();
+				state[1] = zip.lastModified();
+				state[2] = now;
+			}
+			boolean complete = new File(zip.getPath() + MARKER_SUFFIX).exists() || now - seen.get(zip)[2] >= quietMillis;
+			allComplete = allComplete && complete;
+		}
+		if (!allComplete || now - lastArrival < quietMillis)
+			return null;
+
+		Collections.sort(zips, new Comparator<File>() {
+
+			@Override
+			public int compare(File left, File right) {
+				long byTime = seen.get(left)[1] - seen.get(right)[1];
+				return byTime != 0 ? (byTime < 0 ? -1 : 1) : left.getName().compareTo(right.getName());
+			}
+		});
+		seen.clear();
+		return zips;
+	}
+
+	private void moveAll(List<File> zips, String subfolder) {
+		File target = new File(folder, subfolder);
+		for (File zip : zips) {
+			try {
+				FileUtils.deleteQuietly(new File(target, zip.getName()));
+				FileUtils.moveFileToDirectory(zip, target, true);
+			}
+			catch (Exception ex) {
+				log.error("Failed to move " + zip.getName() + " into " + target.getAbsolutePath() + ", deleting it instead", ex);
+				FileUtils.deleteQuietly(zip);
+			}
+			FileUtils.deleteQuietly(new File(zip.getPath() + MARKER_SUFFIX));
+		}
+	}
+
+}
@@ -0,0 +1,76 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.moduledistro.api.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Gives a file a second name, with a hard link when the JVM and filesystem support it, and by copying otherwise.
+ * <p>
+ * This module is compiled for Java 6, so java.nio.file is looked up reflectively.
+ */
+public class FileLinks {
+	
+	private static final Log log = LogFactory.getLog(FileLinks.class);
+	
+	private static Method toPath;
+	
+	private static Method createLink;
+	
+	static {
+		try {
+			Class<?> pathClass = Class.forName("java.nio.file.Path");
+			toPath = File.class.getMethod("toPath");
+			createLink = Class.forName("java.nio.file.Files").getMethod("createLink", pathClass, pathClass);
+		}
+		catch (Exception ex) {
+			log.info("Hard links are not supported by this JVM, so files will be copied instead");
+		}
+	}
+	
+	private FileLinks() {
+	}
+	
+	/**
+	 * @param source an existing file
+	 * @param target where the link or copy is made, which must not exist yet
+	 * @return true if target is a hard link, false if it is a copy
+	 * @throws IOException
+	 */
+	public static boolean linkOrCopy(File source, File target) throws IOException {
+		if (createLink != null) {
+			try {
+				createLink.invoke(null, toPath.invoke(target), toPath.invoke(source));
+				return true;
+			}
+			catch (InvocationTargetException ex) {
+				// e.g. different filesystems, or a filesystem without hard links
+				log.debug("Cannot link " + target + " to " + source + ", copying it instead: " + ex.getCause());
+			}
+			catch (IllegalAccessException ex) {
+				log.debug("Cannot link " + target + " to " + source + ", copying it instead", ex);
+			}
+		}
+		FileUtils.copyFile(source, target);
+		return false;
+	}
+	
+}
@@ -14,39 +14,42 @@
 package org.openmrs.module.moduledistro.api.impl;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.StringWriter;
+import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
-import java.util.Enumeration;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.jar.JarFile;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
 
 import javax.servlet.ServletContext;
 
 import org.apache.commons.beanutils.PropertyUtils;
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
 import org.openmrs.api.impl.BaseOpenmrsService;
 import org.openmrs.module.Module;
 import org.openmrs.module.ModuleFactory;
 import org.openmrs.module.ModuleUtil;
+import org.openmrs.module.moduledistro.DeploymentJob;
+import org.openmrs.module.moduledistro.DeploymentJournal;
+import org.openmrs.module.moduledistro.DeploymentPlan;
+import org.openmrs.module.moduledistro.DeploymentResult;
+import org.openmrs.module.moduledistro.DeploymentResult.ActionRecord;
+import org.openmrs.module.moduledistro.DistroManifest;
+import org.openmrs.module.moduledistro.ModuleDistroConstants;
+import org.openmrs.module.moduledistro.StoredDistro;
+import org.openmrs.module.moduledistro.StoredOmod;
 import org.openmrs.module.moduledistro.api.ModuleDistroService;
 import org.openmrs.module.moduledistro.api.db.ModuleDistroDAO;
-import org.openmrs.module.web.WebModuleUtil;
-import org.openmrs.util.OpenmrsUtil;
+import org.springframework.util.StringUtils;
 
 /**
  * It is a default implementation of {@link ModuleDistroService}.
@@ -57,6 +60,8 @@ public class ModuleDistroServiceImpl extends BaseOpenmrsService implements Modul
 	
 	private ModuleDistroDAO dao;
 	
+	private OmodMetadataReader metadataReader = new OmodMetadataReader();
+	
 	/**
      * @param dao the dao to set
      */
@@ -65,236 +70,962 @@ public class ModuleDistroServiceImpl extends BaseOpenmrsService implements Modul
     }
 
     /**
-     * @see org.openmrs.module.moduledistro.api.ModuleDistroService#uploadDistro(java.io.File)
+     * @see org.openmrs.module.moduledistro.api.ModuleDistroService#uploadDistro(java.io.File, javax.servlet.ServletContext)
      */
     @Override
-    public List<String> uploadDistro(File distributionZip, ServletContext servletContext) {
-    	// get all omods included in the zip file, by their original filename
-    	List<UploadedModule> includedOmods = new ArrayList<ModuleDistroServiceImpl.UploadedModule>();
-		
-		ZipFile zf = null;
-		try {
-			zf = new ZipFile(distributionZip);
-			for (@SuppressWarnings("rawtypes") Enumeration e = zf.entries(); e.hasMoreElements(); ) {
-				ZipEntry entry = (ZipEntry) e.nextElement();
-				if (entry.getName().endsWith("/"))
-					continue;
-				if (!entry.getName().endsWith(".omod")) {
-					throw new RuntimeException("This ZIP is only allowed to contain omod files, but this contains: " + entry.getName());
-				}
-				File file = File.createTempFile("distributionOmod", ".omod");
-				file.deleteOnExit();
-				FileUtils.copyInputStreamToFile(zf.getInputStream(entry), file);
-				String originalName = simpleFilename(entry.getName());
-				includedOmods.add(new UploadedModule(originalName, file));
-			}
-		}
-        catch (IOException ex) {
-	        // TODO something prettier
-        	throw new RuntimeException("Error reading zip file", ex);
-        }
-		finally {
-			try {
-				zf.close();
-			} catch (Exception ex) { }
-		}
-
-		// determine which omods we want to install
-		for (UploadedModule candidate : includedOmods) {
-			try {
-				log.debug("about to inspect " + candidate);
-	            populateFields(candidate);
-	            log.debug("inspected " + candidate);
-            }
-            catch (IOException ex) {
-	            throw new RuntimeException("Error inspecting " + candidate.getOriginalFilename(), ex);
-            }
-		}
-	
-		// apply those actions (and log them)
-		List<String> log = new ArrayList<String>();
-		List<ModuleAction> actions = determineActions(includedOmods);	
-		
-		while (!actions.isEmpty()) {
-			ModuleAction action = removeNextAction(actions);
-
-			if (Action.SKIP.equals(action.getAction())) {
-				UploadedModule info = (UploadedModule) action.getTarget();
-				log.add(info.getOriginalFilename() + ": skipped because " + info.getSkipReason());
-				
-			} else if (Action.STOP.equals(action.getAction())) {
-				Module module = (Module) action.getTarget();
-				module.clearStartupError();
-				List<Module> dependentModulesStopped = ModuleFactory.stopModule(module, false, true);
-				for (Module depMod : dependentModulesStopped) {
-					if (servletContext != null)
-						WebModuleUtil.stopModule(depMod, servletContext);
-					log.add("Stopped depended module " + depMod.getModuleId() + " version " + depMod.getVersion());
-					
-					// if any modules were stopped that we're not already planning to start, we need to start them
-					if (!scheduledToStart(actions, depMod.getModuleId())) {
-						actions.add(new ModuleAction(Action.START, depMod));
-					}
-				}
-				if (servletContext != null)
-					WebModuleUtil.stopModule(module, servletContext);
-				log.add("Stopped " + module.getModuleId() + " version " + module.getVersion());
-				
-			} else if (Action.REMOVE.equals(action.getAction())) {
-				Module module = (Module) action.getTarget();
-				ModuleFactory.unloadModule(module);
-				log.add("Removed " + module.getModuleId() + " version " + module.getVersion());
-				
-			} else if (Action.INSTALL.equals(action.getAction())) {
-				UploadedModule info = (UploadedModule) action.getTarget();
-				File inserted;
-				try {
-					inserted = ModuleUtil.insertModuleFile(new FileInputStream(info.getData()), info.getOriginalFilename());
-				} catch (FileNotFoundException ex) {
-					throw new RuntimeException("Unexpected FileNotFoundException", ex);
-				}
-				Module loaded = ModuleFactory.loadModule(inserted);
-				log.add("Installed " + info.getModuleId() + " version " + info.getModuleVersion());
-				
-				// if we installed a module, we also need to start it later
-				if (!scheduledToStart(actions, loaded.getModuleId())) {
-					actions.add(new ModuleAction(Action.START, loaded));
-				}
-				
-			} else if (Action.START.equals(action.getAction())) {
-				Module module = (Module) action.getTarget();
-				// TODO document a core bug, that the next line does not throw the promised ModuleException
-				ModuleFactory.startModule(module);
-				if (module.getStartupErrorMessage() != null)
-					throw new RuntimeException("Failed to start module " + module + " because of: " + module.getStartupErrorMessage());
-				if (servletContext != null)
-					WebModuleUtil.startModule(module, servletContext, false); // TODO figure out how to delay context refresh
-				log.add("Started " + module.getModuleId() + " version " + module.getVersion());
-				
-			} else {
-				throw new RuntimeException("Programming Error: don't know how to handle action: " + action.getAction());
-			}
-		}
-		
-		return log;
+    public DeploymentResult uploadDistro(File distributionZip, ServletContext servletContext) {
+    	DeploymentResult result = new DeploymentResult();
+    	StagingArea staging = newStagingArea();
+    	try {
+    		OmodStore store = newOmodStore();
+    		List<UploadedModule> includedOmods;
+    		try {
+    			includedOmods = new DistroReader(this, staging, getWorkerThreads(), result, store).read(distributionZip);
+    		}
+    		catch (IOException ex) {
+    			// TODO something prettier
+    			throw new RuntimeException("Error reading zip file", ex);
+    		}
+    		storeDistro(distributionZip.getName(), includedOmods, store);
+    		return applyDistro(includedOmods, staging, servletContext, result);
+    	}
+    	finally {
+    		staging.destroy();
+    	}
     }
 
-	/**
-     * Removes the element from the list which should executed next, and returns it.
-     * (We can't just use Collections.sort, or a PriorityQueue because I don't think sorting via
-     * pairwise comparison can correctly determine module startup order.)
+    /**
+     * @see org.openmrs.module.moduledistro.api.ModuleDistroService#uploadDistro(java.io.InputStream, javax.servlet.ServletContext)
+     */
+    @Override
+    public DeploymentResult uploadDistro(InputStream distributionZip, ServletContext servletContext) {
+    	DeploymentResult result = new DeploymentResult();
+    	StagingArea staging = newStagingArea();
+    	try {
+    		OmodStore store = newOmodStore();
+    		List<UploadedModule> includedOmods;
+    		try {
+    			includedOmods = new DistroReader(this, staging, getWorkerThreads(), result, store).read(distributionZip);
+    		}
+    		catch (IOException ex) {
+    			throw new RuntimeException("Error reading uploaded zip", ex);
+    		}
+    		storeDistro(null, includedOmods, store);
+    		return applyDistro(includedOmods, staging, servletContext, result);
+    	}
+    	finally {
+    		staging.destroy();
+    	}
+    }
+
+    /**
+     * @see org.openmrs.module.moduledistro.api.ModuleDistroService#planDistro(java.io.InputStream)
+     */
+    @Override
+    public DeploymentPlan planDistro(InputStream distributionZip) {
+    	DeploymentResult result = new DeploymentResult();
+    	StagingArea staging = newStagingArea();
+    	try {
+    		List<UploadedModule> includedOmods;
+    		try {
+    			includedOmods = readStaged("distribution.zip", distributionZip, staging, result, newOmodStore());
+    		}
+    		catch (IOException ex) {
+    			throw new RuntimeException("Error reading uploaded zip", ex);
+    		}
+    		return toDeploymentPlan(new DeploymentPreflight(getWorkerThreads(), result).check(includedOmods, newPlanner()));
+    	}
+    	finally {
+    		staging.destroy();
+    	}
+    }
+
+    /**
+     * @see org.openmrs.module.moduledistro.api.ModuleDistroService#submitDistro(java.io.InputStream, javax.servlet.ServletContext)
+     */
+    @Override
+    public DeploymentJob submitDistro(InputStream distributionZip, ServletContext servletContext) {
+    	// the upload can only be read during the request, so that part is not deferred
+    	DeploymentResult result = new DeploymentResult();
+    	StagingArea staging = newStagingArea();
+    	List<UploadedModule> includedOmods;
+    	try {
+    		OmodStore store = newOmodStore();
+    		includedOmods = new DistroReader(this, staging, getWorkerThreads(), result, store).read(distributionZip);
+    		storeDistro(null, includedOmods, store);
+    	}
+    	catch (IOException ex) {
+    		staging.destroy();
+    		throw new RuntimeException("Error reading uploaded zip", ex);
+    	}
+    	catch (RuntimeException ex) {
+    		staging.destroy();
+    		throw ex;
+    	}
+    	
+    	return DeploymentJobs.submit(result, new DistroWork(includedOmods, staging, servletContext));
+    }
+
+    /**
+     * @see org.openmrs.module.moduledistro.api.ModuleDistroService#submitUploadedDistro(java.lang.String, java.io.InputStream, javax.servlet.ServletContext)
+     */
+    @Override
+    public DeploymentJob submitUploadedDistro(String filename, InputStream distributionZip, ServletContext servletContext) {
+    	DeploymentResult result = new DeploymentResult();
+    	StagingArea staging = newStagingArea();
+    	List<UploadedModule> includedOmods;
+    	try {
+    		OmodStore store = newOmodStore();
+    		includedOmods = readStaged(filename, distributionZip, staging, result, store);
+    		storeDistro(filename, includedOmods, store);
+    	}
+    	catch (IOException ex) {
+    		staging.destroy();
+    		throw new RuntimeException("Error reading uploaded zip", ex);
+    	}
+    	catch (RuntimeException ex) {
+    		staging.destroy();
+    		throw ex;
+    	}
+    	
+    	return DeploymentJobs.submit(result, new DistroWork(includedOmods, staging, servletContext));
+    }
+
+    /**
+     * Writes an uploaded zip to the staging area, where it counts against the staging quota and is deleted with the
+     * rest of the staging area, and reads it from there with {@link java.util.zip.ZipFile}, since ZipInputStream is
+     * buggy
+     */
+    private List<UploadedModule> readStaged(String filename, InputStream distributionZip, StagingArea staging,
+                                            DeploymentResult result, OmodStore store) throws IOException {
+    	File zip = staging.write(filename, distributionZip);
+    	return new DistroReader(this, staging, getWorkerThreads(), result, store).read(zip);
+    }
+
+    /**
+     * @see org.openmrs.module.moduledistro.api.ModuleDistroService#submitDistros(java.util.List, javax.servlet.ServletContext)
+     */
+    @Override
+    public DeploymentJob submitDistros(List<File> distributionZips, ServletContext servletContext) {
+    	DeploymentResult result = new DeploymentResult();
+    	StagingArea staging = newStagingArea();
+    	DistroWork work = new DistroWork(staging, servletContext);
+    	try {
+    		OmodStore store = newOmodStore();
+    		for (File distributionZip : distributionZips) {
+    			result.log("Reading " + distributionZip.getName());
+    			List<UploadedModule> omods = new DistroReader(this, staging, getWorkerThreads(), result, store).read(distributionZip);
+    			storeDistro(distributionZip.getName(), omods, store);
+    			work.distros.add(omods);
+    		}
+    	}
+    	catch (IOException ex) {
+    		staging.destroy();
+    		throw new RuntimeException("Error reading zip file", ex);
+    	}
+    	catch (RuntimeException ex) {
+    		staging.destroy();
+    		throw ex;
+    	}
+    	
+    	return DeploymentJobs.submit(result, work);
+    }
+
+    /**
+     * Combines inspected distros into one, which includes the newest version of each module in any of them. For the
+     * same version, the one in the later distro wins. Modules are deployed in the order they first appear.
+     * <p>
+     * public for testing
      * 
-     * @param actions
-     * @return
+     * @param distros inspected omods of each distro, oldest distro first
+     * @param result the omods that are left out are logged here
+     * @return the combined omods
+     * 
+     * @should keep the newest version of each module
+     * @should prefer the later distro for the same version
      */
-    private ModuleAction removeNextAction(List<ModuleAction> actions) {
-    	if (actions.size() == 0)
-    		return null;
+    public List<UploadedModule> mergeDistros(List<List<UploadedModule>> distros, DeploymentResult result) {
+    	Map<String, UploadedModule> byModuleId = new LinkedHashMap<String, UploadedModule>();
+    	for (List<UploadedModule> distro : distros) {
+    		for (UploadedModule candidate : distro) {
+    			UploadedModule earlier = byModuleId.get(candidate.getModuleId());
+    			if (earlier == null) {
+    				byModuleId.put(candidate.getModuleId(), candidate);
+    			} else if (ModuleUtil.compareVersion(candidate.getModuleVersion(), earlier.getModuleVersion()) >= 0) {
+    				byModuleId.put(candidate.getModuleId(), candidate);
+    				result.log(earlier.getOriginalFilename() + ": superseded by " + candidate.getOriginalFilename());
+    			} else {
+    				result.log(candidate.getOriginalFilename() + ": superseded by " + earlier.getOriginalFilename());
+    			}
+    		}
+    	}
+    	return new ArrayList<UploadedModule>(byModuleId.values());
+    }
+
+    /**
+     * @see org.openmrs.module.moduledistro.api.ModuleDistroService#getMissingOmods(org.openmrs.module.moduledistro.DistroManifest)
+     */
+    @Override
+    public List<DistroManifest.Entry> getMissingOmods(DistroManifest manifest) {
+    	OmodStore store = newOmodStore();
+    	List<DistroManifest.Entry> ret = new ArrayList<DistroManifest.Entry>();
+    	for (DistroManifest.Entry omod : manifest.getOmods()) {
+    		if (store.get(omod.getDigest()) == null)
+    			ret.add(omod);
+    	}
+    	return ret;
+    }
+
+    /**
+     * @see org.openmrs.module.moduledistro.api.ModuleDistroService#uploadDistro(org.openmrs.module.moduledistro.DistroManifest, java.io.InputStream, javax.servlet.ServletContext)
+     */
+    @Override
+    public DeploymentResult uploadDistro(DistroManifest manifest, InputStream missingOmods, ServletContext servletContext) {
+    	DeploymentResult result = new DeploymentResult();
+    	StagingArea staging = newStagingArea();
+    	try {
+    		List<UploadedModule> includedOmods = readDelta(manifest, missingOmods, staging, result);
+    		return applyDistro(includedOmods, staging, servletContext, result);
+    	}
+    	finally {
+    		staging.destroy();
+    	}
+    }
+
+    /**
+     * @see org.openmrs.module.moduledistro.api.ModuleDistroService#submitDistro(org.openmrs.module.moduledistro.DistroManifest, java.io.InputStream, javax.servlet.ServletContext)
+     */
+    @Override
+    public DeploymentJob submitDistro(DistroManifest manifest, InputStream missingOmods, ServletContext servletContext) {
+    	DeploymentResult result = new DeploymentResult();
+    	StagingArea staging = newStagingArea();
+    	List<UploadedModule> includedOmods;
+    	try {
+    		includedOmods = readDelta(manifest, missingOmods, staging, result);
+    	}
+    	catch (RuntimeException ex) {
+    		staging.destroy();
+    		throw ex;
+    	}
     	
-    	Collections.sort(actions, new Comparator<ModuleAction>() {
-			@Override
-            public int compare(ModuleAction left, ModuleAction right) {
-	            return left.getAction().compareTo(right.getAction());
-            }
-    	});
+    	return DeploymentJobs.submit(result, new DistroWork(includedOmods, staging, servletContext));
+    }
+
+    /**
+     * Reads the omods uploaded in a delta upload, adds them to the store, and assembles the whole distro described by
+     * manifest from them and the omods already stored
+     * 
+     * @param manifest
+     * @param missingOmods a zip of the omods that the store did not have (may be null)
+     * @param staging
+     * @param result
+     * @return every omod in manifest, in manifest order, inspected
+     */
+    private List<UploadedModule> readDelta(DistroManifest manifest, InputStream missingOmods, StagingArea staging,
+                                           DeploymentResult result) {
+    	OmodStore store = newOmodStore();
+    	Map<String, UploadedModule> uploaded = new HashMap<String, UploadedModule>();
+    	if (missingOmods != null) {
+    		List<UploadedModule> omods;
+    		try {
+    			omods = readStaged("missing-omods.zip", missingOmods, staging, result, store);
+    		}
+    		catch (IOException ex) {
+    			throw new RuntimeException("Error reading uploaded zip", ex);
+    		}
+    		for (UploadedModule omod : omods) {
+    			if (manifest.getOmod(omod.getDigest()) == null)
+    				throw new RuntimeException(omod.getOriginalFilename() + " was uploaded, but is not in the distro manifest");
+    			uploaded.put(omod.getDigest(), omod);
+    		}
+    		storeOmods(omods, store);
+    	}
     	
-    	Action nextAction = actions.get(0).getAction();
-    	if (!Action.START.equals(nextAction)) {
-    		// for every category except for starting modules, order doesn't matter
-    		return actions.remove(0);
-    	}
-    	else {
-    		// find a module that has all its dependencies started already
-    		for (Iterator<ModuleAction> iter = actions.iterator(); iter.hasNext(); ) {
-    			ModuleAction candidate = iter.next();
-    			if (candidate.getAction().equals(Action.START) && requiredModulesStarted((Module) candidate.getTarget())) {
-    				iter.remove();
-    				return candidate;
+    	List<UploadedModule> ret = new ArrayList<UploadedModule>();
+    	for (DistroManifest.Entry entry : manifest.getOmods()) {
+    		UploadedModule omod = uploaded.get(entry.getDigest());
+    		if (omod == null) {
+    			OmodMetadata metadata = store.getMetadata(entry.getDigest());
+    			if (metadata == null)
+    				throw new RuntimeException(entry + " is not in the omod store, and was not uploaded");
+    			omod = new UploadedModule(entry.getFilename(), store.getFile(entry.getDigest()));
+    			omod.setDigest(entry.getDigest());
+    			try {
+    				populateFields(omod, metadata);
+    			}
+    			catch (IOException ex) {
+    				throw new RuntimeException("Error inspecting " + entry.getFilename(), ex);
     			}
     		}
-    		// if we couldn't find any startable modules, throw an error
-    		List<String> moduleIds = new ArrayList<String>();
-    		for (ModuleAction candidate : actions) {
-    			if (candidate.getAction().equals(Action.START))
-    				moduleIds.add(((Module) candidate.getTarget()).getModuleId());
+    		// the manifest decides what the omod is called, however it was named in the zip
+    		omod.setOriginalFilename(entry.getFilename());
+    		if (!entry.getModuleId().equals(omod.getModuleId()) || !entry.getVersion().equals(omod.getModuleVersion()))
+    			throw new RuntimeException("The distro manifest lists " + entry + ", but that omod is " + omod.getModuleId()
+    			        + " v" + omod.getModuleVersion());
+    		ret.add(omod);
+    	}
+    	rememberDistro(null, ret);
+    	return ret;
+    }
+
+    /**
+     * @see org.openmrs.module.moduledistro.api.ModuleDistroService#deployStoredDistro(java.lang.String, javax.servlet.ServletContext)
+     */
+    @Override
+    public DeploymentResult deployStoredDistro(String distroDigest, ServletContext servletContext) {
+    	List<UploadedModule> includedOmods = loadStoredDistro(distroDigest);
+    	StagingArea staging = newStagingArea();
+    	try {
+    		return applyDistro(includedOmods, staging, servletContext, new DeploymentResult(), true);
+    	}
+    	finally {
+    		staging.destroy();
+    	}
+    }
+
+    /**
+     * @see org.openmrs.module.moduledistro.api.ModuleDistroService#submitStoredDistro(java.lang.String, javax.servlet.ServletContext)
+     */
+    @Override
+    public DeploymentJob submitStoredDistro(String distroDigest, final ServletContext servletContext) {
+    	final List<UploadedModule> includedOmods = loadStoredDistro(distroDigest);
+    	final StagingArea staging = newStagingArea();
+    	// a rollback may install older versions, so it is not merged with other distros
+    	return DeploymentJobs.submit(new DeploymentResult(), new DeploymentJobs.JobWork() {
+    		@Override
+    		public void run(DeploymentJob job) {
+    			try {
+    				applyDistro(includedOmods, staging, servletContext, job.getResult(), true);
+    			}
+    			finally {
+    				staging.destroy();
+    			}
     		}
-    		throw new RuntimeException("Cannot start any of the following modules because they all depend on non-started modules: " + OpenmrsUtil.join(moduleIds, ", "));
-    	}    	
+    	});
     }
 
-	/**
-     * copied from ModuleFactory in 1.9.x
-     */
-    private boolean requiredModulesStarted(Module module) {
-		for (String reqModPackage : module.getRequiredModules()) {
-			boolean started = false;
-			for (Module mod : ModuleFactory.getStartedModules()) {
-				if (mod.getPackageName().equals(reqModPackage)) {
-					String reqVersion = module.getRequiredModuleVersion(reqModPackage);
-					if (reqVersion == null || ModuleUtil.compareVersion(mod.getVersion(), reqVersion) >= 0)
-						started = true;
-					break;
-				}
-			}
-			
-			if (!started)
-				return false;
-		}
-		
-		return true;
-	}
+    /**
+     * @see org.openmrs.module.moduledistro.api.ModuleDistroService#getRecentStoredDistros(int)
+     */
+    @Override
+    public List<StoredDistro> getRecentStoredDistros(int maxResults) {
+    	return dao.getRecentStoredDistros(maxResults);
+    }
 
-	/**
-     * @param actions
-     * @param moduleId
-     * @return whether actions contains a START action for the given moduleId
-     */
-    private boolean scheduledToStart(Collection<ModuleAction> actions, String moduleId) {
-	    for (ModuleAction a : actions) {
-	    	try {
-		    	if (a.getAction().equals(Action.START) && PropertyUtils.getProperty(a.getTarget(), "moduleId").equals(moduleId))
-		    		return true;
-	    	} catch (Exception ex) {
-	    		throw new RuntimeException("Cannot determine moduleId of " + a.getTarget());
-	    	}
-	    }
-	    return false;
+    /**
+     * @see org.openmrs.module.moduledistro.api.ModuleDistroService#getRollbackDate()
+     */
+    @Override
+    public Date getRollbackDate() {
+    	return RepositorySnapshot.getDateTaken();
     }
 
-	/**
-     * Given a list of include omods, that have been inspected and their ModuleInfo fields populated, determine
-     * what specific actions to take
+    /**
+     * @see org.openmrs.module.moduledistro.api.ModuleDistroService#submitRollback(javax.servlet.ServletContext)
+     */
+    @Override
+    public DeploymentJob submitRollback(final ServletContext servletContext) {
+    	final List<UploadedModule> includedOmods = new ArrayList<UploadedModule>();
+    	final Set<String> keepOnly = new HashSet<String>();
+    	try {
+    		List<RepositorySnapshot.Entry> snapshot = RepositorySnapshot.read();
+    		if (snapshot == null)
+    			throw new RuntimeException("There is no snapshot of the modules before the last deployment to roll back to");
+    		for (RepositorySnapshot.Entry entry : snapshot) {
+    			// the file is linked into place from the snapshot, like an omod from the store
+    			UploadedModule candidate = new UploadedModule(entry.getFile().getName(), entry.getFile());
+    			candidate.setDigest(Digests.sha256(entry.getFile()));
+    			populateFields(candidate);
+    			allowDowngrade(candidate);
+    			includedOmods.add(candidate);
+    			keepOnly.add(candidate.getModuleId());
+    		}
+    	}
+    	catch (IOException ex) {
+    		throw new RuntimeException("Error reading the snapshot to roll back to", ex);
+    	}
+    	final StagingArea staging = newStagingArea();
+    	DeploymentResult result = new DeploymentResult();
+    	result.log("Rolling back to the " + includedOmods.size() + " modules loaded before the deployment at " + getRollbackDate());
+    	// like a stored distro, this may install older versions, so it is not merged with other distros
+    	return DeploymentJobs.submit(result, new DeploymentJobs.JobWork() {
+    		@Override
+    		public void run(DeploymentJob job) {
+    			try {
+    				applyDistro(includedOmods, staging, servletContext, job.getResult(), true, keepOnly);
+    			}
+    			finally {
+    				staging.destroy();
+    			}
+    		}
+    	});
+    }
+
+    /**
+     * @see org.openmrs.module.moduledistro.api.ModuleDistroService#getDeploymentJob(java.lang.String)
+     */
+    @Override
+    public DeploymentJob getDeploymentJob(String jobId) {
+    	return DeploymentJobs.get(jobId);
+    }
+
+    /**
+     * @see org.openmrs.module.moduledistro.api.ModuleDistroService#stageDistroForRestart(java.io.InputStream)
+     */
+    @Override
+    public void stageDistroForRestart(InputStream distributionZip) {
+    	try {
+    		File staged = RestartDistro.stage(distributionZip);
+    		log.info("Saved " + staged.getName() + " to be applied at the next restart");
+    	}
+    	catch (IOException ex) {
+    		throw new RuntimeException("Error saving the distro for the next restart", ex);
+    	}
+    }
+
+    /**
+     * @see org.openmrs.module.moduledistro.api.ModuleDistroService#deployPendingRestartDistro(javax.servlet.ServletContext)
+     */
+    @Override
+    public DeploymentJob deployPendingRestartDistro(ServletContext servletContext) {
+    	File zip = RestartDistro.getPendingDistro();
+    	if (zip == null)
+    		return null;
+    	try {
+    		// the omods are extracted or stored before this returns, so the zip is no longer needed
+    		return submitDistros(Collections.singletonList(zip), servletContext);
+    	}
+    	finally {
+    		// like a distro laid down at shutdown, one that cannot be read is not tried again at every startup
+    		RestartDistro.discardPending();
+    	}
+    }
+
+    /**
+     * @see org.openmrs.module.moduledistro.api.ModuleDistroService#getLastRestartJob()
+     */
+    @Override
+    public DeploymentJob getLastRestartJob() {
+    	String jobId = RestartDistro.getLastJobId();
+    	return jobId == null ? null : DeploymentJobs.get(jobId);
+    }
+
+    /**
+     * @return the number of worker threads to use, from the {@link ModuleDistroConstants#GP_WORKER_THREADS} global property
+     */
+    private int getWorkerThreads() {
+    	String gp = Context.getAdministrationService().getGlobalProperty(ModuleDistroConstants.GP_WORKER_THREADS);
+    	if (StringUtils.hasText(gp)) {
+    		try {
+    			return Math.max(1, Integer.parseInt(gp.trim()));
+    		}
+    		catch (NumberFormatException ex) {
+    			log.warn("Ignoring invalid value for " + ModuleDistroConstants.GP_WORKER_THREADS + ": " + gp);
+    		}
+    	}
+    	return Runtime.getRuntime().availableProcessors();
+    }
+
+    private boolean getBooleanGlobalProperty(String property, boolean defaultValue) {
+    	String gp = Context.getAdministrationService().getGlobalProperty(property);
+    	return StringUtils.hasText(gp) ? Boolean.valueOf(gp.trim()) : defaultValue;
+    }
+
+    private OmodStore newOmodStore() {
+    	return new OmodStore(OmodStore.getDefaultFolder(), dao.getAllStoredOmods());
+    }
+
+    /**
+     * Adds any omods that are new to the store and its index, and remembers the distro, so that it can be deployed
+     * again later without uploading it
+     * 
+     * @param name
+     * @param includedOmods inspected omods
+     * @param store
+     */
+    private void storeDistro(String name, List<UploadedModule> includedOmods, OmodStore store) {
+    	storeOmods(includedOmods, store);
+    	for (UploadedModule omod : includedOmods) {
+    		if (store.get(omod.getDigest()) == null) {
+    			log.debug("Not remembering the distro, since " + omod.getOriginalFilename() + " was not extracted");
+    			return;
+    		}
+    	}
+    	rememberDistro(name, includedOmods);
+    }
+
+    /**
+     * Adds any of omods that are new to the store and its index
+     * 
+     * @param omods inspected omods (those that were not extracted are ignored)
+     * @param store
+     */
+    private void storeOmods(List<UploadedModule> omods, OmodStore store) {
+    	for (UploadedModule omod : omods) {
+    		if (omod.getData() != null && store.get(omod.getDigest()) == null) {
+    			StoredOmod stored = new StoredOmod();
+    			stored.setDigest(omod.getDigest());
+    			stored.setModuleId(omod.getModuleId());
+    			stored.setVersion(omod.getModuleVersion());
+    			stored.setPackageName(omod.getPackageName());
+    			stored.setRequireVersion(omod.getRequireVersion());
+    			stored.setRequiredModules(omod.getRequiredModules());
+    			stored.setCrc(omod.getCrc());
+    			stored.setSize(omod.getData().length());
+    			stored.setOriginalFilename(omod.getOriginalFilename());
+    			stored.setDateCreated(new Date());
+    			try {
+    				store.put(omod.getData(), stored);
+    			}
+    			catch (IOException ex) {
+    				throw new RuntimeException("Cannot add " + omod.getOriginalFilename() + " to the omod store", ex);
+    			}
+    			dao.saveStoredOmod(stored);
+    		}
+    	}
+    }
+
+    /**
+     * Remembers a distro whose omods are all in the store, unless the same distro was stored before
      * 
+     * @param name
      * @param includedOmods
-     * @return
      */
-    private List<ModuleAction> determineActions(List<UploadedModule> includedOmods) {
-    	// using a LinkedList here because we'll treat this as a queue and remove elements from the head
-	    List<ModuleAction> ret = new LinkedList<ModuleAction>();
-	    
-	    for (UploadedModule candidate : includedOmods) {
-	    	log.debug("Looking at " + candidate);
-			if (Action.SKIP.equals(candidate.getAction())) {
-				ret.add(new ModuleAction(Action.SKIP, candidate));
-			}
-			else if (Action.START.equals(candidate.getAction())) {
-				ret.add(new ModuleAction(Action.START, candidate.getExisting()));
-				// TODO see if we need to start any dependent modules
-			}
-			else if (Action.INSTALL.equals(candidate.getAction())) {
-				ret.add(new ModuleAction(Action.INSTALL, candidate));
-			}
-			else if (Action.UPGRADE.equals(candidate.getAction())) {
-				ret.add(new ModuleAction(Action.STOP, candidate.getExisting()));
-				ret.add(new ModuleAction(Action.REMOVE, candidate.getExisting()));
-				ret.add(new ModuleAction(Action.INSTALL, candidate));
-			}
-			else {
-				throw new RuntimeException("Programming error: don't know how to handle action " + candidate.getAction() + " on " + candidate);
-			}
-		}
-	    
-	    return ret;
+    private void rememberDistro(String name, List<UploadedModule> includedOmods) {
+    	List<StoredDistro.Entry> entries = new ArrayList<StoredDistro.Entry>();
+    	for (UploadedModule omod : includedOmods) {
+    		entries.add(new StoredDistro.Entry(omod.getDigest(), omod.getOriginalFilename()));
+    	}
+    	StoredDistro distro = new StoredDistro();
+    	distro.setOmods(entries);
+    	distro.setDigest(Digests.sha256(distro.getOmodsText()));
+    	if (dao.getStoredDistro(distro.getDigest()) == null) {
+    		distro.setName(name);
+    		distro.setDateCreated(new Date());
+    		dao.saveStoredDistro(distro);
+    	}
+    }
+
+    /**
+     * Builds inspected candidates for a stored distro, straight from the omod store. Since this is how a deployment is
+     * rolled back, versions older than the installed ones are installed too.
+     * 
+     * @param distroDigest
+     * @return the omods in the distro
+     */
+    private List<UploadedModule> loadStoredDistro(String distroDigest) {
+    	StoredDistro distro = dao.getStoredDistro(distroDigest);
+    	if (distro == null)
+    		throw new RuntimeException("There is no stored distro " + distroDigest);
+    	OmodStore store = newOmodStore();
+    	List<UploadedModule> ret = new ArrayList<UploadedModule>();
+    	for (StoredDistro.Entry entry : distro.getOmods()) {
+    		OmodMetadata metadata = store.getMetadata(entry.getDigest());
+    		if (metadata == null)
+    			throw new RuntimeException(entry.getFilename() + " from distro " + distroDigest + " is no longer in the omod store");
+    		UploadedModule candidate = new UploadedModule(entry.getFilename(), store.getFile(entry.getDigest()));
+    		candidate.setDigest(entry.getDigest());
+    		try {
+    			populateFields(candidate, metadata);
+    		}
+    		catch (IOException ex) {
+    			throw new RuntimeException("Error inspecting " + entry.getFilename(), ex);
+    		}
+    		allowDowngrade(candidate);
+    		ret.add(candidate);
+    	}
+    	return ret;
+    }
+
+    /**
+     * @param candidate that is being skipped or started because a newer version is installed, installs it anyway
+     */
+    private void allowDowngrade(UploadedModule candidate) {
+    	Module existing = candidate.getExisting();
+    	if (existing != null && (Action.SKIP.equals(candidate.getAction()) || Action.START.equals(candidate.getAction()))
+    	        && ModuleUtil.compareVersion(candidate.getModuleVersion(), existing.getVersion()) < 0) {
+    		candidate.setAction(Action.UPGRADE);
+    		candidate.setSkipReason(null);
+    	}
+    }
+
+    private StagingArea newStagingArea() {
+    	long quotaBytes = 0;
+    	String gp = Context.getAdministrationService().getGlobalProperty(ModuleDistroConstants.GP_STAGING_QUOTA_MB);
+    	if (StringUtils.hasText(gp)) {
+    		try {
+    			quotaBytes = Long.parseLong(gp.trim()) * 1024 * 1024;
+    		}
+    		catch (NumberFormatException ex) {
+    			log.warn("Ignoring invalid value for " + ModuleDistroConstants.GP_STAGING_QUOTA_MB + ": " + gp);
+    		}
+    	}
+    	try {
+    		return StagingArea.create(quotaBytes);
+    	}
+    	catch (IOException ex) {
+    		throw new RuntimeException("Cannot create a staging area for the distro", ex);
+    	}
+    }
+
+    /**
+     * Determines and applies the actions needed to install includedOmods
+     * 
+     * @param includedOmods inspected omods, whose files are in staging
+     * @param staging
+     * @param servletContext
+     * @param result actions are recorded in this as they are taken
+     * @return result
+     */
+    private DeploymentResult applyDistro(List<UploadedModule> includedOmods, StagingArea staging,
+                                         ServletContext servletContext, DeploymentResult result) {
+    	return applyDistro(includedOmods, staging, servletContext, result, false);
+    }
+
+    /**
+     * Determines and applies the actions needed to install includedOmods, holding the deployment lock, so that only
+     * one distro is applied at a time, whether in a deployment job or not
+     * 
+     * @param includedOmods inspected omods, whose files are in staging
+     * @param staging
+     * @param servletContext
+     * @param result actions are recorded in this as they are taken
+     * @param downgrade whether to install versions older than the installed ones
+     * @return result
+     */
+    private DeploymentResult applyDistro(List<UploadedModule> includedOmods, StagingArea staging,
+                                         ServletContext servletContext, DeploymentResult result, boolean downgrade) {
+    	return applyDistro(includedOmods, staging, servletContext, result, downgrade, null);
+    }
+
+    /**
+     * Like {@link #applyDistro(List, StagingArea, ServletContext, DeploymentResult, boolean)}, but can also remove the
+     * loaded modules that are not in the distro
+     * 
+     * @param includedOmods inspected omods, whose files are in staging
+     * @param staging
+     * @param servletContext
+     * @param result actions are recorded in this as they are taken
+     * @param downgrade whether to install versions older than the installed ones
+     * @param keepOnly if not null, loaded modules whose ids are not in this are removed
+     * @return result
+     */
+    private DeploymentResult applyDistro(List<UploadedModule> includedOmods, StagingArea staging,
+                                         ServletContext servletContext, DeploymentResult result, boolean downgrade,
+                                         Set<String> keepOnly) {
+    	Lock lock = DeploymentJobs.getDeploymentLock();
+    	if (!lock.tryLock()) {
+    		result.log("Waiting for another deployment to finish");
+    		lock.lock();
+    	}
+    	try {
+    		long planStart = System.currentTimeMillis();
+    		// deployments that finished while this one waited may have changed what is installed
+    		for (UploadedModule candidate : includedOmods) {
+    			if (isStale(candidate)) {
+    				resolveAgain(candidate);
+    				if (downgrade)
+    					allowDowngrade(candidate);
+    			}
+    		}
+    		result.addPhaseTime(DeploymentResult.PHASE_PLAN, System.currentTimeMillis() - planStart);
+    		if (keepOnly == null && isNothingToDo(includedOmods)) {
+    			// the usual case when a deploy script uploads the same distro again
+    			for (UploadedModule candidate : includedOmods) {
+    				result.log(candidate.getOriginalFilename() + ": skipped because " + candidate.getSkipReason());
+    				String oldVersion = candidate.getExisting() == null ? null : candidate.getExisting().getVersion();
+    				result.addAction(new ActionRecord(Action.SKIP.name(), candidate.getModuleId(), oldVersion,
+    				        candidate.getModuleVersion(), 0, 0));
+    			}
+    			result.log("Nothing to deploy: every module in the distro is already installed and started");
+    			return result;
+    		}
+    		DeploymentPlanner planner = newPlanner();
+    		if (keepOnly != null) {
+    			List<Module> toRemove = new ArrayList<Module>();
+    			for (Module loaded : ModuleFactory.getLoadedModules()) {
+    				if (!keepOnly.contains(loaded.getModuleId()))
+    					toRemove.add(loaded);
+    			}
+    			planner.setToRemove(toRemove);
+    		}
+    		List<ModuleAction> actions = new DeploymentPreflight(getWorkerThreads(), result).check(includedOmods, planner);
+    		DeploymentExecutor executor = newExecutor(staging, servletContext, result);
+    		executor.setTakeSnapshot(true);
+    		return executor.execute(actions);
+    	}
+    	finally {
+    		lock.unlock();
+    	}
+    }
+
+    private DeploymentExecutor newExecutor(StagingArea staging, ServletContext servletContext, DeploymentResult result) {
+    	boolean batchContextRefresh = getBooleanGlobalProperty(ModuleDistroConstants.GP_BATCH_CONTEXT_REFRESH, true);
+    	DeploymentExecutor executor = new DeploymentExecutor(staging, servletContext, batchContextRefresh, result);
+    	if (getBooleanGlobalProperty(ModuleDistroConstants.GP_PARALLEL_STARTUP, false))
+    		executor.setStartupThreads(getWorkerThreads());
+    	executor.setDao(dao);
+    	return executor;
+    }
+
+    /**
+     * @see org.openmrs.module.moduledistro.api.ModuleDistroService#resumeInterruptedDeployments(javax.servlet.ServletContext)
+     */
+    @Override
+    public DeploymentJob resumeInterruptedDeployments(final ServletContext servletContext) {
+    	final List<DeploymentJournal> interrupted = new ArrayList<DeploymentJournal>();
+    	for (DeploymentJournal journal : dao.getUnfinishedDeploymentJournals()) {
+    		// a deployment in this JVM is still running, e.g. the one that is upgrading this module
+    		if (!StagingArea.getJvmIdentity().equals(journal.getJvm()))
+    			interrupted.add(journal);
+    	}
+    	if (interrupted.isEmpty())
+    		return null;
+    	return DeploymentJobs.submit(new DeploymentResult(), new DeploymentJobs.JobWork() {
+    		@Override
+    		public void run(DeploymentJob job) {
+    			Lock lock = DeploymentJobs.getDeploymentLock();
+    			lock.lock();
+    			try {
+    				for (DeploymentJournal journal : interrupted) {
+    					resume(journal, servletContext, job.getResult());
+    				}
+    			}
+    			finally {
+    				lock.unlock();
+    			}
+    		}
+    	});
+    }
+
+    /**
+     * @see org.openmrs.module.moduledistro.api.ModuleDistroService#saveDeploymentJournal(org.openmrs.module.moduledistro.DeploymentJournal)
+     */
+    @Override
+    public void saveDeploymentJournal(DeploymentJournal journal) {
+    	dao.saveDeploymentJournal(journal);
+    }
+
+    /**
+     * Takes the actions of an interrupted deployment that were not completed, and marks its journal finished
+     */
+    private void resume(DeploymentJournal journal, ServletContext servletContext, DeploymentResult result) {
+    	result.log("Resuming the deployment started at " + journal.getDateStarted() + ", which was interrupted after "
+    	        + journal.getCompletedActions() + " of " + journal.getActions().size() + " actions");
+    	File pendingFolder = journal.getPendingFolder() == null ? null : new File(journal.getPendingFolder());
+    	try {
+    		List<ModuleAction> actions;
+    		try {
+    			actions = getActionsToResume(journal);
+    		}
+    		finally {
+    			// whether or not it can be resumed, it is not tried again at the next startup
+    			journal.setError("Interrupted, and resumed at the next startup");
+    			journal.setDateFinished(new Date());
+    			dao.saveDeploymentJournal(journal);
+    		}
+    		if (actions.isEmpty()) {
+    			result.log("Nothing was left to do");
+    			return;
+    		}
+    		DeploymentExecutor executor = newExecutor(null, servletContext, result);
+    		executor.resumeIn(pendingFolder);
+    		executor.execute(actions);
+    	}
+    	finally {
+    		if (pendingFolder != null)
+    			FileUtils.deleteQuietly(pendingFolder);
+    	}
+    }
+
+    /**
+     * Turns the actions of an interrupted deployment that were not known to be completed back into actions, leaving out
+     * those that turn out to have been completed after all, against the modules that are loaded now
+     * <p>
+     * public for testing
+     * 
+     * @param journal
+     * @return the actions still to take
+     * @throws RuntimeException if an omod still to be installed is missing from the journal's pending folder
+     * 
+     * @should leave out the actions that were completed
+     * @should install omods from the pending folder
+     */
+    public List<ModuleAction> getActionsToResume(DeploymentJournal journal) {
+    	List<DeploymentJournal.Entry> entries = journal.getActions();
+    	List<ModuleAction> ret = new ArrayList<ModuleAction>();
+    	Map<String, UploadedModule> installing = new HashMap<String, UploadedModule>();
+    	for (DeploymentJournal.Entry entry : entries.subList(Math.min(journal.getCompletedActions(), entries.size()), entries.size())) {
+    		Module loaded = ModuleFactory.getModuleById(entry.getModuleId());
+    		Action action = Action.valueOf(entry.getAction());
+    		if (Action.STOP.equals(action)) {
+    			if (loaded != null && loaded.isStarted())
+    				ret.add(new ModuleAction(Action.STOP, loaded));
+    		} else if (Action.REMOVE.equals(action)) {
+    			if (loaded != null && loaded.getVersion().equals(entry.getVersion()))
+    				ret.add(new ModuleAction(Action.REMOVE, loaded));
+    		} else if (Action.INSTALL.equals(action)) {
+    			// it may have been moved into the repository, and loaded at startup, just before the crash
+    			if (loaded != null && loaded.getVersion().equals(entry.getVersion()))
+    				continue;
+    			File omod = journal.getPendingFolder() == null ? null : new File(journal.getPendingFolder(), entry.getFilename());
+    			if (omod == null || !omod.isFile())
+    				throw new RuntimeException("Cannot resume the interrupted deployment, because " + entry.getFilename()
+    				        + " is no longer in " + journal.getPendingFolder());
+    			UploadedModule candidate = new UploadedModule(entry.getFilename(), omod);
+    			candidate.setModuleId(entry.getModuleId());
+    			candidate.setModuleVersion(entry.getVersion());
+    			candidate.setAction(Action.INSTALL);
+    			ret.add(new ModuleAction(Action.INSTALL, candidate));
+    			installing.put(entry.getModuleId(), candidate);
+    		} else if (Action.START.equals(action)) {
+    			if (installing.containsKey(entry.getModuleId())) {
+    				ret.add(new ModuleAction(Action.START, installing.get(entry.getModuleId())));
+    			} else if (loaded != null && !loaded.isStarted()) {
+    				ret.add(new ModuleAction(Action.START, loaded));
+    			}
+    		}
+    	}
+    	return ret;
+    }
+
+    /**
+     * @param candidate an inspected omod
+     * @return whether the installed version of its module has been replaced, started or stopped since it was inspected
+     */
+    private boolean isStale(UploadedModule candidate) {
+    	Module current = ModuleFactory.getModuleById(candidate.getModuleId());
+    	if (current != candidate.getExisting())
+    		return true;
+    	if (current == null)
+    		return false;
+    	if (Action.START.equals(candidate.getAction()))
+    		return current.isStarted();
+    	return Action.SKIP.equals(candidate.getAction()) && !current.isStarted();
+    }
+
+    /**
+     * Decides what to do with an inspected omod again, against the modules that are loaded now
+     * 
+     * @param candidate
+     * @throws RuntimeException if the omod now has to be installed, but was not extracted
+     */
+    private void resolveAgain(UploadedModule candidate) {
+    	OmodMetadata metadata = new OmodMetadata();
+    	metadata.setModuleId(candidate.getModuleId());
+    	metadata.setVersion(candidate.getModuleVersion());
+    	metadata.setPackageName(candidate.getPackageName());
+    	metadata.setRequireVersion(candidate.getRequireVersion());
+    	metadata.setRequiredModules(candidate.getRequiredModules());
+    	candidate.setExisting(null);
+    	candidate.setSkipReason(null);
+    	try {
+    		populateFields(candidate, metadata);
+    	}
+    	catch (IOException ex) {
+    		throw new RuntimeException("Error inspecting " + candidate.getOriginalFilename(), ex);
+    	}
+    	if (candidate.getData() == null && (Action.INSTALL.equals(candidate.getAction()) || Action.UPGRADE.equals(candidate.getAction())))
+    		throw new RuntimeException(candidate.getOriginalFilename() + " was not extracted, because it was already installed, "
+    		        + "but another deployment has changed that since. Please deploy the distro again.");
+    }
+
+    /**
+     * Applies one or more inspected distros in a deployment job. While the job is queued, distros submitted after it
+     * are merged into it, so that a burst of submissions is deployed with one stop/start cycle.
+     */
+    private class DistroWork implements DeploymentJobs.MergeableWork {
+    	
+    	private List<List<UploadedModule>> distros = new ArrayList<List<UploadedModule>>();
+    	
+    	private List<StagingArea> stagingAreas = new ArrayList<StagingArea>();
+    	
+    	private ServletContext servletContext;
+    	
+    	DistroWork(StagingArea staging, ServletContext servletContext) {
+    		this.stagingAreas.add(staging);
+    		this.servletContext = servletContext;
+    	}
+    	
+    	DistroWork(List<UploadedModule> includedOmods, StagingArea staging, ServletContext servletContext) {
+    		this(staging, servletContext);
+    		distros.add(includedOmods);
+    	}
+    	
+    	@Override
+    	public boolean merge(DeploymentJobs.MergeableWork later) {
+    		if (!(later instanceof DistroWork))
+    			return false;
+    		DistroWork other = (DistroWork) later;
+    		distros.addAll(other.distros);
+    		stagingAreas.addAll(other.stagingAreas);
+    		if (servletContext == null)
+    			servletContext = other.servletContext;
+    		return true;
+    	}
+    	
+    	@Override
+    	public void run(DeploymentJob job) {
+    		try {
+    			List<UploadedModule> includedOmods = distros.size() == 1 ? distros.get(0) : mergeDistros(distros, job.getResult());
+    			// omods staged in the other staging areas are copied (or linked) rather than renamed into place
+    			applyDistro(includedOmods, stagingAreas.get(0), servletContext, job.getResult());
+    		}
+    		finally {
+    			for (StagingArea staging : stagingAreas) {
+    				staging.destroy();
+    			}
+    		}
+    	}
+    }
+
+    /**
+     * public for testing
+     * 
+     * @param includedOmods inspected omods, with their actions populated
+     * @return whether every omod is skipped, so that applying them would leave every module as it is
+     * 
+     * @should return true if every omod is skipped
+     * @should return false if an omod is to be started
+     */
+    public boolean isNothingToDo(List<UploadedModule> includedOmods) {
+    	for (UploadedModule candidate : includedOmods) {
+    		if (!Action.SKIP.equals(candidate.getAction()))
+    			return false;
+    	}
+    	return true;
+    }
+
+    /**
+     * public for testing
+     * 
+     * @param actions planned actions, in order
+     * @return the plan, describing each action by its module id and version
+     * 
+     * @should describe each action by the version it applies to
+     */
+    public static DeploymentPlan toDeploymentPlan(List<ModuleAction> actions) {
+    	List<DeploymentPlan.PlannedAction> planned = new ArrayList<DeploymentPlan.PlannedAction>();
+    	for (ModuleAction action : actions) {
+    		String moduleId;
+    		String version;
+    		if (action.getTarget() instanceof Module) {
+    			moduleId = ((Module) action.getTarget()).getModuleId();
+    			version = ((Module) action.getTarget()).getVersion();
+    		} else {
+    			moduleId = ((UploadedModule) action.getTarget()).getModuleId();
+    			version = ((UploadedModule) action.getTarget()).getModuleVersion();
+    		}
+    		planned.add(new DeploymentPlan.PlannedAction(action.getAction().name(), moduleId, version));
+    	}
+    	return new DeploymentPlan(planned);
+    }
+
+    /**
+     * @return a planner for deploying onto the modules that are loaded now
+     */
+    private DeploymentPlanner newPlanner() {
+    	return new DeploymentPlanner(ModuleFactory.getLoadedModules(), ModuleFactory.getStartedModules());
     }
 
 	/**
@@ -306,33 +1037,23 @@ public class ModuleDistroServiceImpl extends BaseOpenmrsService implements Modul
 	 * @should read the id and version from config.xml 
      */
     public void populateFields(UploadedModule candidate) throws IOException {
-	    JarFile jar = new JarFile(candidate.getData());
-	    ZipEntry entry = jar.getEntry("config.xml");
-	    if (entry == null) {
-	    	throw new IOException("Cannot find config.xml");
-	    }
-	    StringWriter sw = new StringWriter();
-	    IOUtils.copy(jar.getInputStream(entry), sw);
-	    String configXml = sw.toString();
-	    
-	    String moduleId = null;
-	    {
-	    	Matcher matcher = Pattern.compile("<id>(.+?)</id>").matcher(configXml);
-	    	if (!matcher.find())
-	    		throw new IOException("Cannot find <id>...</id> in config.xml");
-	    	moduleId = matcher.group(1).trim();
-	    }
-	    
-	    String moduleVersion = null;
-	    {
-	    	Matcher matcher = Pattern.compile("<version>(.+?)</version>").matcher(configXml);
-	    	if (!matcher.find())
-	    		throw new IOException("Cannot find <version>...</version> in config.xml");
-	    	moduleVersion = matcher.group(1).trim();
-	    }
+    	populateFields(candidate, metadataReader.readOmod(candidate.getData()));
+    }
 
-	    candidate.setModuleId(moduleId);
-	    candidate.setModuleVersion(moduleVersion);
+	/**
+     * Like {@link #populateFields(UploadedModule)}, but with metadata that has already been read, e.g. from the
+     * {@link OmodStore}
+     * 
+     * @param candidate
+     * @param metadata
+     * @throws IOException
+     */
+    void populateFields(UploadedModule candidate, OmodMetadata metadata) throws IOException {
+	    candidate.setModuleId(metadata.getModuleId());
+	    candidate.setModuleVersion(metadata.getVersion());
+	    candidate.setPackageName(metadata.getPackageName());
+	    candidate.setRequireVersion(metadata.getRequireVersion());
+	    candidate.setRequiredModules(metadata.getRequiredModules());
 	    
     	Module existing = ModuleFactory.getModuleById(candidate.getModuleId());
 	    if (existing == null) {
@@ -343,7 +1064,12 @@ public class ModuleDistroServiceImpl extends BaseOpenmrsService implements Modul
 	    	candidate.setExisting(existing);
 	    
 	    	if (shouldInstallNewVersion(candidate.getModuleVersion(), existing.getVersion())) {
-	    		candidate.setAction(Action.UPGRADE);
+	    		if (isIdenticalToInstalled(candidate, existing)) {
+	    			candidate.setAction(Action.SKIP);
+	    			candidate.setSkipReason("it is byte-identical to the installed version (" + existing.getVersion() + ")");
+	    		} else {
+	    			candidate.setAction(Action.UPGRADE);
+	    		}
 	    	} else {
 	    		candidate.setAction(Action.SKIP);
 	    		candidate.setSkipReason("an equivalent or newer version is already installed: (" + existing.getVersion() + ")");
@@ -388,17 +1114,32 @@ public class ModuleDistroServiceImpl extends BaseOpenmrsService implements Modul
     }
 
 	/**
-     * @param name
-     * @return if name has any slashes, return what's after them
+     * A SNAPSHOT version is always reinstalled over the same version, since it may have changed. This lets us skip the
+     * ones that have not changed, which is most of them when the same distro is uploaded again.
+     * <p>
+     * public for testing
+     * 
+     * @param candidate an inspected omod, with its digest
+     * @param existing the installed version of the same module
+     * @return whether candidate has the same version as existing, and its file has exactly the same contents
+     * @throws IOException
+     * 
+     * @should return true if the installed file has the same contents
+     * @should return false if the installed file has different contents
+     * @should return false if the versions differ
      */
-    private String simpleFilename(String name) {
-	    if (name.indexOf('/') >= 0)
-	    	name = name.substring(name.indexOf('/') + 1);
-	    if (name.indexOf('\\') >= 0)
-	    	name = name.substring(name.indexOf('\\') + 1);
-	    return name;
+    public boolean isIdenticalToInstalled(UploadedModule candidate, Module existing) throws IOException {
+    	File installed = existing.getFile();
+    	if (candidate.getDigest() == null || installed == null || !installed.isFile())
+    		return false;
+    	if (!candidate.getModuleVersion().equals(existing.getVersion()))
+    		return false;
+    	// cheap check first, so we only read the installed file when it may be identical
+    	if (candidate.getData() != null && candidate.getData().length() != installed.length())
+    		return false;
+    	return candidate.getDigest().equals(Digests.sha256(installed));
     }
-    
+
     /**
      * The order here is important
      */
@@ -411,7 +1152,7 @@ public class ModuleDistroServiceImpl extends BaseOpenmrsService implements Modul
     	UPGRADE
     }
     
-    public class ModuleAction {
+    public static class ModuleAction {
     	private Action action;
     	private Object target;
 
@@ -470,8 +1211,13 @@ public class ModuleDistroServiceImpl extends BaseOpenmrsService implements Modul
     public class UploadedModule {
     	private String originalFilename;
     	private File data;
+    	private String digest;
+    	private long crc = -1;
     	private String moduleId;
     	private String moduleVersion;
+    	private String packageName;
+    	private String requireVersion;
+    	private Map<String, String> requiredModules = new LinkedHashMap<String, String>();
     	private Module existing;
     	private Action action;
     	private String skipReason;
@@ -490,7 +1236,8 @@ public class ModuleDistroServiceImpl extends BaseOpenmrsService implements Modul
          */
         public String toString() {
         	StringBuilder sb = new StringBuilder();
-        	sb.append(originalFilename + " (" + data.getAbsolutePath() + ") -> " + moduleId + " v" + moduleVersion + " ");
+        	sb.append(originalFilename + " (" + (data == null ? "not extracted" : data.getAbsolutePath()) + ") -> " + moduleId
+        	        + " v" + moduleVersion + " ");
         	if (existing != null)
         		sb.append("already loaded with v" + existing.getVersion() + " ");
         	sb.append("action=" + action);
@@ -527,6 +1274,34 @@ public class ModuleDistroServiceImpl extends BaseOpenmrsService implements Modul
         	this.data = data;
         }
 		
+        /**
+         * @return the SHA-256 digest of data, in hex
+         */
+        public String getDigest() {
+        	return digest;
+        }
+		
+        /**
+         * @param digest the digest to set
+         */
+        public void setDigest(String digest) {
+        	this.digest = digest;
+        }
+		
+        /**
+         * @return the CRC-32 of data, or -1 if unknown
+         */
+        public long getCrc() {
+        	return crc;
+        }
+		
+        /**
+         * @param crc the crc to set
+         */
+        public void setCrc(long crc) {
+        	this.crc = crc;
+        }
+		
         /**
          * @return the moduleId
          */
@@ -555,6 +1330,48 @@ public class ModuleDistroServiceImpl extends BaseOpenmrsService implements Modul
         	this.moduleVersion = moduleVersion;
         }
 		
+        /**
+         * @return the packageName
+         */
+        public String getPackageName() {
+        	return packageName;
+        }
+		
+        /**
+         * @param packageName the packageName to set
+         */
+        public void setPackageName(String packageName) {
+        	this.packageName = packageName;
+        }
+		
+        /**
+         * @return the OpenMRS version this module requires
+         */
+        public String getRequireVersion() {
+        	return requireVersion;
+        }
+		
+        /**
+         * @param requireVersion the requireVersion to set
+         */
+        public void setRequireVersion(String requireVersion) {
+        	this.requireVersion = requireVersion;
+        }
+		
+        /**
+         * @return the package names of the modules this requires, mapped to their minimum versions (which may be null)
+         */
+        public Map<String, String> getRequiredModules() {
+        	return requiredModules;
+        }
+		
+        /**
+         * @param requiredModules the requiredModules to set
+         */
+        public void setRequiredModules(Map<String, String> requiredModules) {
+        	this.requiredModules = requiredModules;
+        }
+		
         /**
          * @return the skipReason
          */
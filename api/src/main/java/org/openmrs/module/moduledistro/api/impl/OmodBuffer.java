@@ -0,0 +1,121 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.moduledistro.api.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.Semaphore;
+
+/**
+ * An omod held in memory while it is inspected. It is kept as fixed-size chunks, so it is never copied, either as it
+ * grows or when it is read back. Each chunk is paid for from a budget of bytes, shared by every buffer of a distro,
+ * before it is read, and the whole buffer is paid back by {@link #release()}, so the omods held in memory at once
+ * never take up more than the budget.
+ */
+public class OmodBuffer {
+	
+	public static final int CHUNK_SIZE = 64 * 1024;
+	
+	private final Semaphore budget;
+	
+	private final List<byte[]> chunks = new ArrayList<byte[]>();
+	
+	private int size = 0;
+	
+	/**
+	 * @param budget permits are bytes; one chunk's worth is acquired, waiting if need be, before each chunk is read
+	 */
+	public OmodBuffer(Semaphore budget) {
+		this.budget = budget;
+	}
+	
+	/**
+	 * Reads in until it ends, or until more than max bytes have been read
+	 * 
+	 * @param in
+	 * @param max
+	 * @return true if all of in was read, or false if it has more than max bytes, in which case what was read is
+	 *         still buffered, and the rest can be read from in
+	 * @throws IOException
+	 * 
+	 * @should read back exactly what was read
+	 * @should stop once more than max bytes have been read
+	 */
+	public boolean readUpTo(InputStream in, int max) throws IOException {
+		while (size <= max) {
+			try {
+				budget.acquire(CHUNK_SIZE);
+			}
+			catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while waiting for memory to buffer an omod in", ex);
+			}
+			byte[] chunk = new byte[CHUNK_SIZE];
+			chunks.add(chunk);
+			int filled = 0;
+			while (filled < CHUNK_SIZE) {
+				int n = in.read(chunk, filled, CHUNK_SIZE - filled);
+				if (n < 0)
+					break;
+				filled += n;
+			}
+			size += filled;
+			if (filled < CHUNK_SIZE) {
+				if (filled == 0) {
+					chunks.remove(chunks.size() - 1);
+					budget.release(CHUNK_SIZE);
+				}
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * @return how many bytes have been read
+	 */
+	public int getSize() {
+		return size;
+	}
+	
+	/**
+	 * @return a stream of the bytes read, which may be called for more than once
+	 */
+	public InputStream getInputStream() {
+		Vector<InputStream> streams = new Vector<InputStream>();
+		int left = size;
+		for (byte[] chunk : chunks) {
+			streams.add(new ByteArrayInputStream(chunk, 0, Math.min(left, CHUNK_SIZE)));
+			left -= CHUNK_SIZE;
+		}
+		return new SequenceInputStream(streams.elements());
+	}
+	
+	/**
+	 * Discards the bytes read, and pays them back to the budget
+	 * 
+	 * @should pay back the budget
+	 */
+	public synchronized void release() {
+		budget.release(chunks.size() * CHUNK_SIZE);
+		chunks.clear();
+		size = 0;
+	}
+	
+}
@@ -0,0 +1,130 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.moduledistro.api.impl;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The fields of an omod's config.xml that are needed to plan a distro deployment
+ * 
+ * @see OmodMetadataReader
+ */
+public class OmodMetadata {
+	
+	private String moduleId;
+	
+	private String version;
+	
+	private String packageName;
+	
+	private String requireVersion;
+	
+	private String activatorName;
+	
+	private Map<String, String> requiredModules = new LinkedHashMap<String, String>();
+	
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return moduleId + " v" + version + " (" + packageName + ") requires " + requiredModules;
+	}
+	
+	/**
+	 * @return the moduleId
+	 */
+	public String getModuleId() {
+		return moduleId;
+	}
+	
+	/**
+	 * @param moduleId the moduleId to set
+	 */
+	public void setModuleId(String moduleId) {
+		this.moduleId = moduleId;
+	}
+	
+	/**
+	 * @return the version
+	 */
+	public String getVersion() {
+		return version;
+	}
+	
+	/**
+	 * @param version the version to set
+	 */
+	public void setVersion(String version) {
+		this.version = version;
+	}
+	
+	/**
+	 * @return the packageName
+	 */
+	public String getPackageName() {
+		return packageName;
+	}
+	
+	/**
+	 * @param packageName the packageName to set
+	 */
+	public void setPackageName(String packageName) {
+		this.packageName = packageName;
+	}
+	
+	/**
+	 * @return the required OpenMRS version, from require_version
+	 */
+	public String getRequireVersion() {
+		return requireVersion;
+	}
+	
+	/**
+	 * @param requireVersion the requireVersion to set
+	 */
+	public void setRequireVersion(String requireVersion) {
+		this.requireVersion = requireVersion;
+	}
+	
+	/**
+	 * @return the fully qualified name of the module's activator class, which may be null
+	 */
+	public String getActivatorName() {
+		return activatorName;
+	}
+	
+	/**
+	 * @param activatorName the activatorName to set
+	 */
+	public void setActivatorName(String activatorName) {
+		this.activatorName = activatorName;
+	}
+	
+	/**
+	 * @return the package names of the required modules, mapped to the minimum version of each (which may be null)
+	 */
+	public Map<String, String> getRequiredModules() {
+		return requiredModules;
+	}
+	
+	/**
+	 * @param requiredModules the requiredModules to set
+	 */
+	public void setRequiredModules(Map<String, String> requiredModules) {
+		this.requiredModules = requiredModules;
+	}
+	
+}
@@ -0,0 +1,191 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.moduledistro.api.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.io.input.CloseShieldInputStream;
+
+/**
+ * Reads {@link OmodMetadata} from an omod's config.xml with a streaming (StAX) parser. Only the direct children of the
+ * root &lt;module&gt; element are considered, so e.g. a &lt;version&gt; nested elsewhere is never mistaken for the
+ * module's version, and parsing stops as soon as every field has been found.
+ */
+public class OmodMetadataReader {
+	
+	private static final XMLInputFactory factory = XMLInputFactory.newInstance();
+	
+	static {
+		// config.xml declares a DTD on resources.openmrs.org, which we must not try to fetch
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+	}
+	
+	/**
+	 * @param omod
+	 * @return the metadata from omod's config.xml
+	 * @throws IOException if the omod cannot be read, or its config.xml is missing or incomplete
+	 */
+	public OmodMetadata readOmod(File omod) throws IOException {
+		JarFile jar = new JarFile(omod);
+		try {
+			ZipEntry entry = jar.getEntry("config.xml");
+			if (entry == null) {
+				throw new IOException("Cannot find config.xml");
+			}
+			InputStream in = jar.getInputStream(entry);
+			try {
+				return read(in);
+			}
+			finally {
+				in.close();
+			}
+		}
+		finally {
+			jar.close();
+		}
+	}
+	
+	/**
+	 * Reads the metadata straight from an omod's contents, e.g. an entry in a distro zip, without writing the omod to a
+	 * file. Only the omod's entries up to its config.xml are read.
+	 * 
+	 * @param omod the contents of an omod (this is not closed)
+	 * @return the metadata from omod's config.xml
+	 * @throws IOException if the omod cannot be read, or its config.xml is missing or incomplete
+	 * 
+	 * @should read the metadata from the contents of an omod
+	 * @should fail if the omod has no config.xml
+	 */
+	public OmodMetadata readOmod(InputStream omod) throws IOException {
+		ZipInputStream zis = new ZipInputStream(omod);
+		for (ZipEntry entry = zis.getNextEntry(); entry != null; entry = zis.getNextEntry()) {
+			if ("config.xml".equals(entry.getName()))
+				return read(zis);
+		}
+		throw new IOException("Cannot find config.xml");
+	}
+	
+	/**
+	 * @param configXml the contents of a config.xml (this is not closed)
+	 * @return the metadata it contains
+	 * @throws IOException if configXml is not well-formed, or is missing the id or version
+	 * 
+	 * @should read id, version, package and require_version
+	 * @should read the activator
+	 * @should read required modules and their versions
+	 * @should ignore version elements that are not direct children of module
+	 */
+	public OmodMetadata read(InputStream configXml) throws IOException {
+		OmodMetadata ret = new OmodMetadata();
+		XMLStreamReader xml;
+		synchronized (factory) {
+			try {
+				// the parser closes its input at the end of the document, which may be an entry of a zip we are still reading
+				xml = factory.createXMLStreamReader(new CloseShieldInputStream(configXml));
+			}
+			catch (XMLStreamException ex) {
+				throw new IOException("Cannot parse config.xml", ex);
+			}
+		}
+		try {
+			boolean sawRequiredModules = false;
+			int depth = 0;
+			while (xml.hasNext() && !isComplete(ret, sawRequiredModules)) {
+				int event = xml.next();
+				if (event == XMLStreamConstants.END_ELEMENT) {
+					--depth;
+				} else if (event == XMLStreamConstants.START_ELEMENT) {
+					++depth;
+					if (depth != 2)
+						continue;
+					String name = xml.getLocalName();
+					if ("id".equals(name)) {
+						ret.setModuleId(xml.getElementText().trim());
+						--depth;
+					} else if ("version".equals(name)) {
+						ret.setVersion(xml.getElementText().trim());
+						--depth;
+					} else if ("package".equals(name)) {
+						ret.setPackageName(xml.getElementText().trim());
+						--depth;
+					} else if ("require_version".equals(name)) {
+						ret.setRequireVersion(xml.getElementText().trim());
+						--depth;
+					} else if ("activator".equals(name)) {
+						ret.setActivatorName(xml.getElementText().trim());
+						--depth;
+					} else if ("require_modules".equals(name)) {
+						readRequiredModules(xml, ret);
+						sawRequiredModules = true;
+						--depth;
+					}
+				}
+			}
+		}
+		catch (XMLStreamException ex) {
+			throw new IOException("Cannot parse config.xml", ex);
+		}
+		finally {
+			try {
+				xml.close();
+			}
+			catch (XMLStreamException ex) {}
+		}
+		
+		if (ret.getModuleId() == null || ret.getModuleId().length() == 0)
+			throw new IOException("Cannot find <id>...</id> in config.xml");
+		if (ret.getVersion() == null || ret.getVersion().length() == 0)
+			throw new IOException("Cannot find <version>...</version> in config.xml");
+		return ret;
+	}
+	
+	/**
+	 * Reads the &lt;require_module version="..."&gt;package&lt;/require_module&gt; children of the current element, leaving
+	 * the reader on its end tag
+	 */
+	private void readRequiredModules(XMLStreamReader xml, OmodMetadata into) throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0) {
+			int event = xml.next();
+			if (event == XMLStreamConstants.END_ELEMENT) {
+				--depth;
+			} else if (event == XMLStreamConstants.START_ELEMENT) {
+				if ("require_module".equals(xml.getLocalName())) {
+					String version = xml.getAttributeValue(null, "version");
+					into.getRequiredModules().put(xml.getElementText().trim(), version == null ? null : version.trim());
+				} else {
+					++depth;
+				}
+			}
+		}
+	}
+	
+	private boolean isComplete(OmodMetadata metadata, boolean sawRequiredModules) {
+		return metadata.getModuleId() != null && metadata.getVersion() != null && metadata.getPackageName() != null
+		        && metadata.getRequireVersion() != null && metadata.getActivatorName() != null && sawRequiredModules;
+	}
+	
+}
@@ -0,0 +1,156 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.moduledistro.api.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.openmrs.module.moduledistro.StoredOmod;
+import org.openmrs.util.OpenmrsUtil;
+
+/**
+ * A content-addressable store of every omod that has been uploaded, keyed by SHA-256 digest, together with an
+ * in-memory copy of its index (the parsed metadata of each omod, which is persisted through the DAO).
+ * <p>
+ * Omods in the store are never moved or modified. When one is installed, the module repository gets a hard link to it
+ * (or a copy).
+ */
+public class OmodStore {
+	
+	private File folder;
+	
+	private Map<String, StoredOmod> byDigest = new HashMap<String, StoredOmod>();
+	
+	private Map<String, String> digestByCrcAndSize = new HashMap<String, String>();
+	
+	/**
+	 * @param folder
+	 * @param index the stored omods, as read through the DAO
+	 */
+	public OmodStore(File folder, Collection<StoredOmod> index) {
+		this.folder = folder;
+		for (StoredOmod omod : index) {
+			addToIndex(omod);
+		}
+	}
+	
+	/**
+	 * @return the folder the store lives in, under the application data directory
+	 */
+	public static File getDefaultFolder() {
+		return new File(OpenmrsUtil.getApplicationDataDirectory(), "moduledistro" + File.separator + "store");
+	}
+	
+	/**
+	 * @param digest
+	 * @return the stored omod with this digest, or null if it is not in the index, or its file is missing
+	 */
+	public synchronized StoredOmod get(String digest) {
+		StoredOmod omod = byDigest.get(digest);
+		if (omod == null || !getFile(digest).isFile())
+			return null;
+		return omod;
+	}
+	
+	/**
+	 * A CRC-32 and size, as recorded in a zip's central directory, are only a hint, since different omods may share
+	 * them, so callers must check the digest of anything found this way.
+	 * 
+	 * @param crc
+	 * @param size
+	 * @return the digest of a stored omod with this CRC-32 and size, or null
+	 */
+	public synchronized String findByCrcAndSize(long crc, long size) {
+		if (crc < 0 || size < 0)
+			return null;
+		String digest = digestByCrcAndSize.get(crc + ":" + size);
+		return digest != null && get(digest) != null ? digest : null;
+	}
+	
+	/**
+	 * @param digest
+	 * @return where the omod with this digest is (or would be) stored
+	 */
+	public File getFile(String digest) {
+		return new File(folder, digest.substring(0, 2) + File.separator + digest + ".omod");
+	}
+	
+	/**
+	 * Adds an omod to the store, unless it is there already. The given file is left where it is.
+	 * 
+	 * @param file the omod
+	 * @param omod its metadata, including its digest
+	 * @return true if it was added, false if the store already had it
+	 * @throws IOException
+	 */
+	public boolean put(File file, StoredOmod omod) throws IOException {
+		File stored = getFile(omod.getDigest());
+		synchronized (this) {
+			if (get(omod.getDigest()) != null)
+				return false;
+		}
+		if (!stored.isFile()) {
+			FileUtils.forceMkdir(stored.getParentFile());
+			// link or copy under a temporary name first, so a partly-written file is never seen as stored
+			File temp = File.createTempFile(omod.getDigest(), ".tmp", stored.getParentFile());
+			if (!temp.delete())
+				throw new IOException("Cannot delete " + temp);
+			FileLinks.linkOrCopy(file, temp);
+			if (!temp.renameTo(stored) && !stored.isFile()) {
+				FileUtils.deleteQuietly(temp);
+				throw new IOException("Cannot move " + temp + " to " + stored);
+			}
+			FileUtils.deleteQuietly(temp);
+		}
+		synchronized (this) {
+			addToIndex(omod);
+		}
+		return true;
+	}
+	
+	/**
+	 * @param digest
+	 * @return the metadata of the stored omod, in the form an inspection would have produced it, or null
+	 */
+	public OmodMetadata getMetadata(String digest) {
+		StoredOmod omod = get(digest);
+		if (omod == null)
+			return null;
+		OmodMetadata metadata = new OmodMetadata();
+		metadata.setModuleId(omod.getModuleId());
+		metadata.setVersion(omod.getVersion());
+		metadata.setPackageName(omod.getPackageName());
+		metadata.setRequireVersion(omod.getRequireVersion());
+		metadata.setRequiredModules(omod.getRequiredModules());
+		return metadata;
+	}
+	
+	/**
+	 * @return the folder
+	 */
+	public File getFolder() {
+		return folder;
+	}
+	
+	private void addToIndex(StoredOmod omod) {
+		byDigest.put(omod.getDigest(), omod);
+		if (omod.getCrc() != null && omod.getSize() != null)
+			digestByCrcAndSize.put(omod.getCrc() + ":" + omod.getSize(), omod.getDigest());
+	}
+	
+}
@@ -0,0 +1,159 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.moduledistro.api.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.openmrs.module.Module;
+import org.openmrs.module.ModuleUtil;
+
+/**
+ * The omods that were loaded before the last deployment changed them, so the deployment can be rolled back. The omods
+ * are hard links to the files in the module repository where possible, so taking a snapshot costs next to nothing in
+ * time or disk, and copies otherwise. Only the most recent snapshot is kept.
+ */
+public class RepositorySnapshot {
+
+	/**
+	 * Folder under the module repository holding the snapshot
+	 */
+	public static final String SNAPSHOT_FOLDER = ".moduledistro-snapshot";
+
+	private static final String INDEX_FILE = "snapshot.txt";
+
+	private static File folder;
+
+	private RepositorySnapshot() {
+	}
+
+	/**
+	 * Replaces the snapshot with one of modules' files
+	 *
+	 * @param modules the loaded modules
+	 * @return how many omods were hard linked, rather than copied
+	 * @throws IOException
+	 *
+	 * @should replace the previous snapshot
+	 */
+	public static int take(Collection<Module> modules) throws IOException {
+		File folder = getFolder();
+		File part = new File(folder.getPath() + ".part");
+		FileUtils.deleteQuietly(part);
+		FileUtils.forceMkdir(part);
+		int linked = 0;
+		StringBuilder index = new StringBuilder();
+		for (Module module : modules) {
+			File omod = module.getFile();
+			if (omod == null || !omod.isFile())
+				continue;
+			if (FileLinks.linkOrCopy(omod, new File(part, omod.getName())))
+				++linked;
+			index.append(module.getModuleId()).append('\t').append(module.getVersion()).append('\t').append(omod.getName())
+			        .append('\n');
+		}
+		FileUtils.writeStringToFile(new File(part, INDEX_FILE), index.toString(), "UTF-8");
+
+		FileUtils.deleteQuietly(folder);
+		if (!part.renameTo(folder))
+			FileUtils.moveDirectory(part, folder);
+		return linked;
+	}
+
+	/**
+	 * @return the omods in the snapshot, or null if there is none
+	 * @throws IOException
+	 */
+	public static List<Entry> read() throws IOException {
+		File index = new File(getFolder(), INDEX_FILE);
+		if (!index.isFile())
+			return null;
+		List<Entry> ret = new ArrayList<Entry>();
+		for (String line : FileUtils.readFileToString(index, "UTF-8").split("\n")) {
+			String[] fields = line.split("\t");
+			if (fields.length == 3)
+				ret.add(new Entry(fields[0], fields[1], new File(getFolder(), fields[2])));
+		}
+		return ret;
+	}
+
+	/**
+	 * @return when the snapshot was taken, or null if there is none
+	 */
+	public static Date getDateTaken() {
+		File index = new File(getFolder(), INDEX_FILE);
+		return index.isFile() ? new Date(index.lastModified()) : null;
+	}
+
+	/**
+	 * @return the snapshot folder, which is under the module repository unless another one was configured
+	 */
+	public static synchronized File getFolder() {
+		if (folder == null)
+			return new File(ModuleUtil.getModuleRepository(), SNAPSHOT_FOLDER);
+		return folder;
+	}
+
+	/**
+	 * @param folder the snapshot folder to use (null for the default)
+	 */
+	public static synchronized void setFolder(File folder) {
+		RepositorySnapshot.folder = folder;
+	}
+
+	/**
+	 * One omod in the snapshot
+	 */
+	public static class Entry {
+
+		private String moduleId;
+
+		private String version;
+
+		private File file;
+
+		public Entry(String moduleId, String version, File file) {
+			this.moduleId = moduleId;
+			this.version = version;
+			this.file = file;
+		}
+
+		/**
+		 * @return the moduleId
+		 */
+		public String getModuleId() {
+			return moduleId;
+		}
+
+		/**
+		 * @return the version
+		 */
+		public String getVersion() {
+			return version;
+		}
+
+		/**
+		 * @return the omod, in the snapshot folder
+		 */
+		public File getFile() {
+			return file;
+		}
+	}
+
+}
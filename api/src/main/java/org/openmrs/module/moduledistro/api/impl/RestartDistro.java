@@ -0,0 +1,422 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.moduledistro.api.impl;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.module.Module;
+import org.openmrs.module.ModuleFactory;
+import org.openmrs.module.ModuleUtil;
+import org.openmrs.module.moduledistro.DeploymentJob;
+import org.openmrs.module.moduledistro.DeploymentResult;
+import org.openmrs.module.moduledistro.DeploymentResult.ActionRecord;
+import org.openmrs.module.moduledistro.api.impl.ModuleDistroServiceImpl.Action;
+import org.openmrs.module.moduledistro.api.impl.ModuleDistroServiceImpl.ModuleAction;
+import org.openmrs.module.moduledistro.api.impl.ModuleDistroServiceImpl.UploadedModule;
+import org.openmrs.util.OpenmrsUtil;
+
+/**
+ * A distro that is applied across a restart, rather than to the running server. It is a zip in the restart folder,
+ * put there by {@link #stage(InputStream)} or by provisioning tooling.
+ * <p>
+ * Core loads every omod in the module repository before any module's activator runs, so no module can change the
+ * repository in time for the startup that is underway. Instead, when this module stops at shutdown, the pending
+ * distro is inspected and planned as usual, and its omods are laid down in the repository (replacing the omods of the
+ * modules they upgrade) without stopping, unloading, loading or starting anything. The next startup then loads and
+ * starts the new versions directly, so it costs no more than a normal restart. What was done is written to a result
+ * file in the usual action log format, which is reported as a finished {@link DeploymentJob} once the server is up.
+ * <p>
+ * Only the newest zip in the restart folder is applied; older ones are superseded, and deleted with it.
+ * <p>
+ * The omods are only laid down when the server is shutting down, never when this module alone is stopped, since the
+ * modules they replace are still running then. A zip that is still pending when this module starts, e.g. because it
+ * was copied into the restart folder while the server was down, or the server was killed rather than shut down, can
+ * no longer be applied across a restart, so it is deployed to the running server instead.
+ */
+public class RestartDistro {
+
+	private static final Log log = LogFactory.getLog(RestartDistro.class);
+
+	/**
+	 * The result of the last distro laid down, waiting to be reported
+	 */
+	static final String RESULT_FILE = "result.txt";
+
+	/**
+	 * The result of the last distro laid down, once it has been reported
+	 */
+	static final String REPORTED_RESULT_FILE = "result-reported.txt";
+
+	private static File folder;
+
+	private static String lastJobId;
+
+	private RestartDistro() {
+	}
+
+	/**
+	 * @return the restart folder, which is under the application data directory unless another one was configured
+	 */
+	public static synchronized File getFolder() {
+		if (folder == null)
+			return new File(OpenmrsUtil.getApplicationDataDirectory(), "moduledistro" + File.separator + "restart");
+		return folder;
+	}
+
+	/**
+	 * @param folder the restart folder to use (null for the default)
+	 */
+	public static synchronized void setFolder(File folder) {
+		RestartDistro.folder = folder;
+	}
+
+	/**
+	 * Saves a distro zip to be applied at the next restart, superseding any that was saved before
+	 *
+	 * @param distributionZip (this is not closed)
+	 * @return the saved zip
+	 * @throws IOException
+	 *
+	 * @should supersede a distro staged before
+	 */
+	public static File stage(InputStream distributionZip) throws IOException {
+		File restartFolder = getFolder();
+		FileUtils.forceMkdir(restartFolder);
+		// written under a name that is not picked up until it is complete
+		File partial = File.createTempFile("distro", ".part", restartFolder);
+		OutputStream out = new FileOutputStream(partial);
+		try {
+			IOUtils.copyLarge(distributionZip, out);
+		}
+		catch (IOException ex) {
+			IOUtils.closeQuietly(out);
+			FileUtils.deleteQuietly(partial);
+			throw ex;
+		}
+		out.close();
+		File staged = new File(restartFolder, partial.getName().replace(".part", ".zip"));
+		if (!partial.renameTo(staged)) {
+			FileUtils.deleteQuietly(partial);
+			throw new IOException("Failed to save the distro as " + staged.getAbsolutePath());
+		}
+		for (File older : getZips()) {
+			if (!older.equals(staged))
+				FileUtils.deleteQuietly(older);
+		}
+		return staged;
+	}
+
+	/**
+	 * @return the zip that will be applied at the next restart, or null if there is none
+	 */
+	public static File getPendingDistro() {
+		File newest = null;
+		for (File zip : getZips()) {
+			if (newest == null || zip.lastModified() > newest.lastModified()
+			        || (zip.lastModified() == newest.lastModified() && zip.getName().compareTo(newest.getName()) > 0))
+				newest = zip;
+		}
+		return newest;
+	}
+
+	/**
+	 * Deletes the pending distro, and any it superseded
+	 */
+	public static void discardPending() {
+		for (File zip : getZips()) {
+			FileUtils.deleteQuietly(zip);
+		}
+	}
+
+	/**
+	 * Core stops the modules one by one at shutdown, so which of them are still started while the distro is laid down
+	 * says nothing about the next startup, which starts every loaded module. The plan therefore treats every loaded
+	 * module as started.
+	 * 
+	 * @param loadedModules
+	 * @return a planner for laying a distro down for the next startup
+	 * @should plan as if every loaded module is started
+	 */
+	static DeploymentPlanner newPlanner(Collection<Module> loadedModules) {
+		return new DeploymentPlanner(loadedModules, loadedModules);
+	}
+
+	/**
+	 * Lays the omods of the pending distro down in the module repository, for the next startup to load. The running
+	 * modules are not touched. The pending distro is deleted whether or not this succeeds, so a distro that cannot be
+	 * applied is not tried again at every shutdown.
+	 *
+	 * @param service used to inspect the omods (which does not need the database)
+	 * @return what was done, or null if there was no pending distro
+	 */
+	public static DeploymentResult layDown(ModuleDistroServiceImpl service) {
+		File zip = getPendingDistro();
+		if (zip == null)
+			return null;
+		DeploymentResult result = new DeploymentResult();
+		result.log("Applying " + zip.getName() + " for the next startup");
+		Throwable failure = null;
+		StagingArea staging = null;
+		try {
+			staging = StagingArea.create();
+			int threads = Runtime.getRuntime().availableProcessors();
+			List<UploadedModule> candidates = new DistroReader(service, staging, threads, result).read(zip);
+			List<ModuleAction> actions = new DeploymentPreflight(threads, result).check(candidates,
+			    newPlanner(ModuleFactory.getLoadedModules()));
+			long executeStart = System.currentTimeMillis();
+			layDown(actions, staging, result);
+			result.addPhaseTime(DeploymentResult.PHASE_EXECUTE, System.currentTimeMillis() - executeStart);
+		}
+		catch (Throwable ex) {
+			log.error("Failed to apply " + zip.getName() + " for the next startup", ex);
+			failure = ex;
+		}
+		finally {
+			if (staging != null)
+				staging.destroy();
+			discardPending();
+		}
+
+		try {
+			Writer out = new OutputStreamWriter(new FileOutputStream(new File(getFolder(), RESULT_FILE)), "UTF-8");
+			try {
+				writeResult(result, failure, out);
+			}
+			finally {
+				IOUtils.closeQuietly(out);
+			}
+		}
+		catch (IOException ex) {
+			log.error("Failed to record the result of applying " + zip.getName(), ex);
+		}
+		return result;
+	}
+
+	/**
+	 * Moves every omod to install next to the repository first, so that nothing installed is touched if one of them
+	 * cannot be placed. Only then are the replaced omods deleted, and the new ones renamed into place.
+	 */
+	private static void layDown(List<ModuleAction> actions, StagingArea staging, DeploymentResult result)
+	        throws IOException {
+		File repository = ModuleUtil.getModuleRepository();
+		List<String> filesBeingRemoved = new ArrayList<String>();
+		for (ModuleAction action : actions) {
+			if (Action.REMOVE.equals(action.getAction()) && ((Module) action.getTarget()).getFile() != null)
+				filesBeingRemoved.add(((Module) action.getTarget()).getFile().getName());
+		}
+
+		File pendingFolder = new File(repository, DeploymentExecutor.PENDING_FOLDER + File.separator
+		        + staging.getFolder().getName());
+		try {
+			for (ModuleAction action : actions) {
+				if (!Action.INSTALL.equals(action.getAction()))
+					continue;
+				UploadedModule info = (UploadedModule) action.getTarget();
+				String filename = info.getOriginalFilename();
+				if (new File(repository, filename).exists() && !filesBeingRemoved.contains(filename))
+					throw new RuntimeException("Cannot install " + filename + " because a different module already uses that filename");
+				FileUtils.forceMkdir(pendingFolder);
+				info.setData(staging.moveInto(info.getData(), pendingFolder, filename, info.getDigest()));
+			}
+
+			for (ModuleAction action : actions) {
+				long wallStart = System.nanoTime();
+				if (Action.SKIP.equals(action.getAction())) {
+					UploadedModule info = (UploadedModule) action.getTarget();
+					result.log(info.getOriginalFilename() + ": skipped because " + info.getSkipReason());
+					result.addAction(new ActionRecord(Action.SKIP.name(), info.getModuleId(), info.getExisting() == null ? null
+					        : info.getExisting().getVersion(), info.getModuleVersion(), 0, -1));
+				} else if (Action.REMOVE.equals(action.getAction())) {
+					Module module = (Module) action.getTarget();
+					if (module.getFile() != null && module.getFile().exists() && !module.getFile().delete())
+						throw new IOException("Failed to delete " + module.getFile().getAbsolutePath());
+					result.log("Removed " + module.getModuleId() + " version " + module.getVersion());
+					result.addAction(new ActionRecord(Action.REMOVE.name(), module.getModuleId(), module.getVersion(), null,
+					        (System.nanoTime() - wallStart) / 1000000, -1));
+				} else if (Action.INSTALL.equals(action.getAction())) {
+					UploadedModule info = (UploadedModule) action.getTarget();
+					File inserted = new File(repository, info.getOriginalFilename());
+					if (inserted.exists() || !info.getData().renameTo(inserted))
+						throw new IOException("Failed to move " + info.getOriginalFilename() + " into the module repository");
+					result.log("Installed " + info.getModuleId() + " version " + info.getModuleVersion());
+					result.addAction(new ActionRecord(Action.INSTALL.name(), info.getModuleId(), info.getExisting() == null
+					        ? null : info.getExisting().getVersion(), info.getModuleVersion(),
+					        (System.nanoTime() - wallStart) / 1000000, -1));
+				}
+				// STOP and START are left to core, which starts every module in the repository at startup
+			}
+		}
+		finally {
+			FileUtils.deleteQuietly(pendingFolder);
+		}
+		result.log("The new modules will be started at the next startup");
+	}
+
+	/**
+	 * Reports the result of the distro laid down at the last shutdown, if it has not been reported yet, as a finished
+	 * deployment job
+	 *
+	 * @return the job, or null if there was nothing to report
+	 */
+	public static DeploymentJob reportLastResult() {
+		File resultFile = new File(getFolder(), RESULT_FILE);
+		if (!resultFile.isFile())
+			return null;
+		DeploymentJob job;
+		try {
+			Reader in = new InputStreamReader(new FileInputStream(resultFile), "UTF-8");
+			try {
+				job = readResult(UUID.randomUUID().toString(), in);
+			}
+			finally {
+				IOUtils.closeQuietly(in);
+			}
+		}
+		catch (IOException ex) {
+			log.error("Failed to read the result of the distro applied at the last restart", ex);
+			return null;
+		}
+		File reported = new File(getFolder(), REPORTED_RESULT_FILE);
+		FileUtils.deleteQuietly(reported);
+		if (!resultFile.renameTo(reported))
+			FileUtils.deleteQuietly(resultFile);
+		DeploymentJobs.add(job);
+		synchronized (RestartDistro.class) {
+			lastJobId = job.getId();
+		}
+		return job;
+	}
+
+	/**
+	 * @return the id of the job reported by {@link #reportLastResult()}, or null
+	 */
+	public static synchronized String getLastJobId() {
+		return lastJobId;
+	}
+
+	/**
+	 * Writes a result one item per line, each a tab-separated record type and its fields
+	 *
+	 * @should write a result that can be read back
+	 */
+	static void writeResult(DeploymentResult result, Throwable failure, Writer out) {
+		PrintWriter writer = new PrintWriter(out);
+		for (String line : result.getLog()) {
+			writer.println("log\t" + escape(line));
+		}
+		for (ActionRecord action : result.getActions()) {
+			writer.println("action\t" + escape(action.getAction()) + "\t" + escape(action.getModuleId()) + "\t"
+			        + escape(action.getOldVersion()) + "\t" + escape(action.getNewVersion()) + "\t" + action.getWallMillis()
+			        + "\t" + action.getCpuMillis());
+		}
+		for (Map.Entry<String, Long> phase : result.getPhaseMillis().entrySet()) {
+			writer.println("phase\t" + escape(phase.getKey()) + "\t" + phase.getValue());
+		}
+		writer.println("bytes\t" + result.getBytesExtracted());
+		if (failure != null)
+			writer.println("error\t" + escape(failure.getMessage() != null ? failure.getMessage() : failure.toString()));
+		writer.flush();
+	}
+
+	/**
+	 * @param jobId
+	 * @param in a result written by {@link #writeResult(DeploymentResult, Throwable, Writer)}
+	 * @return a finished job with the result
+	 * @throws IOException
+	 */
+	static DeploymentJob readResult(String jobId, Reader in) throws IOException {
+		DeploymentResult result = new DeploymentResult();
+		String error = null;
+		BufferedReader reader = new BufferedReader(in);
+		for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+			String[] fields = line.split("\t", -1);
+			try {
+				if ("log".equals(fields[0])) {
+					result.log(unescape(fields[1]));
+				} else if ("action".equals(fields[0])) {
+					result.addAction(new ActionRecord(unescape(fields[1]), unescape(fields[2]), unescape(fields[3]),
+					        unescape(fields[4]), Long.parseLong(fields[5]), Long.parseLong(fields[6])));
+				} else if ("phase".equals(fields[0])) {
+					result.addPhaseTime(unescape(fields[1]), Long.parseLong(fields[2]));
+				} else if ("bytes".equals(fields[0])) {
+					result.addBytesExtracted(Long.parseLong(fields[1]));
+				} else if ("error".equals(fields[0])) {
+					error = unescape(fields[1]);
+				}
+			}
+			catch (RuntimeException ex) {
+				throw new IOException("Invalid line in deployment result: " + line, ex);
+			}
+		}
+		DeploymentJob job = new DeploymentJob(jobId, result);
+		job.started();
+		job.finished(error == null ? null : new RuntimeException(error));
+		return job;
+	}
+
+	private static String escape(String value) {
+		if (value == null)
+			return "\\0";
+		return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "");
+	}
+
+	private static String unescape(String value) {
+		if ("\\0".equals(value))
+			return null;
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < value.length(); ++i) {
+			char c = value.charAt(i);
+			if (c == '\\' && i + 1 < value.length()) {
+				char next = value.charAt(++i);
+				sb.append(next == 't' ? '\t' : next == 'n' ? '\n' : next);
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+
+	private static List<File> getZips() {
+		List<File> ret = new ArrayList<File>();
+		File[] files = getFolder().listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (file.isFile() && file.getName().toLowerCase().endsWith(".zip"))
+					ret.add(file);
+			}
+		}
+		return ret;
+	}
+
+}
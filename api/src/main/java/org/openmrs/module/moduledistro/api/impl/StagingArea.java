@@ -0,0 +1,263 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.moduledistro.api.impl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.RuntimeMXBean;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.util.OpenmrsUtil;
+
+/**
+ * A folder holding the omods of a single distro while it is being deployed. Each omod is written here exactly once,
+ * and is later moved (by renaming, when possible) into the module repository.
+ * <p>
+ * The staging folders live in the application data directory, which is normally on the same filesystem as the
+ * module repository, so the final move does not need to copy any bytes.
+ * <p>
+ * Every staging area is destroyed as soon as its deployment finishes. The total size of the omods in all staging
+ * areas may be limited by a quota, and {@link #sweep()} deletes the folders of staging areas that were never destroyed
+ * because the server stopped mid-deployment.
+ */
+public class StagingArea {
+
+	private static final Log staticLog = LogFactory.getLog(StagingArea.class);
+
+	/**
+	 * Each staging folder holds a file with the identity of the JVM that created it
+	 */
+	private static final String OWNER_FILE = ".owner";
+
+	private static long bytesInUse = 0;
+
+	protected final Log log = LogFactory.getLog(getClass());
+
+	private File folder;
+
+	private long quotaBytes;
+
+	private long bytesUsed = 0;
+
+	private int counter = 0;
+
+	/**
+	 * @param folder an existing, empty folder
+	 */
+	public StagingArea(File folder) {
+		this(folder, 0);
+	}
+
+	/**
+	 * @param folder an existing, empty folder
+	 * @param quotaBytes the most that may be staged at once, in this and every other staging area (0 for no limit)
+	 */
+	public StagingArea(File folder, long quotaBytes) {
+		this.folder = folder;
+		this.quotaBytes = quotaBytes;
+	}
+
+	/**
+	 * @return the folder that staging areas are created in, under the application data directory
+	 */
+	public static File getRoot() {
+		return new File(OpenmrsUtil.getApplicationDataDirectory(), "moduledistro" + File.separator + "staging");
+	}
+
+	/**
+	 * Creates a new, empty staging area under the application data directory
+	 *
+	 * @return the new staging area
+	 * @throws IOException
+	 */
+	public static StagingArea create() throws IOException {
+		return create(0);
+	}
+
+	/**
+	 * Creates a new, empty staging area under the application data directory
+	 *
+	 * @param quotaBytes the most that may be staged at once, in this and every other staging area (0 for no limit)
+	 * @return the new staging area
+	 * @throws IOException
+	 */
+	public static StagingArea create(long quotaBytes) throws IOException {
+		File root = getRoot();
+		FileUtils.forceMkdir(root);
+		File folder = File.createTempFile("distro", "", root);
+		if (!folder.delete() || !folder.mkdir())
+			throw new IOException("Failed to create staging folder at " + folder.getAbsolutePath());
+		FileUtils.writeStringToFile(new File(folder, OWNER_FILE), getJvmIdentity());
+		return new StagingArea(folder, quotaBytes);
+	}
+
+	/**
+	 * Deletes staging folders left behind by an earlier run of the server, i.e. by a deployment that was interrupted
+	 * by a shutdown or crash. Staging areas created by this JVM are left alone, even if this module has been reloaded
+	 * since, since a deployment (e.g. one that upgrades this module) may still be using them.
+	 *
+	 * @return the number of folders deleted
+	 */
+	public static int sweep() {
+		File[] folders = getRoot().listFiles();
+		if (folders == null)
+			return 0;
+		String jvm = getJvmIdentity();
+		int deleted = 0;
+		for (File folder : folders) {
+			File owner = new File(folder, OWNER_FILE);
+			try {
+				if (owner.isFile() && jvm.equals(FileUtils.readFileToString(owner)))
+					continue;
+			}
+			catch (IOException ex) {
+				// unreadable, so treat it as orphaned
+			}
+			staticLog.info("Deleting orphaned staging folder " + folder.getAbsolutePath());
+			FileUtils.deleteQuietly(folder);
+			++deleted;
+		}
+		return deleted;
+	}
+
+	/**
+	 * @return identifies this JVM, i.e. process id and host, and start time
+	 */
+	static String getJvmIdentity() {
+		RuntimeMXBean runtime = ManagementFactory.getRuntimeMXBean();
+		return runtime.getName() + "@" + runtime.getStartTime();
+	}
+
+	/**
+	 * Counts bytes about to be staged against the quota
+	 *
+	 * @param bytes
+	 * @throws IOException if staging them would exceed the quota
+	 */
+	public void reserve(long bytes) throws IOException {
+		synchronized (StagingArea.class) {
+			if (quotaBytes > 0 && bytesInUse + bytes > quotaBytes)
+				throw new IOException("Staging this distro would use more than the staging quota of " + (quotaBytes / (1024 * 1024)) + " MB");
+			bytesInUse += bytes;
+			bytesUsed += bytes;
+		}
+	}
+
+	/**
+	 * Writes the given stream to a new file in this staging area. The stream is not closed, so this may be used with
+	 * the current entry of a {@link java.util.zip.ZipInputStream}.
+	 *
+	 * @param originalFilename
+	 * @param in
+	 * @return the staged file
+	 * @throws IOException if the stream cannot be read, or staging it would exceed the quota
+	 *
+	 * @should fail and delete the file if the quota would be exceeded
+	 */
+	public File write(String originalFilename, InputStream in) throws IOException {
+		File file = newFile(originalFilename);
+		OutputStream out = new FileOutputStream(file);
+		boolean written = false;
+		try {
+			byte[] buffer = new byte[64 * 1024];
+			for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+				reserve(n);
+				out.write(buffer, 0, n);
+			}
+			written = true;
+		}
+		finally {
+			IOUtils.closeQuietly(out);
+			if (!written)
+				FileUtils.deleteQuietly(file);
+		}
+		return file;
+	}
+
+	/**
+	 * Moves a staged file into targetFolder, under the given filename. This is a rename unless the target is on a
+	 * different filesystem, in which case it falls back to copying, and then checks the copy against expectedDigest.
+	 * <p>
+	 * A file that is not in this staging area (e.g. one in the {@link OmodStore}) is left where it is, and linked or
+	 * copied instead.
+	 *
+	 * @param staged
+	 * @param targetFolder
+	 * @param filename
+	 * @param expectedDigest the SHA-256 digest of staged, in hex (if null the copy is not checked)
+	 * @return the file in its new location
+	 * @throws IOException if the target file already exists, or the move fails
+	 */
+	public File moveInto(File staged, File targetFolder, String filename, String expectedDigest) throws IOException {
+		File target = new File(targetFolder, filename);
+		if (target.exists())
+			throw new IOException(filename + " already exists in " + targetFolder.getAbsolutePath());
+		if (!folder.equals(staged.getParentFile())) {
+			if (!FileLinks.linkOrCopy(staged, target))
+				verify(target, expectedDigest);
+			return target;
+		}
+		if (!staged.renameTo(target)) {
+			log.debug("Cannot rename " + staged + " to " + target + ", copying it instead");
+			FileUtils.moveFile(staged, target);
+			verify(target, expectedDigest);
+		}
+		return target;
+	}
+
+	private void verify(File copy, String expectedDigest) throws IOException {
+		if (expectedDigest != null && !expectedDigest.equals(Digests.sha256(copy))) {
+			FileUtils.deleteQuietly(copy);
+			throw new IOException(copy.getName() + " was corrupted while copying it to " + copy.getParentFile().getAbsolutePath());
+		}
+	}
+
+	/**
+	 * Deletes this staging area and anything still in it, and releases what it counted against the quota
+	 *
+	 * @should release what the staging area counted against the quota
+	 */
+	public void destroy() {
+		FileUtils.deleteQuietly(folder);
+		synchronized (StagingArea.class) {
+			bytesInUse -= bytesUsed;
+			bytesUsed = 0;
+		}
+	}
+
+	/**
+	 * @return the folder
+	 */
+	public File getFolder() {
+		return folder;
+	}
+
+	/**
+	 * Distros may contain omods with the same name in different folders, so each staged file gets a unique prefix
+	 *
+	 * @param originalFilename
+	 * @return a new file in this staging area, which does not exist yet
+	 */
+	public synchronized File newFile(String originalFilename) {
+		return new File(folder, (counter++) + "-" + originalFilename);
+	}
+
+}
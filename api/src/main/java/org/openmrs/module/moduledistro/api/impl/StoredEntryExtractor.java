@@ -0,0 +1,200 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.moduledistro.api.impl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.security.DigestInputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.ZipEntry;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Extracts the STORED (uncompressed) entries of a zip file with {@link FileChannel#transferTo}, so their bytes go
+ * straight from the zip to the target file, without an inflater or copying through the heap. Omods are already
+ * compressed jars, so distros are often built with STORED entries, e.g. by {@link org.openmrs.module.moduledistro.DistroManifestWriter}.
+ * <p>
+ * {@link java.util.zip.ZipFile} does not tell us where an entry's data starts, so this reads the zip's central
+ * directory itself. Zip64 archives are not supported; all their entries are left to the caller to stream.
+ * <p>
+ * This may be used by several threads at once.
+ */
+public class StoredEntryExtractor {
+
+	private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+
+	private static final int CENTRAL_DIRECTORY_HEADER = 0x02014b50;
+
+	private static final int LOCAL_FILE_HEADER = 0x04034b50;
+
+	private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+
+	private static final int MAX_COMMENT_SIZE = 0xffff;
+
+	private RandomAccessFile file;
+
+	private FileChannel channel;
+
+	/**
+	 * Where the local file header of each STORED entry is, by entry name
+	 */
+	private Map<String, Long> localHeaderOffsets = new HashMap<String, Long>();
+
+	/**
+	 * @param zip
+	 * @throws IOException if zip cannot be read, or its central directory cannot be found
+	 */
+	public StoredEntryExtractor(File zip) throws IOException {
+		file = new RandomAccessFile(zip, "r");
+		channel = file.getChannel();
+		try {
+			readCentralDirectory();
+		}
+		catch (IOException ex) {
+			close();
+			throw ex;
+		}
+	}
+
+	/**
+	 * @param entry an entry of the same zip, from {@link java.util.zip.ZipFile}
+	 * @return whether entry can be extracted by this
+	 */
+	public boolean canExtract(ZipEntry entry) {
+		return entry.getMethod() == ZipEntry.STORED && localHeaderOffsets.containsKey(entry.getName());
+	}
+
+	/**
+	 * Copies a STORED entry to target, and then reads target back once to check its CRC-32 and take its digest
+	 *
+	 * @param entry an entry for which {@link #canExtract(ZipEntry)} is true
+	 * @param target a file that does not exist yet
+	 * @return the SHA-256 digest of target, in hex
+	 * @throws IOException if the copy fails, or its CRC-32 does not match the entry's
+	 *
+	 * @should extract a stored entry
+	 * @should fail if the entry is corrupt
+	 */
+	public String extract(ZipEntry entry, File target) throws IOException {
+		long position = getDataOffset(localHeaderOffsets.get(entry.getName()));
+		long size = entry.getSize();
+		FileOutputStream out = new FileOutputStream(target);
+		try {
+			FileChannel targetChannel = out.getChannel();
+			long copied = 0;
+			while (copied < size) {
+				long n = channel.transferTo(position + copied, size - copied, targetChannel);
+				if (n <= 0)
+					throw new IOException("Unexpected end of zip while extracting " + entry.getName());
+				copied += n;
+			}
+		}
+		finally {
+			IOUtils.closeQuietly(out);
+		}
+
+		CheckedInputStream checked = new CheckedInputStream(new FileInputStream(target), new CRC32());
+		DigestInputStream in = Digests.sha256(checked);
+		try {
+			byte[] buffer = new byte[64 * 1024];
+			while (in.read(buffer) >= 0) {
+			}
+		}
+		finally {
+			IOUtils.closeQuietly(in);
+		}
+		if (checked.getChecksum().getValue() != entry.getCrc())
+			throw new IOException(entry.getName() + " failed its CRC-32 check");
+		return Digests.toHex(in);
+	}
+
+	/**
+	 * Closes the zip
+	 */
+	public void close() {
+		IOUtils.closeQuietly(file);
+	}
+
+	private void readCentralDirectory() throws IOException {
+		long length = channel.size();
+		int searched = (int) Math.min(length, END_OF_CENTRAL_DIRECTORY_SIZE + MAX_COMMENT_SIZE);
+		ByteBuffer tail = read(length - searched, searched);
+		int eocd = -1;
+		for (int i = searched - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; --i) {
+			if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY) {
+				eocd = i;
+				break;
+			}
+		}
+		if (eocd < 0)
+			throw new IOException("Cannot find the zip's central directory");
+		long directorySize = tail.getInt(eocd + 12) & 0xffffffffL;
+		long directoryOffset = tail.getInt(eocd + 16) & 0xffffffffL;
+		if (directoryOffset == 0xffffffffL || directorySize == 0xffffffffL)
+			return; // zip64
+
+		ByteBuffer directory = read(directoryOffset, (int) directorySize);
+		int i = 0;
+		while (i + 46 <= directory.limit() && directory.getInt(i) == CENTRAL_DIRECTORY_HEADER) {
+			int method = directory.getShort(i + 10) & 0xffff;
+			long compressedSize = directory.getInt(i + 20) & 0xffffffffL;
+			int nameLength = directory.getShort(i + 28) & 0xffff;
+			int extraLength = directory.getShort(i + 30) & 0xffff;
+			int commentLength = directory.getShort(i + 32) & 0xffff;
+			long localHeaderOffset = directory.getInt(i + 42) & 0xffffffffL;
+			if (method == ZipEntry.STORED && compressedSize != 0xffffffffL && localHeaderOffset != 0xffffffffL) {
+				byte[] name = new byte[nameLength];
+				for (int j = 0; j < nameLength; ++j) {
+					name[j] = directory.get(i + 46 + j);
+				}
+				localHeaderOffsets.put(new String(name, "UTF-8"), localHeaderOffset);
+			}
+			i += 46 + nameLength + extraLength + commentLength;
+		}
+	}
+
+	/**
+	 * The name and extra fields in an entry's local header may differ in length from those in the central directory,
+	 * so the data offset has to be read from the local header itself
+	 */
+	private long getDataOffset(long localHeaderOffset) throws IOException {
+		ByteBuffer header = read(localHeaderOffset, 30);
+		if (header.getInt(0) != LOCAL_FILE_HEADER)
+			throw new IOException("Invalid local file header at " + localHeaderOffset);
+		int nameLength = header.getShort(26) & 0xffff;
+		int extraLength = header.getShort(28) & 0xffff;
+		return localHeaderOffset + 30 + nameLength + extraLength;
+	}
+
+	private ByteBuffer read(long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0)
+				throw new IOException("Unexpected end of zip");
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+}
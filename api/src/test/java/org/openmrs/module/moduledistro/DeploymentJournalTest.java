@@ -0,0 +1,45 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.moduledistro;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DeploymentJournalTest {
+	
+	/**
+	 * @see DeploymentJournal#getActions()
+	 * @verifies read back the actions that were set
+	 */
+	@Test
+	public void getActions_shouldReadBackTheActionsThatWereSet() throws Exception {
+		DeploymentJournal journal = new DeploymentJournal();
+		journal.setActions(Arrays.asList(new DeploymentJournal.Entry("STOP", "reporting", "0.7.1", null),
+		    new DeploymentJournal.Entry("INSTALL", "reporting", "0.7.2", "reporting-0.7.2.omod")));
+		journal.addAction(new DeploymentJournal.Entry("START", "reporting", "0.7.2", null));
+		
+		List<DeploymentJournal.Entry> actions = journal.getActions();
+		Assert.assertEquals(3, actions.size());
+		Assert.assertEquals("STOP", actions.get(0).getAction());
+		Assert.assertEquals("0.7.1", actions.get(0).getVersion());
+		Assert.assertNull(actions.get(0).getFilename());
+		Assert.assertEquals("reporting-0.7.2.omod", actions.get(1).getFilename());
+		Assert.assertEquals("START", actions.get(2).getAction());
+		Assert.assertEquals("reporting", actions.get(2).getModuleId());
+	}
+	
+}
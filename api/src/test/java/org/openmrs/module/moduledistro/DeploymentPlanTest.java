@@ -0,0 +1,64 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.moduledistro;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.module.moduledistro.DeploymentPlan.PlannedAction;
+
+public class DeploymentPlanTest {
+	
+	/**
+	 * @see DeploymentPlan#isEmpty()
+	 * @verifies be empty when every action is a skip
+	 */
+	@Test
+	public void isEmpty_shouldBeEmptyWhenEveryActionIsASkip() throws Exception {
+		DeploymentPlan plan = new DeploymentPlan(Arrays.asList(new PlannedAction(PlannedAction.SKIP, "reporting", "0.7.2"),
+		    new PlannedAction(PlannedAction.SKIP, "htmlformentry", "1.9")));
+		Assert.assertTrue(plan.isEmpty());
+		Assert.assertTrue(plan.getRestartedModuleIds().isEmpty());
+		
+		plan = new DeploymentPlan(Arrays.asList(new PlannedAction(PlannedAction.SKIP, "reporting", "0.7.2"),
+		    new PlannedAction(PlannedAction.START, "htmlformentry", "1.9")));
+		Assert.assertFalse(plan.isEmpty());
+	}
+	
+	/**
+	 * @see DeploymentPlan#getRestartedModuleIds()
+	 * @verifies list the dependents that are restarted, but not the upgraded modules
+	 */
+	@Test
+	public void getRestartedModuleIds_shouldListTheDependentsThatAreRestartedButNotTheUpgradedModules() throws Exception {
+		List<PlannedAction> actions = new ArrayList<PlannedAction>();
+		actions.add(new PlannedAction(PlannedAction.STOP, "appui", "1.0"));
+		actions.add(new PlannedAction(PlannedAction.STOP, "uilibrary", "1.0"));
+		actions.add(new PlannedAction(PlannedAction.STOP, "uiframework", "1.0"));
+		actions.add(new PlannedAction(PlannedAction.REMOVE, "uiframework", "1.0"));
+		actions.add(new PlannedAction(PlannedAction.INSTALL, "uiframework", "2.0"));
+		actions.add(new PlannedAction(PlannedAction.START, "uiframework", "2.0"));
+		actions.add(new PlannedAction(PlannedAction.START, "uilibrary", "1.0"));
+		actions.add(new PlannedAction(PlannedAction.START, "appui", "1.0"));
+		
+		DeploymentPlan plan = new DeploymentPlan(actions);
+		Assert.assertFalse(plan.isEmpty());
+		Assert.assertEquals("[appui, uilibrary]", plan.getRestartedModuleIds().toString());
+		Assert.assertEquals(8, plan.getActions().size());
+	}
+	
+}
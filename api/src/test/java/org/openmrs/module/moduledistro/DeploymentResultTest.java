@@ -0,0 +1,55 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.moduledistro;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DeploymentResultTest {
+	
+	/**
+	 * @see DeploymentResult#addPhaseTime(String,long)
+	 * @verifies sum times for the same phase and keep phases in order
+	 */
+	@Test
+	public void addPhaseTime_shouldSumTimesForTheSamePhaseAndKeepPhasesInOrder() throws Exception {
+		DeploymentResult result = new DeploymentResult();
+		result.addPhaseTime(DeploymentResult.PHASE_EXTRACT, 10);
+		result.addPhaseTime(DeploymentResult.PHASE_INSPECT, 5);
+		result.addPhaseTime(DeploymentResult.PHASE_EXTRACT, 7);
+		
+		Map<String, Long> phases = result.getPhaseMillis();
+		Assert.assertEquals(Arrays.asList(DeploymentResult.PHASE_EXTRACT, DeploymentResult.PHASE_INSPECT),
+		    Arrays.asList(phases.keySet().toArray()));
+		Assert.assertEquals(Long.valueOf(17), phases.get(DeploymentResult.PHASE_EXTRACT));
+	}
+	
+	/**
+	 * @see DeploymentResult#getLogSince(int)
+	 * @verifies return only lines after from
+	 */
+	@Test
+	public void getLogSince_shouldReturnOnlyLinesAfterFrom() throws Exception {
+		DeploymentResult result = new DeploymentResult();
+		result.log("one");
+		result.log("two");
+		result.log("three");
+		Assert.assertEquals(Arrays.asList("two", "three"), result.getLogSince(1));
+		Assert.assertEquals(0, result.getLogSince(5).size());
+	}
+	
+}
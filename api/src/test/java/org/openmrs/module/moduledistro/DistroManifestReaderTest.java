@@ -0,0 +1,113 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.moduledistro;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DistroManifestReaderTest {
+	
+	private static final String DIGEST_A = "0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef";
+	
+	private static final String DIGEST_B = "fedcba9876543210fedcba9876543210fedcba9876543210fedcba9876543210";
+	
+	private DistroManifest read(String xml) throws IOException {
+		return new DistroManifestReader().read(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+	}
+	
+	private String omod(String digest, String filename) {
+		return "<omod digest=\"" + digest + "\" filename=\"" + filename + "\" id=\"test\" version=\"1.0\"/>";
+	}
+	
+	private void assertFails(String xml, String expectedMessage) {
+		try {
+			read(xml);
+			Assert.fail("should have failed");
+		}
+		catch (IOException ex) {
+			Assert.assertTrue(ex.getMessage(), ex.getMessage().contains(expectedMessage));
+		}
+	}
+	
+	/**
+	 * @see DistroManifestReader#read(java.io.InputStream)
+	 * @verifies read omods in order
+	 */
+	@Test
+	public void read_shouldReadOmodsInOrder() throws Exception {
+		DistroManifest manifest = read("<distro-manifest>" + omod(DIGEST_B, "uiframework-1.0.omod")
+		        + omod(DIGEST_A.toUpperCase(), "reporting-0.7.omod") + "</distro-manifest>");
+		Assert.assertEquals(2, manifest.getOmods().size());
+		Assert.assertEquals("uiframework-1.0.omod", manifest.getOmods().get(0).getFilename());
+		DistroManifest.Entry second = manifest.getOmods().get(1);
+		Assert.assertEquals(DIGEST_A, second.getDigest());
+		Assert.assertEquals("reporting-0.7.omod", second.getFilename());
+		Assert.assertEquals("test", second.getModuleId());
+		Assert.assertEquals("1.0", second.getVersion());
+		Assert.assertSame(second, manifest.getOmod(DIGEST_A));
+	}
+	
+	/**
+	 * @see DistroManifestReader#read(java.io.InputStream)
+	 * @verifies fail if an omod has no digest
+	 */
+	@Test
+	public void read_shouldFailIfAnOmodHasNoDigest() throws Exception {
+		assertFails("<distro-manifest><omod filename=\"a.omod\" id=\"a\" version=\"1.0\"/></distro-manifest>", "has no digest");
+	}
+	
+	/**
+	 * @see DistroManifestReader#read(java.io.InputStream)
+	 * @verifies fail if a filename is not a plain omod filename
+	 */
+	@Test
+	public void read_shouldFailIfAFilenameIsNotAPlainOmodFilename() throws Exception {
+		assertFails("<distro-manifest>" + omod(DIGEST_A, "../../webapps/a.omod") + "</distro-manifest>", "Not a valid omod filename");
+		assertFails("<distro-manifest>" + omod(DIGEST_A, "a.jar") + "</distro-manifest>", "Not a valid omod filename");
+	}
+	
+	/**
+	 * @see DistroManifestReader#read(java.io.InputStream)
+	 * @verifies fail if the same omod is listed twice
+	 */
+	@Test
+	public void read_shouldFailIfTheSameOmodIsListedTwice() throws Exception {
+		assertFails("<distro-manifest>" + omod(DIGEST_A, "a.omod") + omod(DIGEST_A, "b.omod") + "</distro-manifest>",
+		    "listed more than once");
+	}
+	
+	/**
+	 * @see DistroManifestReader#read(java.io.InputStream)
+	 * @verifies read package, require_version and required modules
+	 */
+	@Test
+	public void read_shouldReadPackageRequire_versionAndRequiredModules() throws Exception {
+		DistroManifest manifest = read("<distro-manifest><omod digest=\"" + DIGEST_A + "\" filename=\"a.omod\" id=\"a\""
+		        + " version=\"1.0\" package=\"org.openmrs.module.a\" require_version=\"1.8.3\">"
+		        + "<require_module version=\"1.2\">org.openmrs.module.b</require_module>"
+		        + "<require_module>org.openmrs.module.c</require_module></omod>" + omod(DIGEST_B, "b.omod")
+		        + "</distro-manifest>");
+		DistroManifest.Entry a = manifest.getOmods().get(0);
+		Assert.assertEquals("org.openmrs.module.a", a.getPackageName());
+		Assert.assertEquals("1.8.3", a.getRequireVersion());
+		Assert.assertEquals("{org.openmrs.module.b=1.2, org.openmrs.module.c=null}", a.getRequiredModules().toString());
+		DistroManifest.Entry b = manifest.getOmods().get(1);
+		Assert.assertNull(b.getPackageName());
+		Assert.assertTrue(b.getRequiredModules().isEmpty());
+	}
+	
+}
@@ -0,0 +1,54 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.moduledistro;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DistroManifestWriterTest {
+	
+	/**
+	 * @see DistroManifestWriter#write(DistroManifest,java.io.OutputStream)
+	 * @verifies write a manifest that can be read back
+	 */
+	@Test
+	public void write_shouldWriteAManifestThatCanBeReadBack() throws Exception {
+		DistroManifest.Entry entry = new DistroManifest.Entry(
+		        "0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef", "reporting-0.7.omod", "reporting", "0.7");
+		entry.setPackageName("org.openmrs.module.reporting");
+		entry.setRequireVersion("1.8.3");
+		entry.getRequiredModules().put("org.openmrs.module.serialization.xstream", "0.2.5");
+		entry.getRequiredModules().put("org.openmrs.module.htmlwidgets", null);
+		DistroManifest manifest = new DistroManifest();
+		manifest.getOmods().add(entry);
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new DistroManifestWriter().write(manifest, out);
+		DistroManifest read = new DistroManifestReader().read(new ByteArrayInputStream(out.toByteArray()));
+		
+		Assert.assertEquals(1, read.getOmods().size());
+		DistroManifest.Entry readEntry = read.getOmods().get(0);
+		Assert.assertEquals(entry.getDigest(), readEntry.getDigest());
+		Assert.assertEquals("reporting-0.7.omod", readEntry.getFilename());
+		Assert.assertEquals("reporting", readEntry.getModuleId());
+		Assert.assertEquals("0.7", readEntry.getVersion());
+		Assert.assertEquals("org.openmrs.module.reporting", readEntry.getPackageName());
+		Assert.assertEquals("1.8.3", readEntry.getRequireVersion());
+		Assert.assertEquals(entry.getRequiredModules(), readEntry.getRequiredModules());
+	}
+	
+}
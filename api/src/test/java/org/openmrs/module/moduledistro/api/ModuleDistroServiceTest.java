@@ -21,8 +21,10 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.openmrs.GlobalProperty;
+import org.openmrs.api.APIAuthenticationException;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.ModuleConstants;
+import org.openmrs.module.moduledistro.ModuleDistroConstants;
 import org.openmrs.module.moduledistro.api.ModuleDistroService;
 import org.openmrs.test.BaseModuleContextSensitiveTest;
 import org.openmrs.util.OpenmrsUtil;
@@ -62,7 +64,7 @@ public class  ModuleDistroServiceTest extends BaseModuleContextSensitiveTest {
     	File distro = new File("src/test/resources/org/openmrs/module/moduledistro/include/distro.zip");
     	Assert.assertTrue(distro.exists());
     	
-	    List<String> log = service.uploadDistro(distro, null);
+	    List<String> log = service.uploadDistro(distro, null).getLog();
 	    System.out.println(OpenmrsUtil.join(log, "\n"));
 	    Assert.assertTrue(log.contains("Installed uiframework version 1.3"));
 	    Assert.assertTrue(log.contains("Installed uilibrary version 1.1"));
@@ -70,4 +72,36 @@ public class  ModuleDistroServiceTest extends BaseModuleContextSensitiveTest {
 	    Assert.assertTrue(log.contains("Started uilibrary version 1.1"));
     }
     
+	/**
+     * @see ModuleDistroService#submitRollback(javax.servlet.ServletContext)
+     * @verifies require the Manage Modules privilege
+     */
+    @Test
+    public void submitRollback_shouldRequireTheManageModulesPrivilege() throws Exception {
+    	Context.logout();
+    	try {
+    		service.submitRollback(null);
+    		Assert.fail("should have been rejected");
+    	}
+    	catch (APIAuthenticationException ex) {
+    		Assert.assertTrue(ex.getMessage().contains(ModuleDistroConstants.PRIV_MANAGE_MODULES));
+    	}
+    }
+    
+	/**
+     * @see ModuleDistroService#uploadDistro(File,javax.servlet.ServletContext)
+     * @verifies require the Manage Modules privilege
+     */
+    @Test
+    public void uploadDistro_shouldRequireTheManageModulesPrivilege() throws Exception {
+    	Context.logout();
+    	try {
+    		service.uploadDistro(new File("src/test/resources/org/openmrs/module/moduledistro/include/distro.zip"), null);
+    		Assert.fail("should have been rejected");
+    	}
+    	catch (APIAuthenticationException ex) {
+    		Assert.assertTrue(ex.getMessage().contains(ModuleDistroConstants.PRIV_MANAGE_MODULES));
+    	}
+    }
+    
 }
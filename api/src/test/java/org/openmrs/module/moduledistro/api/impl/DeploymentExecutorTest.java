@@ -0,0 +1,143 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.moduledistro.api.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.module.Module;
+import org.openmrs.module.moduledistro.DeploymentJournal;
+import org.openmrs.module.moduledistro.DeploymentResult;
+import org.openmrs.module.moduledistro.StoredDistro;
+import org.openmrs.module.moduledistro.StoredOmod;
+import org.openmrs.module.moduledistro.api.db.ModuleDistroDAO;
+
+public class DeploymentExecutorTest {
+	
+	/**
+	 * Records the completed action count of each journal it is asked to save
+	 */
+	private static class JournalRecorder implements ModuleDistroDAO {
+		
+		private List<Integer> saved = new ArrayList<Integer>();
+		
+		public List<StoredOmod> getAllStoredOmods() {
+			return new ArrayList<StoredOmod>();
+		}
+		
+		public StoredOmod getStoredOmod(String digest) {
+			return null;
+		}
+		
+		public void saveStoredOmod(StoredOmod omod) {
+		}
+		
+		public StoredDistro getStoredDistro(String digest) {
+			return null;
+		}
+		
+		public List<StoredDistro> getRecentStoredDistros(int maxResults) {
+			return new ArrayList<StoredDistro>();
+		}
+		
+		public void saveStoredDistro(StoredDistro distro) {
+		}
+		
+		public List<DeploymentJournal> getUnfinishedDeploymentJournals() {
+			return new ArrayList<DeploymentJournal>();
+		}
+		
+		public void saveDeploymentJournal(DeploymentJournal journal) {
+			saved.add(journal.getDateFinished() == null ? journal.getCompletedActions() : -1);
+		}
+	}
+	
+	private Module module(String moduleId, String... requiredModuleIds) {
+		Module module = new Module(moduleId, moduleId, "org.openmrs.module." + moduleId, null, null, "1.0");
+		Map<String, String> required = new HashMap<String, String>();
+		for (String requiredModuleId : requiredModuleIds) {
+			required.put("org.openmrs.module." + requiredModuleId, null);
+		}
+		module.setRequiredModulesMap(required);
+		return module;
+	}
+	
+	/**
+	 * @see DeploymentExecutor#groupIntoWaves(List)
+	 * @verifies put modules that do not depend on each other in the same wave
+	 */
+	@Test
+	public void groupIntoWaves_shouldPutModulesThatDoNotDependOnEachOtherInTheSameWave() throws Exception {
+		Module htmlwidgets = module("htmlwidgets");
+		Module serialization = module("serialization", "logic");
+		Module reporting = module("reporting", "htmlwidgets", "serialization");
+		List<List<Module>> waves = DeploymentExecutor.groupIntoWaves(Arrays.asList(htmlwidgets, serialization, reporting));
+		Assert.assertEquals(2, waves.size());
+		Assert.assertEquals(Arrays.asList(htmlwidgets, serialization), waves.get(0));
+		Assert.assertEquals(Arrays.asList(reporting), waves.get(1));
+	}
+	
+	/**
+	 * @see DeploymentExecutor#groupIntoWaves(List)
+	 * @verifies put a module in the wave after the latest module it requires
+	 */
+	@Test
+	public void groupIntoWaves_shouldPutAModuleInTheWaveAfterTheLatestModuleItRequires() throws Exception {
+		Module a = module("a");
+		Module b = module("b", "a");
+		Module c = module("c", "b");
+		Module d = module("d", "a", "c");
+		Module e = module("e", "a");
+		List<List<Module>> waves = DeploymentExecutor.groupIntoWaves(Arrays.asList(a, b, c, d, e));
+		Assert.assertEquals(4, waves.size());
+		Assert.assertEquals(Arrays.asList(a), waves.get(0));
+		Assert.assertEquals(Arrays.asList(b, e), waves.get(1));
+		Assert.assertEquals(Arrays.asList(c), waves.get(2));
+		Assert.assertEquals(Arrays.asList(d), waves.get(3));
+	}
+	
+	/**
+	 * @see DeploymentExecutor#journalCompleted(int)
+	 * @verifies save the journal through the refreshed context once the context has been refreshed
+	 */
+	@Test
+	public void journalCompleted_shouldSaveTheJournalThroughTheRefreshedContextOnceTheContextHasBeenRefreshed()
+	        throws Exception {
+		// without batching, starting each module's web layer refreshes the context
+		final JournalRecorder refreshed = new JournalRecorder();
+		JournalRecorder injected = new JournalRecorder();
+		DeploymentExecutor executor = new DeploymentExecutor(null, null, false, new DeploymentResult()) {
+			
+			@Override
+			void saveJournalInRefreshedContext(DeploymentJournal journal) {
+				refreshed.saveDeploymentJournal(journal);
+			}
+		};
+		executor.setDao(injected);
+		executor.startJournal(new ArrayList<ModuleDistroServiceImpl.ModuleAction>());
+		executor.journalCompleted(1);
+		executor.markContextRefreshed();
+		executor.journalCompleted(1);
+		executor.finishJournal(null);
+		Assert.assertEquals(Arrays.asList(0, 1), injected.saved);
+		// -1 marks the journal saved as finished
+		Assert.assertEquals(Arrays.asList(2, -1), refreshed.saved);
+	}
+	
+}
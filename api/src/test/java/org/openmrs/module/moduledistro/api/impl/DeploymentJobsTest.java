@@ -0,0 +1,88 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.moduledistro.api.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.module.moduledistro.DeploymentJob;
+import org.openmrs.module.moduledistro.DeploymentResult;
+
+public class DeploymentJobsTest {
+	
+	/**
+	 * Records the names of everything merged into it
+	 */
+	private static class NamedWork implements DeploymentJobs.MergeableWork {
+		
+		List<String> names = new ArrayList<String>();
+		
+		NamedWork(String name) {
+			names.add(name);
+		}
+		
+		@Override
+		public boolean merge(DeploymentJobs.MergeableWork later) {
+			names.addAll(((NamedWork) later).names);
+			return true;
+		}
+		
+		@Override
+		public void run(DeploymentJob job) {
+		}
+	}
+	
+	/**
+	 * @see DeploymentJobs#submit(DeploymentResult,DeploymentJobs.JobWork)
+	 * @verifies merge work into a job that has not started
+	 */
+	@Test
+	public void submit_shouldMergeWorkIntoAJobThatHasNotStarted() throws Exception {
+		final CountDownLatch running = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		DeploymentJob blocking = DeploymentJobs.submit(new DeploymentResult(), new DeploymentJobs.JobWork() {
+			
+			@Override
+			public void run(DeploymentJob job) throws Exception {
+				running.countDown();
+				release.await();
+			}
+		});
+		Assert.assertTrue(running.await(10, TimeUnit.SECONDS));
+		
+		NamedWork first = new NamedWork("first");
+		DeploymentJob queued = DeploymentJobs.submit(new DeploymentResult(), first);
+		DeploymentResult secondResult = new DeploymentResult();
+		secondResult.log("Read second");
+		DeploymentJob merged = DeploymentJobs.submit(secondResult, new NamedWork("second"));
+		release.countDown();
+		
+		Assert.assertNotSame(blocking, queued);
+		Assert.assertSame(queued, merged);
+		Assert.assertEquals(2, first.names.size());
+		Assert.assertTrue(queued.getResult().getLog().contains("Read second"));
+		for (int i = 0; i < 100 && !queued.isFinished(); ++i) {
+			Thread.sleep(50);
+		}
+		Assert.assertEquals(DeploymentJob.Status.SUCCEEDED, queued.getStatus());
+		
+		// once a job has started, nothing more is merged into it
+		Assert.assertNotSame(queued, DeploymentJobs.submit(new DeploymentResult(), new NamedWork("third")));
+	}
+	
+}
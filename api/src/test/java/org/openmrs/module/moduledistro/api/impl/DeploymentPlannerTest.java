@@ -0,0 +1,182 @@
+package org.openmrs.module.moduledistro.api.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.module.Module;
+import org.openmrs.module.moduledistro.api.impl.ModuleDistroServiceImpl.Action;
+import org.openmrs.module.moduledistro.api.impl.ModuleDistroServiceImpl.ModuleAction;
+import org.openmrs.module.moduledistro.api.impl.ModuleDistroServiceImpl.UploadedModule;
+
+public class DeploymentPlannerTest {
+	
+	ModuleDistroServiceImpl serviceImpl;
+	
+	DeploymentPlanner planner;
+	
+	@Before
+	public void beforeEachTest() {
+		serviceImpl = new ModuleDistroServiceImpl();
+		planner = new DeploymentPlanner(Collections.<Module> emptyList(), Collections.<Module> emptyList());
+	}
+	
+	private UploadedModule newInstall(String moduleId, String... requiredModuleIds) {
+		UploadedModule candidate = serviceImpl.new UploadedModule(moduleId + ".omod", null);
+		candidate.setModuleId(moduleId);
+		candidate.setModuleVersion("1.0");
+		candidate.setPackageName("org.openmrs.module." + moduleId);
+		for (String required : requiredModuleIds) {
+			candidate.getRequiredModules().put("org.openmrs.module." + required, null);
+		}
+		candidate.setAction(Action.INSTALL);
+		return candidate;
+	}
+	
+	private Module newRunningModule(String moduleId, String... requiredModuleIds) {
+		Module module = new Module(moduleId, moduleId, "org.openmrs.module." + moduleId, null, null, "1.0");
+		Map<String, String> requiredModules = new LinkedHashMap<String, String>();
+		for (String required : requiredModuleIds) {
+			requiredModules.put("org.openmrs.module." + required, null);
+		}
+		module.setRequiredModulesMap(requiredModules);
+		return module;
+	}
+	
+	private UploadedModule newUpgrade(Module existing, String... requiredModuleIds) {
+		UploadedModule candidate = newInstall(existing.getModuleId(), requiredModuleIds);
+		candidate.setModuleVersion("2.0");
+		candidate.setExisting(existing);
+		candidate.setAction(Action.UPGRADE);
+		return candidate;
+	}
+	
+	private List<String> startOrder(List<ModuleAction> actions) {
+		return describe(actions, Action.START);
+	}
+	
+	private List<String> describe(List<ModuleAction> actions, Action which) {
+		List<String> ret = new ArrayList<String>();
+		for (ModuleAction action : actions) {
+			if (which.equals(action.getAction())) {
+				if (action.getTarget() instanceof Module)
+					ret.add(((Module) action.getTarget()).getModuleId());
+				else
+					ret.add(((UploadedModule) action.getTarget()).getModuleId());
+			}
+		}
+		return ret;
+	}
+	
+	/**
+	 * @see DeploymentPlanner#plan(List)
+	 * @verifies start required modules before the modules that require them
+	 */
+	@Test
+	public void plan_shouldStartRequiredModulesBeforeTheModulesThatRequireThem() throws Exception {
+		List<UploadedModule> candidates = new ArrayList<UploadedModule>();
+		candidates.add(newInstall("appframework", "uiframework", "uilibrary"));
+		candidates.add(newInstall("uilibrary", "uiframework"));
+		candidates.add(newInstall("uiframework"));
+		candidates.add(newInstall("reporting"));
+		
+		List<ModuleAction> actions = planner.plan(candidates);
+		
+		Assert.assertEquals(8, actions.size());
+		for (int i = 0; i < 4; ++i) {
+			Assert.assertEquals(Action.INSTALL, actions.get(i).getAction());
+		}
+		Assert.assertEquals("[uiframework, uilibrary, appframework, reporting]", startOrder(actions).toString());
+	}
+	
+	/**
+	 * @see DeploymentPlanner#plan(List)
+	 * @verifies stop and restart each affected module once
+	 */
+	@Test
+	public void plan_shouldStopAndRestartEachAffectedModuleOnce() throws Exception {
+		Module uiframework = newRunningModule("uiframework");
+		Module uilibrary = newRunningModule("uilibrary", "uiframework");
+		Module appui = newRunningModule("appui", "uilibrary", "uiframework");
+		Module reporting = newRunningModule("reporting");
+		List<Module> running = Arrays.asList(uiframework, uilibrary, appui, reporting);
+		planner = new DeploymentPlanner(running, running);
+		
+		List<UploadedModule> candidates = new ArrayList<UploadedModule>();
+		candidates.add(newUpgrade(uiframework));
+		candidates.add(newUpgrade(uilibrary, "uiframework"));
+		List<ModuleAction> actions = planner.plan(candidates);
+		
+		Assert.assertEquals("[appui, uilibrary, uiframework]", describe(actions, Action.STOP).toString());
+		Assert.assertEquals("[uiframework, uilibrary]", describe(actions, Action.REMOVE).toString());
+		Assert.assertEquals("[uiframework, uilibrary]", describe(actions, Action.INSTALL).toString());
+		Assert.assertEquals("[uiframework, uilibrary, appui]", startOrder(actions).toString());
+	}
+	
+	/**
+	 * @see DeploymentPlanner#plan(List)
+	 * @verifies fail if a required module is missing
+	 */
+	@Test
+	public void plan_shouldFailIfARequiredModuleIsMissing() throws Exception {
+		List<UploadedModule> candidates = new ArrayList<UploadedModule>();
+		candidates.add(newInstall("appframework", "uiframework"));
+		try {
+			planner.plan(candidates);
+			Assert.fail("should have failed");
+		}
+		catch (RuntimeException ex) {
+			Assert.assertTrue(ex.getMessage().contains("appframework requires org.openmrs.module.uiframework"));
+		}
+	}
+	
+	/**
+	 * @see DeploymentPlanner#plan(List)
+	 * @verifies fail if required modules form a cycle
+	 */
+	@Test
+	public void plan_shouldFailIfRequiredModulesFormACycle() throws Exception {
+		List<UploadedModule> candidates = new ArrayList<UploadedModule>();
+		candidates.add(newInstall("a", "b"));
+		candidates.add(newInstall("b", "a"));
+		candidates.add(newInstall("c"));
+		try {
+			planner.plan(candidates);
+			Assert.fail("should have failed");
+		}
+		catch (RuntimeException ex) {
+			Assert.assertTrue(ex.getMessage().contains("form a cycle: a, b"));
+		}
+	}
+	
+	/**
+	 * @see DeploymentPlanner#plan(List)
+	 * @verifies stop and remove modules to remove
+	 */
+	@Test
+	public void plan_shouldStopAndRemoveModulesToRemove() throws Exception {
+		Module uiframework = newRunningModule("uiframework");
+		Module newlib = newRunningModule("newlib", "uiframework");
+		Module appui = newRunningModule("appui", "newlib");
+		List<Module> running = Arrays.asList(uiframework, newlib, appui);
+		planner = new DeploymentPlanner(running, running);
+		planner.setToRemove(Arrays.asList(newlib));
+		
+		// rolling appui back to a version that did not require newlib
+		UploadedModule downgrade = newUpgrade(appui);
+		downgrade.setModuleVersion("0.9");
+		List<ModuleAction> actions = planner.plan(Arrays.asList(downgrade));
+		
+		Assert.assertEquals("[appui, newlib]", describe(actions, Action.STOP).toString());
+		Assert.assertEquals("[appui, newlib]", describe(actions, Action.REMOVE).toString());
+		Assert.assertEquals("[appui]", describe(actions, Action.INSTALL).toString());
+		Assert.assertEquals("[appui]", startOrder(actions).toString());
+	}
+	
+}
@@ -0,0 +1,166 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.moduledistro.api.impl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.module.Module;
+import org.openmrs.module.moduledistro.DeploymentResult;
+import org.openmrs.module.moduledistro.api.impl.ModuleDistroServiceImpl.Action;
+import org.openmrs.module.moduledistro.api.impl.ModuleDistroServiceImpl.UploadedModule;
+
+public class DeploymentPreflightTest {
+
+	private static final String MESSAGES = "a message in a stored entry";
+
+	ModuleDistroServiceImpl serviceImpl;
+
+	File folder;
+
+	DeploymentPreflight preflight;
+
+	DeploymentPlanner planner;
+
+	@Before
+	public void beforeEachTest() throws Exception {
+		serviceImpl = new ModuleDistroServiceImpl();
+		folder = File.createTempFile("preflight", "");
+		folder.delete();
+		folder.mkdir();
+		preflight = new DeploymentPreflight(2, new DeploymentResult());
+		planner = new DeploymentPlanner(Collections.<Module> emptyList(), Collections.<Module> emptyList());
+	}
+
+	@After
+	public void afterEachTest() throws Exception {
+		FileUtils.deleteQuietly(folder);
+	}
+
+	/**
+	 * Writes an omod whose activator is org.openmrs.module.{moduleId}.Activator, and whose messages.properties is a
+	 * STORED entry
+	 */
+	private UploadedModule omod(String moduleId, boolean withActivator) throws Exception {
+		File file = new File(folder, moduleId + ".omod");
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
+		out.putNextEntry(new ZipEntry("config.xml"));
+		out.write(("<module><id>" + moduleId + "</id><version>1.0</version><package>org.openmrs.module." + moduleId
+		        + "</package><activator>org.openmrs.module." + moduleId + ".Activator</activator></module>").getBytes("UTF-8"));
+		if (withActivator) {
+			out.putNextEntry(new ZipEntry("lib/" + moduleId + "-api.jar"));
+			ZipOutputStream api = new ZipOutputStream(out);
+			api.putNextEntry(new ZipEntry("org/openmrs/module/" + moduleId + "/Activator.class"));
+			api.write(new byte[] { (byte) 0xca, (byte) 0xfe, (byte) 0xba, (byte) 0xbe });
+			api.finish();
+		}
+		byte[] messages = MESSAGES.getBytes("UTF-8");
+		CRC32 crc = new CRC32();
+		crc.update(messages);
+		ZipEntry entry = new ZipEntry("messages.properties");
+		entry.setMethod(ZipEntry.STORED);
+		entry.setSize(messages.length);
+		entry.setCrc(crc.getValue());
+		out.putNextEntry(entry);
+		out.write(messages);
+		out.close();
+
+		UploadedModule candidate = serviceImpl.new UploadedModule(file.getName(), file);
+		candidate.setModuleId(moduleId);
+		candidate.setModuleVersion("1.0");
+		candidate.setPackageName("org.openmrs.module." + moduleId);
+		candidate.setAction(Action.INSTALL);
+		return candidate;
+	}
+
+	private void corrupt(File omod) throws Exception {
+		byte[] bytes = FileUtils.readFileToByteArray(omod);
+		int at = new String(bytes, "ISO-8859-1").indexOf(MESSAGES);
+		RandomAccessFile file = new RandomAccessFile(omod, "rw");
+		file.seek(at);
+		file.write('A');
+		file.close();
+	}
+
+	/**
+	 * @see DeploymentPreflight#check(java.util.List,DeploymentPlanner)
+	 * @verifies reject an omod with a corrupt entry
+	 */
+	@Test
+	public void check_shouldRejectAnOmodWithACorruptEntry() throws Exception {
+		UploadedModule good = omod("good", true);
+		// INSTALL and START
+		Assert.assertEquals(2, preflight.check(Arrays.asList(good), planner).size());
+
+		UploadedModule bad = omod("bad", true);
+		corrupt(bad.getData());
+		try {
+			preflight.check(Arrays.asList(good, bad), planner);
+			Assert.fail("should have failed");
+		}
+		catch (RuntimeException ex) {
+			Assert.assertTrue(ex.getMessage().contains("bad.omod: messages.properties failed its CRC-32 check"));
+			Assert.assertFalse(ex.getMessage().contains("good.omod"));
+		}
+	}
+
+	/**
+	 * @see DeploymentPreflight#check(java.util.List,DeploymentPlanner)
+	 * @verifies reject an omod whose activator class is missing
+	 */
+	@Test
+	public void check_shouldRejectAnOmodWhoseActivatorClassIsMissing() throws Exception {
+		try {
+			preflight.check(Arrays.asList(omod("noactivator", false)), planner);
+			Assert.fail("should have failed");
+		}
+		catch (RuntimeException ex) {
+			Assert.assertTrue(ex.getMessage().contains("org.openmrs.module.noactivator.Activator is not in the omod"));
+		}
+	}
+
+	/**
+	 * @see DeploymentPreflight#check(java.util.List,DeploymentPlanner)
+	 * @verifies report the problems of every omod together
+	 */
+	@Test
+	public void check_shouldReportTheProblemsOfEveryOmodTogether() throws Exception {
+		UploadedModule corrupt = omod("corrupt", true);
+		corrupt(corrupt.getData());
+		UploadedModule missingActivator = omod("missingactivator", false);
+		UploadedModule missingRequirement = omod("needy", true);
+		missingRequirement.getRequiredModules().put("org.openmrs.module.absent", null);
+		try {
+			preflight.check(Arrays.asList(corrupt, missingActivator, missingRequirement), planner);
+			Assert.fail("should have failed");
+		}
+		catch (RuntimeException ex) {
+			Assert.assertTrue(ex.getMessage().contains("corrupt.omod: messages.properties failed its CRC-32 check"));
+			Assert.assertTrue(ex.getMessage().contains("org.openmrs.module.missingactivator.Activator is not in the omod"));
+			Assert.assertTrue(ex.getMessage().contains("needy requires org.openmrs.module.absent"));
+		}
+	}
+
+}
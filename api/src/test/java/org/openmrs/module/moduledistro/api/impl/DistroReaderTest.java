@@ -0,0 +1,113 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.moduledistro.api.impl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.module.moduledistro.DeploymentResult;
+import org.openmrs.module.moduledistro.api.impl.ModuleDistroServiceImpl.UploadedModule;
+
+public class DistroReaderTest {
+
+	File folder;
+
+	DistroReader reader;
+
+	@Before
+	public void beforeEachTest() throws Exception {
+		folder = File.createTempFile("distroreader", "");
+		folder.delete();
+		folder.mkdir();
+		File stagingFolder = new File(folder, "staging");
+		stagingFolder.mkdir();
+		reader = new DistroReader(new ModuleDistroServiceImpl(), new StagingArea(stagingFolder), 2,
+		        new DeploymentResult(), null);
+	}
+
+	@After
+	public void afterEachTest() throws Exception {
+		FileUtils.deleteQuietly(folder);
+	}
+
+	/**
+	 * Writes an omod with a STORED entry of padding bytes, so it is at least that big
+	 */
+	private File omod(String moduleId, int padding) throws Exception {
+		File file = new File(folder, moduleId + ".omod");
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
+		out.putNextEntry(new ZipEntry("config.xml"));
+		out.write(("<module><id>" + moduleId + "</id><version>1.0</version><package>org.openmrs.module." + moduleId
+		        + "</package></module>").getBytes("UTF-8"));
+		byte[] bytes = new byte[padding];
+		CRC32 crc = new CRC32();
+		crc.update(bytes);
+		ZipEntry entry = new ZipEntry("padding");
+		entry.setMethod(ZipEntry.STORED);
+		entry.setSize(bytes.length);
+		entry.setCrc(crc.getValue());
+		out.putNextEntry(entry);
+		out.write(bytes);
+		out.close();
+		return file;
+	}
+
+	private File distro(File... omods) throws Exception {
+		File file = new File(folder, "distribution.zip");
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
+		for (File omod : omods) {
+			out.putNextEntry(new ZipEntry(omod.getName()));
+			FileUtils.copyFile(omod, out);
+		}
+		out.close();
+		return file;
+	}
+
+	/**
+	 * @see DistroReader#read(InputStream)
+	 * @verifies read an omod larger than MAX_BUFFERED_OMOD followed by another omod
+	 */
+	@Test
+	public void read_shouldReadAnOmodLargerThanMAX_BUFFERED_OMODFollowedByAnotherOmod() throws Exception {
+		// the last chunk read into memory may take an omod a little past the limit, so go well past it
+		File large = omod("large", DistroReader.MAX_BUFFERED_OMOD + 2 * OmodBuffer.CHUNK_SIZE);
+		File small = omod("small", 1024);
+		InputStream in = new FileInputStream(distro(large, small));
+		List<UploadedModule> omods;
+		try {
+			omods = reader.read(in);
+		}
+		finally {
+			IOUtils.closeQuietly(in);
+		}
+		Assert.assertEquals(2, omods.size());
+		Assert.assertEquals("large", omods.get(0).getModuleId());
+		Assert.assertEquals(large.length(), omods.get(0).getData().length());
+		Assert.assertEquals("small", omods.get(1).getModuleId());
+		Assert.assertEquals(small.length(), omods.get(1).getData().length());
+	}
+
+}
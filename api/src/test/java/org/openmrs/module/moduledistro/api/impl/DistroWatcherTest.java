@@ -0,0 +1,85 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.moduledistro.api.impl;
+
+import java.io.File;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DistroWatcherTest {
+	
+	File folder;
+	
+	DistroWatcher watcher;
+	
+	@Before
+	public void beforeEachTest() throws Exception {
+		folder = File.createTempFile("watched", "");
+		folder.delete();
+		folder.mkdir();
+		watcher = new DistroWatcher(folder, 10000, null);
+	}
+	
+	@After
+	public void afterEachTest() throws Exception {
+		FileUtils.deleteQuietly(folder);
+	}
+	
+	/**
+	 * @see DistroWatcher#findReadyBurst(long)
+	 * @verifies wait until a burst of drops has been quiet
+	 */
+	@Test
+	public void findReadyBurst_shouldWaitUntilABurstOfDropsHasBeenQuiet() throws Exception {
+		File first = new File(folder, "first.zip");
+		FileUtils.writeStringToFile(first, "first");
+		first.setLastModified(1000000);
+		Assert.assertNull(watcher.findReadyBurst(0));
+		
+		File second = new File(folder, "second.zip");
+		FileUtils.writeStringToFile(second, "second");
+		second.setLastModified(2000000);
+		Assert.assertNull(watcher.findReadyBurst(8000));
+		Assert.assertNull(watcher.findReadyBurst(12000));
+		
+		List<File> burst = watcher.findReadyBurst(18000);
+		Assert.assertEquals(2, burst.size());
+		Assert.assertEquals(first, burst.get(0));
+		Assert.assertEquals(second, burst.get(1));
+	}
+	
+	/**
+	 * @see DistroWatcher#findReadyBurst(long)
+	 * @verifies not wait for a zip whose marker exists
+	 */
+	@Test
+	public void findReadyBurst_shouldNotWaitForAZipWhoseMarkerExists() throws Exception {
+		File zip = new File(folder, "distro.zip");
+		FileUtils.writeStringToFile(zip, "partial");
+		Assert.assertNull(watcher.findReadyBurst(0));
+		
+		// the copy is slow, so the zip keeps changing after the quiet period
+		FileUtils.writeStringToFile(zip, "partial, and then some more");
+		Assert.assertNull(watcher.findReadyBurst(15000));
+		
+		FileUtils.writeStringToFile(new File(folder, "distro.zip" + DistroWatcher.MARKER_SUFFIX), "");
+		Assert.assertEquals(1, watcher.findReadyBurst(16000).size());
+	}
+	
+}
@@ -2,11 +2,21 @@ package org.openmrs.module.moduledistro.api.impl;
 
 
 import java.io.File;
+import java.util.Arrays;
+import java.util.List;
 
+import org.apache.commons.io.FileUtils;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.openmrs.module.Module;
+import org.openmrs.module.moduledistro.DeploymentJournal;
+import org.openmrs.module.moduledistro.DeploymentPlan;
+import org.openmrs.module.moduledistro.DeploymentResult;
+import org.openmrs.module.moduledistro.api.impl.ModuleDistroServiceImpl.Action;
+import org.openmrs.module.moduledistro.api.impl.ModuleDistroServiceImpl.ModuleAction;
 import org.openmrs.module.moduledistro.api.impl.ModuleDistroServiceImpl.UploadedModule;
+import org.openmrs.util.OpenmrsUtil;
 
 public class ModuleDistroServiceImplTest {
 	
@@ -93,4 +103,184 @@ public class ModuleDistroServiceImplTest {
     public void shouldInstallNewVersion_shouldReturnFalseFor10SNAPSHOTVersus11() throws Exception {
     	Assert.assertFalse(serviceImpl.shouldInstallNewVersion("1.0-SNAPSHOT", "1.1"));
     }
-}
\ No newline at end of file
+    
+    private File writeTempFile(String contents) throws Exception {
+    	File file = File.createTempFile("moduledistro", ".omod");
+    	file.deleteOnExit();
+    	FileUtils.writeStringToFile(file, contents);
+    	return file;
+    }
+    
+    private UploadedModule newSnapshotCandidate(File data) throws Exception {
+    	UploadedModule candidate = serviceImpl.new UploadedModule("test-1.0-SNAPSHOT.omod", data);
+    	candidate.setModuleVersion("1.0-SNAPSHOT");
+    	candidate.setDigest(Digests.sha256(data));
+    	return candidate;
+    }
+    
+    private Module newInstalledSnapshot(File file) {
+    	Module existing = new Module("test", "test", "org.openmrs.module.test", null, null, "1.0-SNAPSHOT");
+    	existing.setFile(file);
+    	return existing;
+    }
+    
+	/**
+     * @see ModuleDistroServiceImpl#isIdenticalToInstalled(UploadedModule,Module)
+     * @verifies return true if the installed file has the same contents
+     */
+    @Test
+    public void isIdenticalToInstalled_shouldReturnTrueIfTheInstalledFileHasTheSameContents() throws Exception {
+    	UploadedModule candidate = newSnapshotCandidate(writeTempFile("same contents"));
+    	Assert.assertTrue(serviceImpl.isIdenticalToInstalled(candidate, newInstalledSnapshot(writeTempFile("same contents"))));
+    }
+    
+	/**
+     * @see ModuleDistroServiceImpl#isIdenticalToInstalled(UploadedModule,Module)
+     * @verifies return false if the installed file has different contents
+     */
+    @Test
+    public void isIdenticalToInstalled_shouldReturnFalseIfTheInstalledFileHasDifferentContents() throws Exception {
+    	UploadedModule candidate = newSnapshotCandidate(writeTempFile("new contents"));
+    	Assert.assertFalse(serviceImpl.isIdenticalToInstalled(candidate, newInstalledSnapshot(writeTempFile("old contents"))));
+    }
+    
+	/**
+     * @see ModuleDistroServiceImpl#isIdenticalToInstalled(UploadedModule,Module)
+     * @verifies return false if the versions differ
+     */
+    @Test
+    public void isIdenticalToInstalled_shouldReturnFalseIfTheVersionsDiffer() throws Exception {
+    	UploadedModule candidate = newSnapshotCandidate(writeTempFile("same contents"));
+    	candidate.setModuleVersion("1.1-SNAPSHOT");
+    	Assert.assertFalse(serviceImpl.isIdenticalToInstalled(candidate, newInstalledSnapshot(writeTempFile("same contents"))));
+    }
+    
+    private UploadedModule newCandidate(String moduleId, String version) {
+    	UploadedModule candidate = serviceImpl.new UploadedModule(moduleId + "-" + version + ".omod", null);
+    	candidate.setModuleId(moduleId);
+    	candidate.setModuleVersion(version);
+    	return candidate;
+    }
+    
+	/**
+     * @see ModuleDistroServiceImpl#mergeDistros(List,DeploymentResult)
+     * @verifies keep the newest version of each module
+     */
+    @Test
+    public void mergeDistros_shouldKeepTheNewestVersionOfEachModule() throws Exception {
+    	List<UploadedModule> first = Arrays.asList(newCandidate("a", "1.1"), newCandidate("b", "1.0"));
+    	List<UploadedModule> second = Arrays.asList(newCandidate("b", "1.2"), newCandidate("a", "1.0"), newCandidate("c", "1.0"));
+    	@SuppressWarnings("unchecked")
+    	List<UploadedModule> merged = serviceImpl.mergeDistros(Arrays.asList(first, second), new DeploymentResult());
+    	Assert.assertEquals(3, merged.size());
+    	Assert.assertSame(first.get(0), merged.get(0));
+    	Assert.assertSame(second.get(0), merged.get(1));
+    	Assert.assertSame(second.get(2), merged.get(2));
+    }
+    
+	/**
+     * @see ModuleDistroServiceImpl#mergeDistros(List,DeploymentResult)
+     * @verifies prefer the later distro for the same version
+     */
+    @Test
+    public void mergeDistros_shouldPreferTheLaterDistroForTheSameVersion() throws Exception {
+    	List<UploadedModule> first = Arrays.asList(newCandidate("a", "1.0-SNAPSHOT"));
+    	List<UploadedModule> second = Arrays.asList(newCandidate("a", "1.0-SNAPSHOT"));
+    	DeploymentResult result = new DeploymentResult();
+    	@SuppressWarnings("unchecked")
+    	List<UploadedModule> merged = serviceImpl.mergeDistros(Arrays.asList(first, second), result);
+    	Assert.assertEquals(1, merged.size());
+    	Assert.assertSame(second.get(0), merged.get(0));
+    	Assert.assertEquals(1, result.getLog().size());
+    }
+    
+    private DeploymentJournal newJournal(File pendingFolder, int completedActions, String... lines) {
+    	DeploymentJournal journal = new DeploymentJournal();
+    	journal.setPendingFolder(pendingFolder.getAbsolutePath());
+    	journal.setActionsText(OpenmrsUtil.join(Arrays.asList(lines), "\n"));
+    	journal.setCompletedActions(completedActions);
+    	return journal;
+    }
+    
+	/**
+     * @see ModuleDistroServiceImpl#getActionsToResume(DeploymentJournal)
+     * @verifies install omods from the pending folder
+     */
+    @Test
+    public void getActionsToResume_shouldInstallOmodsFromThePendingFolder() throws Exception {
+    	File omod = writeTempFile("a 2.0");
+    	DeploymentJournal journal = newJournal(omod.getParentFile(), 0, "STOP\ta\t1.0\t", "REMOVE\ta\t1.0\t",
+    	    "INSTALL\ta\t2.0\t" + omod.getName(), "START\ta\t2.0\t");
+    	List<ModuleAction> actions = serviceImpl.getActionsToResume(journal);
+    	// a is not loaded, so it has already been stopped and removed
+    	Assert.assertEquals(2, actions.size());
+    	Assert.assertEquals(Action.INSTALL, actions.get(0).getAction());
+    	UploadedModule installed = (UploadedModule) actions.get(0).getTarget();
+    	Assert.assertEquals(omod, installed.getData());
+    	Assert.assertEquals("2.0", installed.getModuleVersion());
+    	Assert.assertEquals(Action.START, actions.get(1).getAction());
+    	Assert.assertSame(installed, actions.get(1).getTarget());
+    }
+    
+	/**
+     * @see ModuleDistroServiceImpl#getActionsToResume(DeploymentJournal)
+     * @verifies leave out the actions that were completed
+     */
+    @Test
+    public void getActionsToResume_shouldLeaveOutTheActionsThatWereCompleted() throws Exception {
+    	File omod = writeTempFile("b 1.0");
+    	DeploymentJournal journal = newJournal(omod.getParentFile(), 2, "INSTALL\ta\t1.0\ta-already-installed.omod",
+    	    "START\ta\t1.0\t", "INSTALL\tb\t1.0\t" + omod.getName(), "START\tb\t1.0\t");
+    	List<ModuleAction> actions = serviceImpl.getActionsToResume(journal);
+    	Assert.assertEquals(2, actions.size());
+    	Assert.assertEquals("b", ((UploadedModule) actions.get(0).getTarget()).getModuleId());
+    	Assert.assertEquals(Action.START, actions.get(1).getAction());
+    }
+    
+	/**
+     * @see ModuleDistroServiceImpl#isNothingToDo(List)
+     * @verifies return true if every omod is skipped
+     */
+    @Test
+    public void isNothingToDo_shouldReturnTrueIfEveryOmodIsSkipped() throws Exception {
+    	UploadedModule a = serviceImpl.new UploadedModule("a-1.0.omod", null);
+    	a.setAction(Action.SKIP);
+    	UploadedModule b = serviceImpl.new UploadedModule("b-1.0.omod", null);
+    	b.setAction(Action.SKIP);
+    	Assert.assertTrue(serviceImpl.isNothingToDo(Arrays.asList(a, b)));
+    }
+    
+	/**
+     * @see ModuleDistroServiceImpl#isNothingToDo(List)
+     * @verifies return false if an omod is to be started
+     */
+    @Test
+    public void isNothingToDo_shouldReturnFalseIfAnOmodIsToBeStarted() throws Exception {
+    	UploadedModule a = serviceImpl.new UploadedModule("a-1.0.omod", null);
+    	a.setAction(Action.SKIP);
+    	UploadedModule b = serviceImpl.new UploadedModule("b-1.0.omod", null);
+    	b.setAction(Action.START);
+    	Assert.assertFalse(serviceImpl.isNothingToDo(Arrays.asList(a, b)));
+    }
+    
+	/**
+     * @see ModuleDistroServiceImpl#toDeploymentPlan(List)
+     * @verifies describe each action by the version it applies to
+     */
+    @Test
+    public void toDeploymentPlan_shouldDescribeEachActionByTheVersionItAppliesTo() throws Exception {
+    	Module installed = new Module("reporting", "reporting", "org.openmrs.module.reporting", null, null, "0.6");
+    	UploadedModule upgrade = serviceImpl.new UploadedModule("reporting-0.7.omod", null);
+    	upgrade.setModuleId("reporting");
+    	upgrade.setModuleVersion("0.7");
+    	DeploymentPlan plan = ModuleDistroServiceImpl.toDeploymentPlan(Arrays.asList(new ModuleAction(Action.STOP, installed),
+    	    new ModuleAction(Action.INSTALL, upgrade)));
+    	Assert.assertEquals(2, plan.getActions().size());
+    	Assert.assertEquals(DeploymentPlan.PlannedAction.STOP, plan.getActions().get(0).getAction());
+    	Assert.assertEquals("reporting", plan.getActions().get(0).getModuleId());
+    	Assert.assertEquals("0.6", plan.getActions().get(0).getVersion());
+    	Assert.assertEquals(DeploymentPlan.PlannedAction.INSTALL, plan.getActions().get(1).getAction());
+    	Assert.assertEquals("0.7", plan.getActions().get(1).getVersion());
+    }
+    
+}
@@ -0,0 +1,89 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.moduledistro.api.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OmodBufferTest {
+	
+	private static final int BUDGET = 4 * OmodBuffer.CHUNK_SIZE;
+	
+	Semaphore budget = new Semaphore(BUDGET);
+	
+	private byte[] randomBytes(int length) {
+		byte[] ret = new byte[length];
+		new Random(length).nextBytes(ret);
+		return ret;
+	}
+	
+	/**
+	 * @see OmodBuffer#readUpTo(InputStream,int)
+	 * @verifies read back exactly what was read
+	 */
+	@Test
+	public void readUpTo_shouldReadBackExactlyWhatWasRead() throws Exception {
+		byte[] omod = randomBytes(2 * OmodBuffer.CHUNK_SIZE + 5);
+		OmodBuffer buffer = new OmodBuffer(budget);
+		Assert.assertTrue(buffer.readUpTo(new ByteArrayInputStream(omod), BUDGET));
+		Assert.assertEquals(omod.length, buffer.getSize());
+		Assert.assertTrue(Arrays.equals(omod, IOUtils.toByteArray(buffer.getInputStream())));
+		// and again
+		Assert.assertTrue(Arrays.equals(omod, IOUtils.toByteArray(buffer.getInputStream())));
+		Assert.assertEquals(BUDGET - 3 * OmodBuffer.CHUNK_SIZE, budget.availablePermits());
+	}
+	
+	/**
+	 * @see OmodBuffer#readUpTo(InputStream,int)
+	 * @verifies stop once more than max bytes have been read
+	 */
+	@Test
+	public void readUpTo_shouldStopOnceMoreThanMaxBytesHaveBeenRead() throws Exception {
+		byte[] omod = randomBytes(3 * OmodBuffer.CHUNK_SIZE);
+		InputStream in = new ByteArrayInputStream(omod);
+		OmodBuffer buffer = new OmodBuffer(budget);
+		Assert.assertFalse(buffer.readUpTo(in, OmodBuffer.CHUNK_SIZE));
+		Assert.assertEquals(2 * OmodBuffer.CHUNK_SIZE, buffer.getSize());
+		// the rest is left to be read
+		byte[] whole = IOUtils.toByteArray(new SequenceInputStream(buffer.getInputStream(), in));
+		Assert.assertTrue(Arrays.equals(omod, whole));
+	}
+	
+	/**
+	 * @see OmodBuffer#release()
+	 * @verifies pay back the budget
+	 */
+	@Test
+	public void release_shouldPayBackTheBudget() throws Exception {
+		OmodBuffer first = new OmodBuffer(budget);
+		first.readUpTo(new ByteArrayInputStream(randomBytes(OmodBuffer.CHUNK_SIZE)), BUDGET);
+		OmodBuffer second = new OmodBuffer(budget);
+		second.readUpTo(new ByteArrayInputStream(randomBytes(10)), BUDGET);
+		Assert.assertEquals(BUDGET - 2 * OmodBuffer.CHUNK_SIZE, budget.availablePermits());
+		
+		first.release();
+		second.release();
+		Assert.assertEquals(BUDGET, budget.availablePermits());
+		Assert.assertEquals(0, first.getSize());
+	}
+	
+}
@@ -0,0 +1,131 @@
+package org.openmrs.module.moduledistro.api.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class OmodMetadataReaderTest {
+	
+	OmodMetadataReader reader;
+	
+	@Before
+	public void beforeEachTest() {
+		reader = new OmodMetadataReader();
+	}
+	
+	private OmodMetadata read(String configXml) throws Exception {
+		return reader.read(new ByteArrayInputStream(configXml.getBytes("UTF-8")));
+	}
+	
+	/**
+	 * @see OmodMetadataReader#read(java.io.InputStream)
+	 * @verifies read id, version, package and require_version
+	 */
+	@Test
+	public void read_shouldReadIdVersionPackageAndRequire_version() throws Exception {
+		OmodMetadata metadata = read("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+		        + "<!DOCTYPE module PUBLIC \"-//OpenMRS//DTD OpenMRS Config 1.2//EN\" \"http://resources.openmrs.org/doctype/config-1.2.dtd\">\n"
+		        + "<module configVersion=\"1.2\"><id> reporting </id><name>Reporting</name><version>0.7.2</version>"
+		        + "<package>org.openmrs.module.reporting</package><require_version>1.8.3</require_version></module>");
+		Assert.assertEquals("reporting", metadata.getModuleId());
+		Assert.assertEquals("0.7.2", metadata.getVersion());
+		Assert.assertEquals("org.openmrs.module.reporting", metadata.getPackageName());
+		Assert.assertEquals("1.8.3", metadata.getRequireVersion());
+		Assert.assertEquals(0, metadata.getRequiredModules().size());
+	}
+	
+	/**
+	 * @see OmodMetadataReader#read(java.io.InputStream)
+	 * @verifies read the activator
+	 */
+	@Test
+	public void read_shouldReadTheActivator() throws Exception {
+		OmodMetadata metadata = read("<module><id>ui</id><version>1.0</version><package>org.openmrs.module.ui</package>"
+		        + "<activator> org.openmrs.module.ui.UiActivator </activator></module>");
+		Assert.assertEquals("org.openmrs.module.ui.UiActivator", metadata.getActivatorName());
+	}
+	
+	/**
+	 * @see OmodMetadataReader#read(java.io.InputStream)
+	 * @verifies read required modules and their versions
+	 */
+	@Test
+	public void read_shouldReadRequiredModulesAndTheirVersions() throws Exception {
+		OmodMetadata metadata = read("<module><id>ui</id><version>1.0</version><package>org.openmrs.module.ui</package>"
+		        + "<require_modules><require_module version=\"1.3\">org.openmrs.module.uiframework</require_module>"
+		        + "<require_module>org.openmrs.module.uilibrary</require_module></require_modules></module>");
+		Assert.assertEquals(2, metadata.getRequiredModules().size());
+		Assert.assertEquals("1.3", metadata.getRequiredModules().get("org.openmrs.module.uiframework"));
+		Assert.assertTrue(metadata.getRequiredModules().containsKey("org.openmrs.module.uilibrary"));
+		Assert.assertNull(metadata.getRequiredModules().get("org.openmrs.module.uilibrary"));
+	}
+	
+	/**
+	 * @see OmodMetadataReader#read(java.io.InputStream)
+	 * @verifies ignore version elements that are not direct children of module
+	 */
+	@Test
+	public void read_shouldIgnoreVersionElementsThatAreNotDirectChildrenOfModule() throws Exception {
+		OmodMetadata metadata = read("<module><id>ui</id><dwr><allow><version>9.9</version></allow></dwr>"
+		        + "<version>1.0</version></module>");
+		Assert.assertEquals("1.0", metadata.getVersion());
+	}
+	
+	/**
+	 * @see OmodMetadataReader#readOmod(File)
+	 */
+	@Test
+	public void readOmod_shouldReadTheConfigxmlOfAnOmod() throws Exception {
+		File module = new File("src/test/resources/org/openmrs/module/moduledistro/include/appframework-1.0.omod");
+		OmodMetadata metadata = reader.readOmod(module);
+		Assert.assertEquals("appframework", metadata.getModuleId());
+		Assert.assertEquals("1.0", metadata.getVersion());
+	}
+	
+	private byte[] zip(String entryName, String contents) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ZipOutputStream zip = new ZipOutputStream(out);
+		zip.putNextEntry(new ZipEntry("org/openmrs/module/test/TestActivator.class"));
+		zip.write(new byte[1024]);
+		zip.putNextEntry(new ZipEntry(entryName));
+		zip.write(contents.getBytes("UTF-8"));
+		zip.close();
+		return out.toByteArray();
+	}
+	
+	/**
+	 * @see OmodMetadataReader#readOmod(java.io.InputStream)
+	 * @verifies read the metadata from the contents of an omod
+	 */
+	@Test
+	public void readOmod_shouldReadTheMetadataFromTheContentsOfAnOmod() throws Exception {
+		OmodMetadata metadata = reader.readOmod(new ByteArrayInputStream(zip("config.xml",
+		    "<module><id>test</id><version>1.2</version><package>org.openmrs.module.test</package></module>")));
+		Assert.assertEquals("test", metadata.getModuleId());
+		Assert.assertEquals("1.2", metadata.getVersion());
+		Assert.assertEquals("org.openmrs.module.test", metadata.getPackageName());
+	}
+	
+	/**
+	 * @see OmodMetadataReader#readOmod(java.io.InputStream)
+	 * @verifies fail if the omod has no config.xml
+	 */
+	@Test
+	public void readOmod_shouldFailIfTheOmodHasNoConfigxml() throws Exception {
+		try {
+			reader.readOmod(new ByteArrayInputStream(zip("other.xml", "<module/>")));
+			Assert.fail("should have failed");
+		}
+		catch (IOException ex) {
+			Assert.assertEquals("Cannot find config.xml", ex.getMessage());
+		}
+	}
+	
+}
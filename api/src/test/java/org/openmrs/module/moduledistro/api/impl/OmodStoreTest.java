@@ -0,0 +1,124 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.moduledistro.api.impl;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.module.moduledistro.StoredOmod;
+
+public class OmodStoreTest {
+	
+	File folder;
+	
+	OmodStore store;
+	
+	@Before
+	public void beforeEachTest() throws Exception {
+		folder = File.createTempFile("omodstore", "");
+		folder.delete();
+		folder.mkdir();
+		store = new OmodStore(new File(folder, "store"), Collections.<StoredOmod> emptyList());
+	}
+	
+	@After
+	public void afterEachTest() throws Exception {
+		FileUtils.deleteQuietly(folder);
+	}
+	
+	private File writeOmod(String contents) throws Exception {
+		File file = new File(folder, "test-1.0.omod");
+		FileUtils.writeStringToFile(file, contents);
+		return file;
+	}
+	
+	private StoredOmod newStoredOmod(File file, long crc) throws Exception {
+		StoredOmod omod = new StoredOmod();
+		omod.setDigest(Digests.sha256(file));
+		omod.setModuleId("test");
+		omod.setVersion("1.0");
+		omod.setCrc(crc);
+		omod.setSize(file.length());
+		Map<String, String> required = new LinkedHashMap<String, String>();
+		required.put("org.openmrs.module.other", "1.2");
+		required.put("org.openmrs.module.anyversion", null);
+		omod.setRequiredModules(required);
+		return omod;
+	}
+	
+	/**
+	 * @see OmodStore#put(File,StoredOmod)
+	 * @verifies leave the original file and store a copy under its digest
+	 */
+	@Test
+	public void put_shouldLeaveTheOriginalFileAndStoreACopyUnderItsDigest() throws Exception {
+		File file = writeOmod("omod contents");
+		StoredOmod omod = newStoredOmod(file, 123);
+		
+		Assert.assertTrue(store.put(file, omod));
+		Assert.assertTrue(file.isFile());
+		Assert.assertEquals("omod contents", FileUtils.readFileToString(store.getFile(omod.getDigest())));
+		Assert.assertSame(omod, store.get(omod.getDigest()));
+		Assert.assertFalse(store.put(file, omod));
+	}
+	
+	/**
+	 * @see OmodStore#getMetadata(String)
+	 * @verifies return the stored metadata including required modules
+	 */
+	@Test
+	public void getMetadata_shouldReturnTheStoredMetadataIncludingRequiredModules() throws Exception {
+		File file = writeOmod("omod contents");
+		StoredOmod omod = newStoredOmod(file, 123);
+		store.put(file, omod);
+		
+		// as if it had been read back from the database
+		StoredOmod reloaded = new StoredOmod();
+		reloaded.setDigest(omod.getDigest());
+		reloaded.setModuleId(omod.getModuleId());
+		reloaded.setVersion(omod.getVersion());
+		reloaded.setRequiredModulesText(omod.getRequiredModulesText());
+		OmodMetadata metadata = new OmodStore(store.getFolder(), Collections.singletonList(reloaded)).getMetadata(omod.getDigest());
+		
+		Assert.assertEquals("test", metadata.getModuleId());
+		Assert.assertEquals("1.2", metadata.getRequiredModules().get("org.openmrs.module.other"));
+		Assert.assertTrue(metadata.getRequiredModules().containsKey("org.openmrs.module.anyversion"));
+		Assert.assertNull(metadata.getRequiredModules().get("org.openmrs.module.anyversion"));
+	}
+	
+	/**
+	 * @see OmodStore#findByCrcAndSize(long,long)
+	 * @verifies only find omods whose file is still in the store
+	 */
+	@Test
+	public void findByCrcAndSize_shouldOnlyFindOmodsWhoseFileIsStillInTheStore() throws Exception {
+		File file = writeOmod("omod contents");
+		StoredOmod omod = newStoredOmod(file, 123);
+		store.put(file, omod);
+		Assert.assertEquals(omod.getDigest(), store.findByCrcAndSize(123, file.length()));
+		Assert.assertNull(store.findByCrcAndSize(124, file.length()));
+		
+		store.getFile(omod.getDigest()).delete();
+		Assert.assertNull(store.findByCrcAndSize(123, file.length()));
+		Assert.assertNull(store.get(omod.getDigest()));
+	}
+	
+}
@@ -0,0 +1,77 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.moduledistro.api.impl;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.module.Module;
+
+public class RepositorySnapshotTest {
+	
+	File repository;
+	
+	@Before
+	public void beforeEachTest() throws Exception {
+		repository = File.createTempFile("repository", "");
+		repository.delete();
+		repository.mkdir();
+		RepositorySnapshot.setFolder(new File(repository, RepositorySnapshot.SNAPSHOT_FOLDER));
+	}
+	
+	@After
+	public void afterEachTest() throws Exception {
+		RepositorySnapshot.setFolder(null);
+		FileUtils.deleteQuietly(repository);
+	}
+	
+	private Module loadedModule(String moduleId, String version) throws Exception {
+		File omod = new File(repository, moduleId + "-" + version + ".omod");
+		FileUtils.writeStringToFile(omod, moduleId + " " + version);
+		Module module = new Module(moduleId, moduleId, "org.openmrs.module." + moduleId, null, null, version);
+		module.setFile(omod);
+		return module;
+	}
+	
+	/**
+	 * @see RepositorySnapshot#take(java.util.Collection)
+	 * @verifies replace the previous snapshot
+	 */
+	@Test
+	public void take_shouldReplaceThePreviousSnapshot() throws Exception {
+		Assert.assertNull(RepositorySnapshot.read());
+		
+		Module reporting = loadedModule("reporting", "1.0");
+		RepositorySnapshot.take(Arrays.asList(reporting, loadedModule("htmlformentry", "2.0")));
+		Assert.assertEquals(2, RepositorySnapshot.read().size());
+		
+		Assert.assertTrue(reporting.getFile().delete());
+		RepositorySnapshot.take(Arrays.asList(loadedModule("reporting", "1.1")));
+		
+		List<RepositorySnapshot.Entry> entries = RepositorySnapshot.read();
+		Assert.assertEquals(1, entries.size());
+		Assert.assertEquals("reporting", entries.get(0).getModuleId());
+		Assert.assertEquals("1.1", entries.get(0).getVersion());
+		Assert.assertEquals("reporting 1.1", FileUtils.readFileToString(entries.get(0).getFile()));
+		Assert.assertFalse(new File(RepositorySnapshot.getFolder(), "htmlformentry-2.0.omod").exists());
+		Assert.assertNotNull(RepositorySnapshot.getDateTaken());
+	}
+	
+}
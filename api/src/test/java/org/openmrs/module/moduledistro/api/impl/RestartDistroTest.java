@@ -0,0 +1,120 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.moduledistro.api.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.module.Module;
+import org.openmrs.module.moduledistro.DeploymentJob;
+import org.openmrs.module.moduledistro.DeploymentResult;
+import org.openmrs.module.moduledistro.DeploymentResult.ActionRecord;
+import org.openmrs.module.moduledistro.api.impl.ModuleDistroServiceImpl.Action;
+import org.openmrs.module.moduledistro.api.impl.ModuleDistroServiceImpl.ModuleAction;
+import org.openmrs.module.moduledistro.api.impl.ModuleDistroServiceImpl.UploadedModule;
+
+public class RestartDistroTest {
+	
+	File folder;
+	
+	@Before
+	public void beforeEachTest() throws Exception {
+		folder = File.createTempFile("restart", "");
+		folder.delete();
+		folder.mkdir();
+		RestartDistro.setFolder(folder);
+	}
+	
+	@After
+	public void afterEachTest() throws Exception {
+		RestartDistro.setFolder(null);
+		FileUtils.deleteQuietly(folder);
+	}
+	
+	/**
+	 * @see RestartDistro#stage(java.io.InputStream)
+	 * @verifies supersede a distro staged before
+	 */
+	@Test
+	public void stage_shouldSupersedeADistroStagedBefore() throws Exception {
+		File first = RestartDistro.stage(new ByteArrayInputStream(new byte[] { 1 }));
+		File second = RestartDistro.stage(new ByteArrayInputStream(new byte[] { 2, 2 }));
+		Assert.assertFalse(first.exists());
+		Assert.assertEquals(second, RestartDistro.getPendingDistro());
+		Assert.assertEquals(2, second.length());
+		Assert.assertEquals(1, folder.list().length);
+	}
+	
+	/**
+	 * @see RestartDistro#writeResult(DeploymentResult,Throwable,java.io.Writer)
+	 * @verifies write a result that can be read back
+	 */
+	@Test
+	public void writeResult_shouldWriteAResultThatCanBeReadBack() throws Exception {
+		DeploymentResult result = new DeploymentResult();
+		result.log("Removed reporting version 0.6");
+		result.log("a line\twith a tab,\na newline and a \\ backslash");
+		result.addAction(new ActionRecord("REMOVE", "reporting", "0.6", null, 3, -1));
+		result.addPhaseTime(DeploymentResult.PHASE_PLAN, 12);
+		result.addBytesExtracted(1024);
+		StringWriter out = new StringWriter();
+		RestartDistro.writeResult(result, new RuntimeException("Cannot deploy this distro"), out);
+		
+		DeploymentJob job = RestartDistro.readResult("job", new StringReader(out.toString()));
+		Assert.assertEquals(DeploymentJob.Status.FAILED, job.getStatus());
+		Assert.assertEquals("Cannot deploy this distro", job.getError());
+		Assert.assertEquals(result.getLog(), job.getResult().getLog());
+		ActionRecord action = job.getResult().getActions().get(0);
+		Assert.assertEquals("REMOVE", action.getAction());
+		Assert.assertEquals("reporting", action.getModuleId());
+		Assert.assertEquals("0.6", action.getOldVersion());
+		Assert.assertNull(action.getNewVersion());
+		Assert.assertEquals(3, action.getWallMillis());
+		Assert.assertEquals(Long.valueOf(12), job.getResult().getPhaseMillis().get(DeploymentResult.PHASE_PLAN));
+		Assert.assertEquals(1024, job.getResult().getBytesExtracted());
+	}
+	
+	/**
+	 * @see RestartDistro#newPlanner(java.util.Collection)
+	 * @verifies plan as if every loaded module is started
+	 */
+	@Test
+	public void newPlanner_shouldPlanAsIfEveryLoadedModuleIsStarted() throws Exception {
+		// at shutdown, core has already stopped uiframework, but it is still loaded and will be started at startup
+		Module uiframework = new Module("uiframework", "uiframework", "org.openmrs.module.uiframework", null, null, "1.0");
+		UploadedModule appui = new ModuleDistroServiceImpl().new UploadedModule("appui.omod", null);
+		appui.setModuleId("appui");
+		appui.setModuleVersion("1.0");
+		appui.setPackageName("org.openmrs.module.appui");
+		appui.getRequiredModules().put("org.openmrs.module.uiframework", null);
+		appui.setAction(Action.INSTALL);
+		
+		List<ModuleAction> actions = RestartDistro.newPlanner(Arrays.asList(uiframework)).plan(
+		    Collections.singletonList(appui));
+		
+		Assert.assertEquals(Action.INSTALL, actions.get(0).getAction());
+		Assert.assertSame(appui, actions.get(0).getTarget());
+	}
+	
+}
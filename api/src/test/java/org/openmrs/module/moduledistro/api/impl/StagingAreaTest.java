@@ -0,0 +1,91 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.moduledistro.api.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StagingAreaTest {
+	
+	File folder;
+	
+	@Before
+	public void beforeEachTest() throws Exception {
+		folder = File.createTempFile("staging", "");
+		folder.delete();
+		folder.mkdir();
+	}
+	
+	@After
+	public void afterEachTest() throws Exception {
+		FileUtils.deleteQuietly(folder);
+	}
+	
+	private StagingArea newStagingArea(String name, long quotaBytes) {
+		File stagingFolder = new File(folder, name);
+		stagingFolder.mkdir();
+		return new StagingArea(stagingFolder, quotaBytes);
+	}
+	
+	/**
+	 * @see StagingArea#write(String,java.io.InputStream)
+	 * @verifies fail and delete the file if the quota would be exceeded
+	 */
+	@Test
+	public void write_shouldFailAndDeleteTheFileIfTheQuotaWouldBeExceeded() throws Exception {
+		StagingArea staging = newStagingArea("a", 100);
+		try {
+			staging.write("small.omod", new ByteArrayInputStream(new byte[60]));
+			try {
+				staging.write("large.omod", new ByteArrayInputStream(new byte[60]));
+				Assert.fail("should have failed");
+			}
+			catch (IOException ex) {
+				Assert.assertTrue(ex.getMessage().contains("staging quota"));
+			}
+			Assert.assertEquals(1, staging.getFolder().list().length);
+		}
+		finally {
+			staging.destroy();
+		}
+	}
+	
+	/**
+	 * @see StagingArea#destroy()
+	 * @verifies release what the staging area counted against the quota
+	 */
+	@Test
+	public void destroy_shouldReleaseWhatTheStagingAreaCountedAgainstTheQuota() throws Exception {
+		StagingArea first = newStagingArea("a", 100);
+		first.write("first.omod", new ByteArrayInputStream(new byte[60]));
+		first.destroy();
+		Assert.assertFalse(first.getFolder().exists());
+		
+		StagingArea second = newStagingArea("b", 100);
+		try {
+			second.write("second.omod", new ByteArrayInputStream(new byte[60]));
+		}
+		finally {
+			second.destroy();
+		}
+	}
+	
+}
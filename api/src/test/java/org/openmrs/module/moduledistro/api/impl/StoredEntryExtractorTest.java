@@ -0,0 +1,120 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.moduledistro.api.impl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StoredEntryExtractorTest {
+	
+	private static final String CONTENTS = "the contents of a stored omod";
+	
+	File folder;
+	
+	File zip;
+	
+	@Before
+	public void beforeEachTest() throws Exception {
+		folder = File.createTempFile("storedentries", "");
+		folder.delete();
+		folder.mkdir();
+		
+		zip = new File(folder, "distro.zip");
+		byte[] stored = CONTENTS.getBytes("UTF-8");
+		CRC32 crc = new CRC32();
+		crc.update(stored);
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip));
+		out.putNextEntry(new ZipEntry("deflated.omod"));
+		out.write("the contents of a deflated omod".getBytes("UTF-8"));
+		ZipEntry entry = new ZipEntry("distro/stored.omod");
+		entry.setMethod(ZipEntry.STORED);
+		entry.setSize(stored.length);
+		entry.setCrc(crc.getValue());
+		out.putNextEntry(entry);
+		out.write(stored);
+		out.close();
+	}
+	
+	@After
+	public void afterEachTest() throws Exception {
+		FileUtils.deleteQuietly(folder);
+	}
+	
+	/**
+	 * @see StoredEntryExtractor#extract(ZipEntry,File)
+	 * @verifies extract a stored entry
+	 */
+	@Test
+	public void extract_shouldExtractAStoredEntry() throws Exception {
+		ZipFile zf = new ZipFile(zip);
+		StoredEntryExtractor extractor = new StoredEntryExtractor(zip);
+		try {
+			Assert.assertFalse(extractor.canExtract(zf.getEntry("deflated.omod")));
+			ZipEntry entry = zf.getEntry("distro/stored.omod");
+			Assert.assertTrue(extractor.canExtract(entry));
+			File target = new File(folder, "stored.omod");
+			String digest = extractor.extract(entry, target);
+			Assert.assertEquals(CONTENTS, FileUtils.readFileToString(target));
+			Assert.assertEquals(Digests.sha256(CONTENTS), digest);
+		}
+		finally {
+			extractor.close();
+			zf.close();
+		}
+	}
+	
+	/**
+	 * @see StoredEntryExtractor#extract(ZipEntry,File)
+	 * @verifies fail if the entry is corrupt
+	 */
+	@Test
+	public void extract_shouldFailIfTheEntryIsCorrupt() throws Exception {
+		ZipFile zf = new ZipFile(zip);
+		ZipEntry entry = zf.getEntry("distro/stored.omod");
+		zf.close();
+		
+		// overwrite the first byte of the stored contents
+		byte[] bytes = FileUtils.readFileToByteArray(zip);
+		int at = new String(bytes, "ISO-8859-1").indexOf(CONTENTS);
+		RandomAccessFile file = new RandomAccessFile(zip, "rw");
+		file.seek(at);
+		file.write('T');
+		file.close();
+		
+		StoredEntryExtractor extractor = new StoredEntryExtractor(zip);
+		try {
+			extractor.extract(entry, new File(folder, "stored.omod"));
+			Assert.fail("should have failed");
+		}
+		catch (IOException ex) {
+			Assert.assertTrue(ex.getMessage().contains("CRC-32"));
+		}
+		finally {
+			extractor.close();
+		}
+	}
+	
+}
@@ -0,0 +1,81 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.moduledistro.api.impl;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openmrs.module.Module;
+import org.openmrs.module.moduledistro.api.impl.ModuleDistroServiceImpl.Action;
+import org.openmrs.module.moduledistro.api.impl.ModuleDistroServiceImpl.ModuleAction;
+import org.openmrs.module.moduledistro.api.impl.ModuleDistroServiceImpl.UploadedModule;
+
+/**
+ * Planning a deployment with {@link DeploymentPlanner}, as every deployment and dry run does. A fresh install is
+ * dominated by ordering the START actions; upgrading the module everything else depends on also exercises finding and
+ * ordering the running dependents that have to be stopped and restarted.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class DeploymentPlannerBenchmark {
+	
+	@Param( { "10", "100", "500" })
+	public int omods;
+	
+	private List<UploadedModule> installs;
+	
+	private List<Module> running;
+	
+	private List<UploadedModule> upgradeFirst;
+	
+	@Setup
+	public void createCandidates() {
+		ModuleDistroServiceImpl service = new ModuleDistroServiceImpl();
+		SyntheticDistro distro = new SyntheticDistro(omods, 42);
+		installs = distro.newCandidates(service, "1.0", Action.INSTALL, null);
+		
+		running = distro.newRunningModules("1.0");
+		upgradeFirst = distro.newCandidates(service, "1.0", Action.SKIP, running);
+		UploadedModule first = upgradeFirst.get(0);
+		first.setModuleVersion("1.1");
+		first.setAction(Action.UPGRADE);
+	}
+	
+	@Benchmark
+	public List<ModuleAction> planFreshInstall() {
+		return new DeploymentPlanner(Collections.<Module> emptyList(), Collections.<Module> emptyList()).plan(installs);
+	}
+	
+	@Benchmark
+	public List<ModuleAction> planUpgradeOfMostRequiredModule() {
+		return new DeploymentPlanner(running, running).plan(upgradeFirst);
+	}
+	
+}
@@ -0,0 +1,113 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.moduledistro.api.impl;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openmrs.module.moduledistro.api.impl.ModuleDistroServiceImpl.UploadedModule;
+
+/**
+ * Extracting and inspecting every omod in a distro, with {@link DistroReader}, from a file and from a stream. Omods
+ * stored rather than deflated in the distro are extracted from a file with {@link StoredEntryExtractor}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class DistroExtractionBenchmark {
+	
+	@Param( { "10", "100", "500" })
+	public int omods;
+	
+	@Param( { "1", "4" })
+	public int threads;
+	
+	@Param( { "DEFLATED", "STORED" })
+	public String entries;
+	
+	private File workFolder;
+	
+	private File distro;
+	
+	private ModuleDistroServiceImpl service;
+	
+	private StagingArea staging;
+	
+	@Setup(Level.Trial)
+	public void writeDistro() throws IOException {
+		workFolder = SyntheticDistro.createTempFolder();
+		distro = new SyntheticDistro(omods, 42).writeDistro(new File(workFolder, "distro.zip"), "1.0",
+		    "STORED".equals(entries) ? ZipEntry.STORED : ZipEntry.DEFLATED);
+		service = new ModuleDistroServiceImpl();
+	}
+	
+	@Setup(Level.Invocation)
+	public void createStagingArea() throws IOException {
+		File folder = File.createTempFile("staging", "", workFolder);
+		if (!folder.delete() || !folder.mkdir())
+			throw new IOException("Cannot create " + folder);
+		staging = new StagingArea(folder);
+	}
+	
+	@TearDown(Level.Invocation)
+	public void destroyStagingArea() {
+		staging.destroy();
+	}
+	
+	@TearDown(Level.Trial)
+	public void deleteDistro() {
+		FileUtils.deleteQuietly(workFolder);
+	}
+	
+	@Benchmark
+	public List<UploadedModule> readFile() throws IOException {
+		return new DistroReader(service, staging, threads).read(distro);
+	}
+	
+	@Benchmark
+	public List<UploadedModule> readStream() throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(distro));
+		try {
+			return new DistroReader(service, staging, threads).read(in);
+		}
+		finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+	
+}
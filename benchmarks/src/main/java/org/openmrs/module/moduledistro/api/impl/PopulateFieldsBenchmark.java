@@ -0,0 +1,81 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.moduledistro.api.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openmrs.module.moduledistro.api.impl.ModuleDistroServiceImpl.UploadedModule;
+
+/**
+ * {@link ModuleDistroServiceImpl#populateFields(UploadedModule)} on every omod of a distro that has already been
+ * extracted, one after another
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class PopulateFieldsBenchmark {
+	
+	@Param( { "10", "100", "500" })
+	public int omods;
+	
+	private File workFolder;
+	
+	private List<File> files;
+	
+	private ModuleDistroServiceImpl service;
+	
+	@Setup
+	public void writeOmods() throws IOException {
+		workFolder = SyntheticDistro.createTempFolder();
+		files = new SyntheticDistro(omods, 42).writeOmods(workFolder, "1.0");
+		service = new ModuleDistroServiceImpl();
+	}
+	
+	@TearDown
+	public void deleteOmods() {
+		FileUtils.deleteQuietly(workFolder);
+	}
+	
+	@Benchmark
+	public List<UploadedModule> populateFields() throws IOException {
+		List<UploadedModule> ret = new ArrayList<UploadedModule>(files.size());
+		for (File file : files) {
+			UploadedModule candidate = service.new UploadedModule(file.getName(), file);
+			service.populateFields(candidate);
+			ret.add(candidate);
+		}
+		return ret;
+	}
+	
+}
@@ -0,0 +1,272 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.moduledistro.api.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.openmrs.module.Module;
+import org.openmrs.module.moduledistro.api.impl.ModuleDistroServiceImpl.Action;
+import org.openmrs.module.moduledistro.api.impl.ModuleDistroServiceImpl.UploadedModule;
+
+/**
+ * Generates distros of synthetic modules for benchmarking. Module i requires up to three modules with lower numbers,
+ * picked at random (but reproducibly, from the seed), so every generated dependency graph is acyclic.
+ */
+public class SyntheticDistro {
+	
+	/**
+	 * Roughly the compressed size of a small real omod
+	 */
+	private static final int PAYLOAD_BYTES = 32 * 1024;
+	
+	private static final int MAX_REQUIRED = 3;
+	
+	private int size;
+	
+	private List<List<Integer>> required = new ArrayList<List<Integer>>();
+	
+	private byte[] payload;
+	
+	/**
+	 * @param size how many modules
+	 * @param seed
+	 */
+	public SyntheticDistro(int size, long seed) {
+		this.size = size;
+		Random random = new Random(seed);
+		for (int i = 0; i < size; ++i) {
+			List<Integer> req = new ArrayList<Integer>();
+			int count = Math.min(i, random.nextInt(MAX_REQUIRED + 1));
+			while (req.size() < count) {
+				int candidate = random.nextInt(i);
+				if (!req.contains(candidate))
+					req.add(candidate);
+			}
+			required.add(req);
+		}
+		// random bytes do not compress, like the classes and jars in a real omod mostly don't
+		payload = new byte[PAYLOAD_BYTES];
+		random.nextBytes(payload);
+	}
+	
+	/**
+	 * @return how many modules
+	 */
+	public int getSize() {
+		return size;
+	}
+	
+	public String getModuleId(int i) {
+		return "synthetic" + i;
+	}
+	
+	public String getPackageName(int i) {
+		return "org.openmrs.module." + getModuleId(i);
+	}
+	
+	/**
+	 * @param i
+	 * @return the package names of the modules that module i requires, mapped to the version required
+	 */
+	public Map<String, String> getRequiredModules(int i) {
+		Map<String, String> ret = new LinkedHashMap<String, String>();
+		for (Integer req : required.get(i)) {
+			ret.put(getPackageName(req), "1.0");
+		}
+		return ret;
+	}
+	
+	/**
+	 * @param i
+	 * @param version
+	 * @return the contents of an omod for module i
+	 * @throws IOException
+	 */
+	public byte[] buildOmod(int i, String version) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(PAYLOAD_BYTES + 4096);
+		ZipOutputStream zos = new ZipOutputStream(bytes);
+		zos.putNextEntry(new ZipEntry("config.xml"));
+		zos.write(buildConfigXml(i, version).getBytes("UTF-8"));
+		zos.closeEntry();
+		zos.putNextEntry(new ZipEntry("lib/" + getModuleId(i) + "-api-" + version + ".jar"));
+		zos.write(payload);
+		zos.closeEntry();
+		zos.close();
+		return bytes.toByteArray();
+	}
+	
+	/**
+	 * Writes a distro zip with every module, at the given version
+	 * 
+	 * @param zip
+	 * @param version
+	 * @return zip
+	 * @throws IOException
+	 */
+	public File writeDistro(File zip, String version) throws IOException {
+		return writeDistro(zip, version, ZipEntry.DEFLATED);
+	}
+	
+	/**
+	 * Writes a distro zip with every module, at the given version
+	 * 
+	 * @param zip
+	 * @param version
+	 * @param method how the omods are added, {@link ZipEntry#DEFLATED} or {@link ZipEntry#STORED}
+	 * @return zip
+	 * @throws IOException
+	 */
+	public File writeDistro(File zip, String version, int method) throws IOException {
+		OutputStream out = new FileOutputStream(zip);
+		try {
+			ZipOutputStream zos = new ZipOutputStream(out);
+			for (int i = 0; i < size; ++i) {
+				byte[] omod = buildOmod(i, version);
+				ZipEntry entry = new ZipEntry("distro/" + getModuleId(i) + "-" + version + ".omod");
+				if (method == ZipEntry.STORED) {
+					CRC32 crc = new CRC32();
+					crc.update(omod);
+					entry.setMethod(ZipEntry.STORED);
+					entry.setSize(omod.length);
+					entry.setCrc(crc.getValue());
+				}
+				zos.putNextEntry(entry);
+				zos.write(omod);
+				zos.closeEntry();
+			}
+			zos.finish();
+		}
+		finally {
+			IOUtils.closeQuietly(out);
+		}
+		return zip;
+	}
+	
+	/**
+	 * Writes each omod, at the given version, as a separate file in folder
+	 * 
+	 * @param folder
+	 * @param version
+	 * @return the omod files
+	 * @throws IOException
+	 */
+	public List<File> writeOmods(File folder, String version) throws IOException {
+		List<File> ret = new ArrayList<File>();
+		for (int i = 0; i < size; ++i) {
+			File omod = new File(folder, getModuleId(i) + "-" + version + ".omod");
+			OutputStream out = new FileOutputStream(omod);
+			try {
+				out.write(buildOmod(i, version));
+			}
+			finally {
+				IOUtils.closeQuietly(out);
+			}
+			ret.add(omod);
+		}
+		return ret;
+	}
+	
+	/**
+	 * @param version
+	 * @return every module, as if it were loaded and running at the given version
+	 */
+	public List<Module> newRunningModules(String version) {
+		List<Module> ret = new ArrayList<Module>();
+		for (int i = 0; i < size; ++i) {
+			Module module = new Module(getModuleId(i), getModuleId(i), getPackageName(i), null, null, version);
+			module.setRequiredModulesMap(getRequiredModules(i));
+			ret.add(module);
+		}
+		return ret;
+	}
+	
+	/**
+	 * @param service
+	 * @param version
+	 * @param action what to do with each module
+	 * @param existing the loaded modules, for UPGRADE and SKIP (may be null for INSTALL)
+	 * @return already-inspected candidates for every module, without any files
+	 */
+	public List<UploadedModule> newCandidates(ModuleDistroServiceImpl service, String version, Action action,
+	                                          List<Module> existing) {
+		List<UploadedModule> ret = new ArrayList<UploadedModule>();
+		for (int i = 0; i < size; ++i) {
+			UploadedModule candidate = service.new UploadedModule(getModuleId(i) + "-" + version + ".omod", null);
+			candidate.setModuleId(getModuleId(i));
+			candidate.setModuleVersion(version);
+			candidate.setPackageName(getPackageName(i));
+			candidate.setRequiredModules(getRequiredModules(i));
+			candidate.setAction(action);
+			if (existing != null)
+				candidate.setExisting(existing.get(i));
+			if (Action.SKIP.equals(action))
+				candidate.setSkipReason("benchmark");
+			ret.add(candidate);
+		}
+		return ret;
+	}
+	
+	/**
+	 * @return a new, empty temporary folder
+	 * @throws IOException
+	 */
+	public static File createTempFolder() throws IOException {
+		File folder = File.createTempFile("moduledistro-benchmark", "");
+		if (!folder.delete() || !folder.mkdir())
+			throw new IOException("Cannot create " + folder);
+		return folder;
+	}
+	
+	private String buildConfigXml(int i, String version) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		sb.append("<!DOCTYPE module PUBLIC \"-//OpenMRS//DTD OpenMRS Config 1.2//EN\" \"http://resources.openmrs.org/doctype/config-1.2.dtd\">\n");
+		sb.append("<module configVersion=\"1.2\">\n");
+		sb.append("\t<id>").append(getModuleId(i)).append("</id>\n");
+		sb.append("\t<name>Synthetic Module ").append(i).append("</name>\n");
+		sb.append("\t<version>").append(version).append("</version>\n");
+		sb.append("\t<package>").append(getPackageName(i)).append("</package>\n");
+		sb.append("\t<author>Benchmarks</author>\n");
+		sb.append("\t<description>Generated for benchmarking</description>\n");
+		sb.append("\t<activator>").append(getPackageName(i)).append(".SyntheticActivator</activator>\n");
+		sb.append("\t<require_version>1.8.3</require_version>\n");
+		if (!required.get(i).isEmpty()) {
+			sb.append("\t<require_modules>\n");
+			for (Map.Entry<String, String> e : getRequiredModules(i).entrySet()) {
+				sb.append("\t\t<require_module version=\"").append(e.getValue()).append("\">").append(e.getKey()).append("</require_module>\n");
+			}
+			sb.append("\t</require_modules>\n");
+		}
+		for (int j = 0; j < 20; ++j) {
+			sb.append("\t<globalProperty><property>").append(getModuleId(i)).append(".property").append(j).append("</property>");
+			sb.append("<defaultValue/><description>Padding, like a real config.xml has</description></globalProperty>\n");
+		}
+		sb.append("</module>\n");
+		return sb.toString();
+	}
+	
+}
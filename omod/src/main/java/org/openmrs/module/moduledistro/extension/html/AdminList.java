@@ -17,6 +17,7 @@ import java.util.LinkedHashMap;
 import java.util.Map;
 
 import org.openmrs.module.Extension;
+import org.openmrs.module.moduledistro.ModuleDistroConstants;
 import org.openmrs.module.web.extension.AdministrationSectionExt;
 
 /**
@@ -39,6 +40,13 @@ public class AdminList extends AdministrationSectionExt {
 		return "moduledistro.title";
 	}
 	
+	/**
+	 * @see AdministrationSectionExt#getRequiredPrivilege()
+	 */
+	public String getRequiredPrivilege() {
+		return ModuleDistroConstants.PRIV_MANAGE_MODULES;
+	}
+	
 	/**
 	 * @see AdministrationSectionExt#getLinks()
 	 */
@@ -13,19 +13,32 @@
  */
 package org.openmrs.module.moduledistro.web.controller;
 
-import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
+import java.util.Map;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
-import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.moduledistro.DeploymentJob;
+import org.openmrs.module.moduledistro.DeploymentPlan;
+import org.openmrs.module.moduledistro.DeploymentResult;
+import org.openmrs.module.moduledistro.DeploymentResult.ActionRecord;
+import org.openmrs.module.moduledistro.DistroManifest;
+import org.openmrs.module.moduledistro.DistroManifestReader;
+import org.openmrs.module.moduledistro.ModuleDistroConstants;
 import org.openmrs.module.moduledistro.api.ModuleDistroService;
+import org.openmrs.web.WebConstants;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.ui.ModelMap;
+import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
@@ -41,26 +54,296 @@ public class ModuleDistroManagementController {
 	
 	@RequestMapping(value = "/module/moduledistro/manage", method = RequestMethod.GET)
 	public void manage(ModelMap model) {
+		Context.requirePrivilege(ModuleDistroConstants.PRIV_MANAGE_MODULES);
 		model.addAttribute("user", Context.getAuthenticatedUser());
+		model.addAttribute("storedDistros", Context.getService(ModuleDistroService.class).getRecentStoredDistros(10));
+		model.addAttribute("restartJob", Context.getService(ModuleDistroService.class).getLastRestartJob());
+		model.addAttribute("rollbackDate", Context.getService(ModuleDistroService.class).getRollbackDate());
 	}
 	
 	@RequestMapping(value = "/module/moduledistro/manage-upload", method = RequestMethod.POST)
 	public void handleUpload(@RequestParam("distributionZip") MultipartFile uploaded,
 	                         HttpServletRequest request,
 	                         Model model) {
-		// write this to a known file on disk, so we can use ZipFile, since ZipInputStream is buggy
-		File file = null;
+		Context.requirePrivilege(ModuleDistroConstants.PRIV_MANAGE_MODULES);
+		// the service stages the upload, under the staging quota, and reads it from there with ZipFile, since
+		// ZipInputStream is buggy
+		InputStream in = null;
 		try {
-			file = File.createTempFile("distribution", ".zip");
-			file.deleteOnExit();
-			FileUtils.copyInputStreamToFile(uploaded.getInputStream(), file);
+			in = uploaded.getInputStream();
+			// the distro is read during the request, but applied in the background, and the page polls for progress
+			DeploymentJob job = Context.getService(ModuleDistroService.class).submitUploadedDistro(getZipName(uploaded), in,
+			    request.getSession().getServletContext());
+			model.addAttribute("job", job);
 		}
-		catch (Exception ex) {
+		catch (IOException ex) {
 			throw new RuntimeException("Error getting uploaded data", ex);
 		}
+		finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+	
+	/**
+	 * @return the name the distro was uploaded with, without any path, so it can be recorded in the omod store
+	 */
+	private String getZipName(MultipartFile uploaded) {
+		String name = FilenameUtils.getName(uploaded.getOriginalFilename());
+		return StringUtils.hasText(name) ? name : "distribution.zip";
+	}
+	
+	/**
+	 * Saves the uploaded distro to be applied when the server next restarts, rather than now
+	 */
+	@RequestMapping(value = "/module/moduledistro/manage-upload-restart", method = RequestMethod.POST)
+	public String handleUploadForRestart(@RequestParam("distributionZip") MultipartFile uploaded,
+	                                     HttpServletRequest request) {
+		Context.requirePrivilege(ModuleDistroConstants.PRIV_MANAGE_MODULES);
+		InputStream in = null;
+		try {
+			in = uploaded.getInputStream();
+			Context.getService(ModuleDistroService.class).stageDistroForRestart(in);
+		}
+		catch (IOException ex) {
+			throw new RuntimeException("Error getting uploaded data", ex);
+		}
+		finally {
+			IOUtils.closeQuietly(in);
+		}
+		request.getSession().setAttribute(WebConstants.OPENMRS_MSG_ATTR, "moduledistro.restart.staged");
+		return "redirect:manage.form";
+	}
+	
+	/**
+	 * Shows the progress, or result, of a deployment job
+	 */
+	@RequestMapping(value = "/module/moduledistro/manage-job", method = RequestMethod.GET)
+	public String showJob(@RequestParam("id") String jobId,
+	                      Model model) {
+		Context.requirePrivilege(ModuleDistroConstants.PRIV_MANAGE_MODULES);
+		DeploymentJob job = Context.getService(ModuleDistroService.class).getDeploymentJob(jobId);
+		if (job == null)
+			throw new RuntimeException("There is no deployment job " + jobId + ", or it is too old to be remembered");
+		model.addAttribute("job", job);
+		return "module/moduledistro/manage-upload";
+	}
+	
+	@RequestMapping(value = "/module/moduledistro/manage-redeploy", method = RequestMethod.POST)
+	public String handleRedeploy(@RequestParam("digest") String distroDigest,
+	                             HttpServletRequest request,
+	                             Model model) {
+		Context.requirePrivilege(ModuleDistroConstants.PRIV_MANAGE_MODULES);
+		DeploymentJob job = Context.getService(ModuleDistroService.class).submitStoredDistro(distroDigest, request.getSession().getServletContext());
+		model.addAttribute("job", job);
+		return "module/moduledistro/manage-upload";
+	}
+	
+	/**
+	 * Rolls back the last deployment that changed the loaded modules
+	 */
+	@RequestMapping(value = "/module/moduledistro/manage-rollback", method = RequestMethod.POST)
+	public String handleRollback(HttpServletRequest request,
+	                             Model model) {
+		Context.requirePrivilege(ModuleDistroConstants.PRIV_MANAGE_MODULES);
+		DeploymentJob job = Context.getService(ModuleDistroService.class).submitRollback(request.getSession().getServletContext());
+		model.addAttribute("job", job);
+		return "module/moduledistro/manage-upload";
+	}
+	
+	/**
+	 * The first step of a delta upload. Given a distro manifest, writes the entries for the omods the server does not
+	 * have as JSON, e.g. {"missing":[{"digest":"...","filename":"...","moduleId":"...","version":"..."}]}
+	 */
+	@RequestMapping(value = "/module/moduledistro/manage-negotiate", method = RequestMethod.POST)
+	public void handleNegotiate(@RequestParam("manifest") MultipartFile manifest,
+	                            HttpServletResponse response) throws IOException {
+		if (!checkPrivilege(response))
+			return;
+		List<DistroManifest.Entry> missing = Context.getService(ModuleDistroService.class).getMissingOmods(readManifest(manifest));
+		StringBuilder json = new StringBuilder("{\"missing\":[");
+		for (int i = 0; i < missing.size(); ++i) {
+			DistroManifest.Entry omod = missing.get(i);
+			json.append(i > 0 ? "," : "").append("{\"digest\":").append(toJson(omod.getDigest()));
+			json.append(",\"filename\":").append(toJson(omod.getFilename()));
+			json.append(",\"moduleId\":").append(toJson(omod.getModuleId()));
+			json.append(",\"version\":").append(toJson(omod.getVersion())).append("}");
+		}
+		json.append("]}");
+		writeJson(response, json);
+	}
+	
+	/**
+	 * The second step of a delta upload: the same manifest, and a zip of only the omods that were missing (which may be
+	 * left out if none were). Writes the id of the deployment job as JSON, e.g. {"id":"..."}, which can then be polled.
+	 */
+	@RequestMapping(value = "/module/moduledistro/manage-upload-delta", method = RequestMethod.POST)
+	public void handleDeltaUpload(@RequestParam("manifest") MultipartFile manifest,
+	                              @RequestParam(value = "distributionZip", required = false) MultipartFile uploaded,
+	                              HttpServletRequest request,
+	                              HttpServletResponse response) throws IOException {
+		if (!checkPrivilege(response))
+			return;
+		DistroManifest distroManifest = readManifest(manifest);
+		InputStream in = uploaded == null || uploaded.isEmpty() ? null : uploaded.getInputStream();
+		try {
+			DeploymentJob job = Context.getService(ModuleDistroService.class).submitDistro(distroManifest, in, request.getSession().getServletContext());
+			writeJson(response, new StringBuilder("{\"id\":").append(toJson(job.getId())).append("}"));
+		}
+		finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+	
+	/**
+	 * A dry run, which changes nothing. Writes what deploying the uploaded distro would do as JSON, e.g.
+	 * {"empty":false,"actions":[{"action":"STOP","moduleId":"...","version":"..."}],"restarts":["..."]}, where empty
+	 * is true if uploading the distro would not stop or start any module.
+	 */
+	@RequestMapping(value = "/module/moduledistro/manage-plan", method = RequestMethod.POST)
+	public void handlePlan(@RequestParam("distributionZip") MultipartFile uploaded,
+	                       HttpServletResponse response) throws IOException {
+		if (!checkPrivilege(response))
+			return;
+		DeploymentPlan plan;
+		InputStream in = uploaded.getInputStream();
+		try {
+			plan = Context.getService(ModuleDistroService.class).planDistro(in);
+		}
+		finally {
+			IOUtils.closeQuietly(in);
+		}
+		StringBuilder json = new StringBuilder("{\"empty\":").append(plan.isEmpty());
+		json.append(",\"actions\":[");
+		for (int i = 0; i < plan.getActions().size(); ++i) {
+			DeploymentPlan.PlannedAction action = plan.getActions().get(i);
+			json.append(i > 0 ? "," : "").append("{\"action\":").append(toJson(action.getAction()));
+			json.append(",\"moduleId\":").append(toJson(action.getModuleId()));
+			json.append(",\"version\":").append(toJson(action.getVersion())).append("}");
+		}
+		json.append("],\"restarts\":[");
+		int i = 0;
+		for (String moduleId : plan.getRestartedModuleIds()) {
+			json.append(i++ > 0 ? "," : "").append(toJson(moduleId));
+		}
+		json.append("]}");
+		writeJson(response, json);
+	}
+	
+	private DistroManifest readManifest(MultipartFile manifest) {
+		InputStream in = null;
+		try {
+			in = manifest.getInputStream();
+			return new DistroManifestReader().read(in);
+		}
+		catch (IOException ex) {
+			throw new RuntimeException("Error reading distro manifest", ex);
+		}
+		finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+	
+	/**
+	 * Writes the status of a deployment job as JSON, including the lines of its log starting at index from, and once
+	 * the job has finished, its timed actions and phases
+	 */
+	@RequestMapping(value = "/module/moduledistro/job", method = RequestMethod.GET)
+	public void getJob(@RequestParam("id") String jobId,
+	                   @RequestParam(value = "from", required = false) Integer from,
+	                   HttpServletResponse response) throws IOException {
+		if (!checkPrivilege(response))
+			return;
+		DeploymentJob job = Context.getService(ModuleDistroService.class).getDeploymentJob(jobId);
+		if (job == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND, "No deployment job " + jobId);
+			return;
+		}
 		
-		List<String> log = Context.getService(ModuleDistroService.class).uploadDistro(file, request.getSession().getServletContext());
-		model.addAttribute("log", log);
+		// check this before reading the result, so a finished job's result is always complete
+		boolean finished = job.isFinished();
+		DeploymentResult result = job.getResult();
+		StringBuilder json = new StringBuilder();
+		json.append("{\"id\":").append(toJson(job.getId()));
+		json.append(",\"status\":").append(toJson(job.getStatus().name()));
+		json.append(",\"finished\":").append(finished);
+		json.append(",\"error\":").append(toJson(job.getError()));
+		json.append(",\"log\":[");
+		List<String> lines = result.getLogSince(from == null ? 0 : from);
+		for (int i = 0; i < lines.size(); ++i) {
+			json.append(i > 0 ? "," : "").append(toJson(lines.get(i)));
+		}
+		json.append("]");
+		if (finished) {
+			json.append(",\"result\":");
+			appendResult(json, result);
+		}
+		json.append("}");
+		writeJson(response, json);
+	}
+	
+	/**
+	 * Sends an error to a JSON request by anyone who may not deploy distros
+	 * 
+	 * @return whether the request may go ahead
+	 */
+	private boolean checkPrivilege(HttpServletResponse response) throws IOException {
+		if (!Context.isAuthenticated()) {
+			response.sendError(HttpServletResponse.SC_UNAUTHORIZED, "Not authenticated");
+			return false;
+		}
+		if (!Context.hasPrivilege(ModuleDistroConstants.PRIV_MANAGE_MODULES)) {
+			response.sendError(HttpServletResponse.SC_FORBIDDEN, "Requires the " + ModuleDistroConstants.PRIV_MANAGE_MODULES
+			        + " privilege");
+			return false;
+		}
+		return true;
+	}
+	
+	private void writeJson(HttpServletResponse response, CharSequence json) throws IOException {
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		response.setHeader("Cache-Control", "no-cache");
+		response.getWriter().write(json.toString());
+	}
+	
+	private void appendResult(StringBuilder json, DeploymentResult result) {
+		json.append("{\"bytesExtracted\":").append(result.getBytesExtracted());
+		json.append(",\"phases\":[");
+		boolean first = true;
+		for (Map.Entry<String, Long> e : result.getPhaseMillis().entrySet()) {
+			json.append(first ? "" : ",").append("{\"phase\":").append(toJson(e.getKey()));
+			json.append(",\"millis\":").append(e.getValue()).append("}");
+			first = false;
+		}
+		json.append("],\"actions\":[");
+		first = true;
+		for (ActionRecord action : result.getActions()) {
+			json.append(first ? "" : ",").append("{\"action\":").append(toJson(action.getAction()));
+			json.append(",\"moduleId\":").append(toJson(action.getModuleId()));
+			json.append(",\"oldVersion\":").append(toJson(action.getOldVersion()));
+			json.append(",\"newVersion\":").append(toJson(action.getNewVersion()));
+			json.append(",\"wallMillis\":").append(action.getWallMillis());
+			json.append(",\"cpuMillis\":").append(action.getCpuMillis()).append("}");
+			first = false;
+		}
+		json.append("]}");
+	}
+	
+	private String toJson(String s) {
+		if (s == null)
+			return "null";
+		StringBuilder sb = new StringBuilder("\"");
+		for (char c : s.toCharArray()) {
+			if (c == '"' || c == '\\')
+				sb.append('\\').append(c);
+			else if (c == '\n')
+				sb.append("\\n");
+			else if (c < ' ' || c == '<' || c == '>')
+				sb.append(String.format("\\u%04x", (int) c));
+			else
+				sb.append(c);
+		}
+		return sb.append('"').toString();
 	}
 
 }
@@ -5,8 +5,82 @@
 
 <h1><spring:message code="moduledistro.manage"/></h1>
 
-<pre><c:forEach var="item" items="${ log }">${ item }
-</c:forEach>
-</pre>
+<div>
+	<spring:message code="moduledistro.job.status"/>:
+	<span id="jobStatus"><c:out value="${ job.status }"/></span>
+</div>
 
-<%@ include file="/WEB-INF/template/footer.jsp"%>
\ No newline at end of file
+<pre id="jobLog"></pre>
+
+<pre id="jobError" style="display: none" class="error"></pre>
+
+<div id="jobResult" style="display: none">
+	<h3><spring:message code="moduledistro.result.actions"/></h3>
+	<table id="jobActions">
+		<tr>
+			<th><spring:message code="moduledistro.result.action"/></th>
+			<th><spring:message code="moduledistro.result.moduleId"/></th>
+			<th><spring:message code="moduledistro.result.oldVersion"/></th>
+			<th><spring:message code="moduledistro.result.newVersion"/></th>
+			<th><spring:message code="moduledistro.result.wallMillis"/></th>
+			<th><spring:message code="moduledistro.result.cpuMillis"/></th>
+		</tr>
+	</table>
+	
+	<h3><spring:message code="moduledistro.result.phases"/></h3>
+	<table id="jobPhases">
+		<tr>
+			<th><spring:message code="moduledistro.result.phase"/></th>
+			<th><spring:message code="moduledistro.result.wallMillis"/></th>
+		</tr>
+	</table>
+	<spring:message code="moduledistro.result.bytesExtracted"/>: <span id="jobBytesExtracted"></span>
+</div>
+
+<script type="text/javascript">
+	var jobLogLines = 0;
+
+	function addResultRow(table, cells) {
+		var row = $j('<tr/>');
+		for (var i = 0; i < cells.length; ++i) {
+			row.append($j('<td/>').text(cells[i] == null ? '' : cells[i]));
+		}
+		$j(table).append(row);
+	}
+
+	function showDeploymentResult(result) {
+		for (var i = 0; i < result.actions.length; ++i) {
+			var a = result.actions[i];
+			addResultRow('#jobActions', [ a.action, a.moduleId, a.oldVersion, a.newVersion, a.wallMillis, a.cpuMillis < 0 ? '' : a.cpuMillis ]);
+		}
+		for (var i = 0; i < result.phases.length; ++i) {
+			addResultRow('#jobPhases', [ result.phases[i].phase, result.phases[i].millis ]);
+		}
+		$j('#jobBytesExtracted').text(result.bytesExtracted);
+		$j('#jobResult').show();
+	}
+
+	function pollDeploymentJob() {
+		$j.getJSON('${pageContext.request.contextPath}/module/moduledistro/job.form',
+			{ id: '<spring:message text="${ job.id }" javaScriptEscape="true"/>', from: jobLogLines },
+			function(job) {
+				$j('#jobStatus').text(job.status);
+				for (var i = 0; i < job.log.length; ++i) {
+					$j('#jobLog').append(document.createTextNode(job.log[i] + '\n'));
+				}
+				jobLogLines += job.log.length;
+				if (job.error) {
+					$j('#jobError').text(job.error).show();
+				}
+				if (job.finished) {
+					showDeploymentResult(job.result);
+				} else {
+					setTimeout(pollDeploymentJob, 1000);
+				}
+			});
+	}
+
+	$j(document).ready(pollDeploymentJob);
+</script>
+
+<%@ include file="/WEB-INF/template/footer.jsp"%>
@@ -11,6 +11,60 @@
 		<br/>
 		<input type="submit" value="<spring:message code="moduledistro.upload.submit"/>"/>
 	</form>
+	<form method="post" enctype="multipart/form-data" action="manage-upload-restart.form">
+		<spring:message code="moduledistro.upload.zip"/>:
+		<input type="file" name="distributionZip"/>
+		<br/>
+		<input type="submit" value="<spring:message code="moduledistro.upload.submitForRestart"/>"/>
+	</form>
 </fieldset>
 
+<c:if test="${ not empty restartJob }">
+	<div>
+		<spring:message code="moduledistro.restart.lastJob"/>: ${ restartJob.status }
+		<a href="manage-job.form?id=<c:out value="${ restartJob.id }"/>"><spring:message code="moduledistro.restart.viewResult"/></a>
+	</div>
+</c:if>
+
+<c:if test="${ not empty rollbackDate }">
+	<fieldset>
+		<legend><spring:message code="moduledistro.rollback.heading"/></legend>
+		<form method="post" action="manage-rollback.form">
+			<spring:message code="moduledistro.rollback.description"/>
+			<openmrs:formatDate date="${ rollbackDate }" type="long"/>
+			<input type="submit" value="<spring:message code="moduledistro.rollback.submit"/>"
+			       onclick="return confirm('<spring:message code="moduledistro.rollback.confirm" javaScriptEscape="true"/>')"/>
+		</form>
+	</fieldset>
+</c:if>
+
+<c:if test="${ not empty storedDistros }">
+	<fieldset>
+		<legend><spring:message code="moduledistro.stored.heading"/></legend>
+		<table>
+			<tr>
+				<th><spring:message code="moduledistro.stored.date"/></th>
+				<th><spring:message code="moduledistro.stored.name"/></th>
+				<th><spring:message code="moduledistro.stored.omods"/></th>
+				<th></th>
+			</tr>
+			<c:forEach var="distro" items="${ storedDistros }">
+				<tr>
+					<td><openmrs:formatDate date="${ distro.dateCreated }" type="long"/></td>
+					<td><c:out value="${ distro.name }"/></td>
+					<td>
+						<c:forEach var="omod" items="${ distro.omods }" varStatus="status"><c:out value="${ omod.filename }"/><c:if test="${ !status.last }">, </c:if></c:forEach>
+					</td>
+					<td>
+						<form method="post" action="manage-redeploy.form">
+							<input type="hidden" name="digest" value="<c:out value="${ distro.digest }"/>"/>
+							<input type="submit" value="<spring:message code="moduledistro.stored.redeploy"/>"/>
+						</form>
+					</td>
+				</tr>
+			</c:forEach>
+		</table>
+	</fieldset>
+</c:if>
+
 <%@ include file="/WEB-INF/template/footer.jsp"%>
\ No newline at end of file